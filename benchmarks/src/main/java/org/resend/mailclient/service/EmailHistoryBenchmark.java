@@ -0,0 +1,198 @@
+package org.resend.mailclient.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.resend.mailclient.model.Email;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 邮件历史记录基准测试。
+ * <ul>
+ *     <li>getEmailHistory：读取全部历史记录的元数据（不含正文），测试数据生成在 target/history-&lt;数量&gt; 目录中，生成一次后重复使用</li>
+ *     <li>getEmailHistoryPage：按写入顺序倒序读取中间的一页，耗时应与记录总数无关</li>
+ *     <li>queryEmailHistory：按收件人、状态和一个月的发送时间范围查询，通过二级索引求交集</li>
+ *     <li>searchEmailHistory：按主题关键词全文搜索，只命中一条记录，需要与所有记录都包含的词求交集</li>
+ *     <li>searchEmailHistoryCommon：搜索所有记录都包含的词并读取第一页，衡量长倒排列表的解码开销</li>
+ *     <li>append：多个线程并发追加历史记录并等待落盘，衡量组提交下每秒可持久化的记录数</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class EmailHistoryBenchmark {
+    private static final String COMPLETE_MARKER = ".complete";
+    private static final int GENERATE_BATCH = 10000;
+    private static final String COMMON_TERM = "周报";
+
+    @Param({"10000", "100000", "1000000"})
+    public int records;
+
+    private ResendServiceNew resendService;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path dataDir = Paths.get("target", "history-" + records);
+        generateHistory(dataDir.resolve("history"), records);
+        resendService = new ResendServiceNew(dataDir);
+        resendService.whenHistoryReady().join();
+        awaitTextIndex();
+    }
+
+    @TearDown
+    public void tearDown() {
+        resendService.cleanup();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public List<Email> getEmailHistory() {
+        return resendService.getEmailHistory();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Email> getEmailHistoryPage() {
+        return resendService.getEmailHistory(records / 2, 100, HistorySort.LAST_WRITTEN_FIRST);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Email> queryEmailHistory() {
+        HistoryQuery query = new HistoryQuery();
+        query.setRecipient("user" + (records / 2) + "@example.com");
+        query.setStatus("SENT");
+        query.setFrom(LocalDateTime.of(2024, 1, 1, 0, 0));
+        query.setTo(LocalDateTime.of(2024, 2, 1, 0, 0));
+        return resendService.queryEmailHistory(query, 0, 100, HistorySort.LAST_WRITTEN_FIRST);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Email> searchEmailHistory() {
+        HistoryQuery query = new HistoryQuery();
+        query.setText((records / 2) + " 期周报");
+        return resendService.queryEmailHistory(query, 0, 100, HistorySort.LAST_WRITTEN_FIRST);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Email> searchEmailHistoryCommon() {
+        HistoryQuery query = new HistoryQuery();
+        query.setText(COMMON_TERM);
+        return resendService.queryEmailHistory(query, 0, 100, HistorySort.LAST_WRITTEN_FIRST);
+    }
+
+    /**
+     * 全文索引在后台建立，等所有记录都能搜索到后再开始测量
+     */
+    private void awaitTextIndex() {
+        HistoryQuery query = new HistoryQuery();
+        query.setText(COMMON_TERM);
+        while (resendService.countEmailHistory(query) < records) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 并发追加使用的独立存储，每轮迭代使用新的空目录
+     */
+    @State(Scope.Benchmark)
+    public static class AppendState {
+        private final AtomicLong sequence = new AtomicLong();
+        private Path directory;
+        EmailHistoryStore store;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("history-append");
+            store = new EmailHistoryStore(directory, ResendServiceNew.getObjectMapper(), 64L * 1024 * 1024);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            store.close();
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(16)
+    public void append(AppendState state) {
+        long i = state.sequence.incrementAndGet();
+        state.store.append(newEmail(i, LocalDateTime.now())).join();
+    }
+
+    /**
+     * 通过历史记录存储生成测试数据，按批次等待落盘
+     */
+    private static void generateHistory(Path historyDir, int count) throws IOException {
+        if (Files.exists(historyDir.resolve(COMPLETE_MARKER))) {
+            return;
+        }
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        try (EmailHistoryStore store = new EmailHistoryStore(historyDir, ResendServiceNew.getObjectMapper(), 64L * 1024 * 1024)) {
+            store.clear();
+            List<CompletableFuture<Void>> batch = new ArrayList<>(GENERATE_BATCH);
+            for (int i = 0; i < count; i++) {
+                batch.add(store.append(newEmail(i, start.plusSeconds(i))));
+                if (batch.size() == GENERATE_BATCH) {
+                    CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).join();
+                    batch.clear();
+                }
+            }
+            CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).join();
+        }
+        Files.createFile(historyDir.resolve(COMPLETE_MARKER));
+    }
+
+    private static Email newEmail(long i, LocalDateTime sentAt) {
+        Email email = new Email("营销团队", "news@example.com",
+                new ArrayList<>(Collections.singletonList("user" + i + "@example.com")),
+                "第 " + i + " 期周报", "<h1>周报</h1><p>本周更新内容……</p>");
+        email.setId("bench-" + i);
+        email.setStatus("SENT");
+        email.setSentAt(sentAt);
+        email.setIdempotencyKey("bench-key-" + i);
+        return email;
+    }
+}
@@ -0,0 +1,75 @@
+package org.resend.mailclient.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.resend.mailclient.model.Email;
+import org.resend.mailclient.model.EmailTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Email 和 EmailTemplate 的 JSON 序列化、反序列化基准测试，使用与历史记录相同的 ObjectMapper 配置
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonSerializationBenchmark {
+    private final ObjectMapper objectMapper = ResendServiceNew.getObjectMapper();
+
+    private Email email;
+    private EmailTemplate template;
+    private byte[] emailJson;
+    private byte[] templateJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        String html = "<html><body><h1>订单确认</h1>" + "<p>您的订单 {orderNumber} 已发货，感谢您的购买。</p>".repeat(40) + "</body></html>";
+        List<String> recipients = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            recipients.add("customer" + i + "@example.com");
+        }
+        email = new Email("商城", "shop@example.com", recipients, "您的订单已确认", html);
+        email.setId("4ef9a417-02e9-4d39-ad75-9611e0fcc33c");
+        email.setStatus("SENT");
+        email.setIdempotencyKey("0b8d3f6a-1f3c-4a44-9b8e-8f43c1a2b7de");
+        template = new EmailTemplate("订单确认", "您的订单 {orderNumber} 已确认", html, recipients);
+
+        emailJson = objectMapper.writeValueAsBytes(email);
+        templateJson = objectMapper.writeValueAsBytes(template);
+    }
+
+    @Benchmark
+    public byte[] serializeEmail() throws IOException {
+        return objectMapper.writeValueAsBytes(email);
+    }
+
+    @Benchmark
+    public Email deserializeEmail() throws IOException {
+        return objectMapper.readValue(emailJson, Email.class);
+    }
+
+    @Benchmark
+    public byte[] serializeTemplate() throws IOException {
+        return objectMapper.writeValueAsBytes(template);
+    }
+
+    @Benchmark
+    public EmailTemplate deserializeTemplate() throws IOException {
+        return objectMapper.readValue(templateJson, EmailTemplate.class);
+    }
+}
@@ -0,0 +1,99 @@
+package org.resend.mailclient.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.resend.mailclient.model.Email;
+import org.resend.mailclient.model.EmailPriority;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 优先级通道基准测试：后台持续群发批量邮件，使发送队列和限流器都处于饱和状态，
+ * 测量此时单封邮件从提交到完成的耗时分布。事务邮件的 p99 应接近空载时的耗时，
+ * 与同样条件下普通、批量邮件的结果对比即可看出预留容量和加权调度的效果。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dmailclient.send.rate.limit=200", "-Dmailclient.send.retry.max.attempts=1",
+        "-Dmailclient.send.queue.capacity=100000"})
+public class PriorityLaneBenchmark {
+    private static final int BULK_BACKLOG = 20000;
+
+    @Param({"TRANSACTIONAL", "NORMAL", "BULK"})
+    public EmailPriority priority;
+
+    private MockResendServer server;
+    private Path dataDir;
+    private ResendServiceNew resendService;
+    private volatile boolean running;
+    private Thread bulkLoad;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new MockResendServer(0);
+        server.setLatency(MockResendServer.LatencyDistribution.fixed(20));
+        server.start();
+        dataDir = Files.createTempDirectory("lane-benchmark");
+        resendService = new ResendServiceNew(dataDir);
+        resendService.setBaseUrl(server.getBaseUrl());
+        resendService.initializeResend("re_benchmark");
+
+        running = true;
+        bulkLoad = new Thread(() -> {
+            while (running) {
+                List<Email> emails = new ArrayList<>(BULK_BACKLOG);
+                for (int i = 0; i < BULK_BACKLOG; i++) {
+                    Email email = newEmail("bulk" + i + "@example.com");
+                    email.setPriority(EmailPriority.BULK);
+                    emails.add(email);
+                }
+                resendService.sendAllAsync(emails).getAggregate().join();
+            }
+        }, "bulk-load");
+        bulkLoad.setDaemon(true);
+        bulkLoad.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        running = false;
+        resendService.cleanup();
+        server.close();
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public SendResult sendUnderBulkLoad() {
+        Email email = newEmail("user@example.com");
+        email.setPriority(priority);
+        return resendService.sendEmailAsync(email).join();
+    }
+
+    private static Email newEmail(String recipient) {
+        return new Email("压测", "bench@example.com", new ArrayList<>(Collections.singletonList(recipient)),
+                "优先级测试", "<p>hello</p>");
+    }
+}
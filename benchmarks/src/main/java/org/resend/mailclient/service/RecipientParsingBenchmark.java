@@ -0,0 +1,64 @@
+package org.resend.mailclient.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 收件人解析、邮箱校验和发件人格式化的基准测试
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipientParsingBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int recipients;
+
+    private String recipientField;
+    private List<String> addresses;
+
+    @Setup
+    public void setUp() {
+        addresses = IntStream.range(0, recipients)
+                .mapToObj(i -> "user" + i + "@mail" + (i % 7) + ".example.com")
+                .collect(Collectors.toList());
+        // 模拟界面输入：分号分隔，带有空格和空项
+        recipientField = addresses.stream().collect(Collectors.joining(" ; ", " ", ";;"));
+    }
+
+    @Benchmark
+    public List<String> parseRecipients() {
+        return ResendServiceNew.parseRecipients(recipientField);
+    }
+
+    @Benchmark
+    public void validateEmail(Blackhole blackhole) {
+        for (String address : addresses) {
+            ResendServiceNew.validateEmail(address);
+            blackhole.consume(address);
+        }
+    }
+
+    @Benchmark
+    public String formatFrom() {
+        return ResendServiceNew.formatFrom(" 营销团队 ", " news@example.com ");
+    }
+}
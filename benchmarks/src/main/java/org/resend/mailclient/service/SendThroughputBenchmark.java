@@ -0,0 +1,84 @@
+package org.resend.mailclient.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.resend.mailclient.model.Email;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 端到端发送吞吐量基准测试：经过调度器、限流器、重试、发件箱和历史记录，
+ * 请求发往进程内的 {@link MockResendServer}。限流上限通过系统属性调高，测量的是客户端自身的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dmailclient.send.rate.limit=1000000", "-Dmailclient.send.retry.max.attempts=1"})
+public class SendThroughputBenchmark {
+    private static final int EMAILS_PER_INVOCATION = 100;
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param({"single", "batch"})
+    public String mode;
+
+    private MockResendServer server;
+    private Path dataDir;
+    private ResendServiceNew resendService;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new MockResendServer(0);
+        server.setLatency(MockResendServer.LatencyDistribution.fixed(latencyMillis));
+        server.start();
+        dataDir = Files.createTempDirectory("send-benchmark");
+        resendService = new ResendServiceNew(dataDir);
+        resendService.setBaseUrl(server.getBaseUrl());
+        resendService.initializeResend("re_benchmark");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        resendService.cleanup();
+        server.close();
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EMAILS_PER_INVOCATION)
+    public List<SendResult> send() {
+        List<Email> emails = new ArrayList<>(EMAILS_PER_INVOCATION);
+        for (int i = 0; i < EMAILS_PER_INVOCATION; i++) {
+            List<String> recipients = new ArrayList<>(1);
+            recipients.add("user" + i + "@example.com");
+            emails.add(new Email("压测", "bench@example.com", recipients, "吞吐量测试 " + i, "<p>hello</p>"));
+        }
+        BulkSendHandle handle = "batch".equals(mode)
+                ? resendService.sendAllBatchedAsync(emails)
+                : resendService.sendAllAsync(emails);
+        return handle.getAggregate().join();
+    }
+}
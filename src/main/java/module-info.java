@@ -3,12 +3,24 @@ module org.resend.mailclient {
     requires javafx.controls;
     requires javafx.fxml;
     requires javafx.web; // 明确声明web模块
+    requires java.net.http;
+    requires jdk.httpserver;
 
     // 第三方依赖
     requires resend.java;
+    requires org.apache.logging.log4j;
+    requires com.fasterxml.jackson.annotation;
+    requires com.fasterxml.jackson.databind;
+    requires com.fasterxml.jackson.datatype.jsr310;
+    requires org.apache.commons.io;
+    requires eventbus.java;
 
-    // 开放控制器包权限
-    opens org.resend.mailclient.controller to javafx.fxml;
+    // 开放控制器包权限，事件总线通过反射调用订阅方法
+    opens org.resend.mailclient.controller to javafx.fxml, eventbus.java;
+
+    // 模型和发送链路中的记录由 Jackson 读写，表格通过 PropertyValueFactory 反射读取模型属性
+    opens org.resend.mailclient.model to com.fasterxml.jackson.databind, javafx.base;
+    opens org.resend.mailclient.service to com.fasterxml.jackson.databind;
 
     // 开放主包权限
     opens org.resend.mailclient to javafx.fxml;
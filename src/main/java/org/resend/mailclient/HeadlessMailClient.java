@@ -0,0 +1,446 @@
+package org.resend.mailclient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+import org.resend.mailclient.model.EmailPriority;
+import org.resend.mailclient.model.EmailTemplate;
+import org.resend.mailclient.service.CampaignHandle;
+import org.resend.mailclient.service.ConfigService;
+import org.resend.mailclient.service.MockResendServer;
+import org.resend.mailclient.service.ResendServiceNew;
+import org.resend.mailclient.service.SendResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 无界面运行入口，不依赖 JavaFX，适合在服务器上发送邮件。支持三种模式：
+ * <ul>
+ *     <li>send：发送单封邮件</li>
+ *     <li>campaign：按收件人文件（CSV/JSONL）群发模板邮件</li>
+ *     <li>daemon：常驻运行，持续发送投递到 spool 目录中的邮件（每个文件一封邮件的 JSON）</li>
+ *     <li>mock-server：启动本地的 Resend 接口模拟服务，用于离线压测</li>
+ * </ul>
+ * API密钥和发件人默认取自 mailclient.properties，API密钥也可以通过环境变量 RESEND_API_KEY 提供。
+ */
+public class HeadlessMailClient {
+    private static final Logger logger = LogManager.getLogger(HeadlessMailClient.class);
+    private static final Set<String> COMMANDS = Set.of("send", "campaign", "daemon", "mock-server");
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private final ResendServiceNew resendService;
+    private final Map<String, String> options;
+    private volatile boolean running = true;
+
+    private HeadlessMailClient(ResendServiceNew resendService, Map<String, String> options) {
+        this.resendService = resendService;
+        this.options = options;
+    }
+
+    /**
+     * 判断命令行参数是否为无界面模式的命令
+     *
+     * @param command 第一个命令行参数
+     * @return 是否为无界面命令
+     */
+    public static boolean isCommand(String command) {
+        return COMMANDS.contains(command);
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * 执行命令
+     *
+     * @param args 命令行参数，第一个参数为命令
+     * @return 退出码
+     */
+    public static int run(String[] args) {
+        if (args.length == 0 || !isCommand(args[0])) {
+            printUsage();
+            return EXIT_USAGE;
+        }
+        Map<String, String> options;
+        try {
+            options = parseOptions(Arrays.copyOfRange(args, 1, args.length));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            return EXIT_USAGE;
+        }
+
+        if ("mock-server".equals(args[0])) {
+            return runMockServer(options);
+        }
+
+        String apiKey = options.getOrDefault("api-key", ConfigService.get("api.key"));
+        if (apiKey.isEmpty()) {
+            apiKey = System.getenv("RESEND_API_KEY");
+        }
+        if (apiKey == null || apiKey.isEmpty()) {
+            System.err.println("未设置API密钥，请在 mailclient.properties 中配置 api.key 或设置环境变量 RESEND_API_KEY");
+            return EXIT_USAGE;
+        }
+
+        ResendServiceNew resendService = new ResendServiceNew();
+        resendService.initializeResend(apiKey);
+        HeadlessMailClient client = new HeadlessMailClient(resendService, options);
+        // 收到终止信号时通知主循环退出，并等待排队邮件发送完毕后再让进程结束
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            client.stop();
+            try {
+                finished.await(Long.parseLong(ConfigService.get("send.shutdown.timeout.seconds", "30")) + 5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "headless-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        try {
+            switch (args[0]) {
+                case "send":
+                    return client.send();
+                case "campaign":
+                    return client.campaign();
+                default:
+                    return client.daemon();
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return EXIT_USAGE;
+        } catch (Exception e) {
+            logger.error("执行失败", e);
+            System.err.println("执行失败: " + e.getMessage());
+            return EXIT_FAILED;
+        } finally {
+            resendService.cleanup();
+            finished.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // 已经在关闭过程中
+            }
+        }
+    }
+
+    /**
+     * 发送单封邮件，内容来自 --html、--html-file 或 --template。
+     * 指定 --send-at 时只写入定时发送队列，到期后由 daemon 或图形界面发送
+     */
+    private int send() throws Exception {
+        String to = require("to");
+        Email email;
+        if (options.containsKey("template")) {
+            Map<String, String> variables = parseVariables(options.get("vars"));
+            // 多个收件人用分号分隔，发送前会被拆分
+            email = resendService.compileTemplate(findTemplate(options.get("template")))
+                    .toEmail(fromName(), fromEmail(), to, variables);
+        } else {
+            String html = options.containsKey("html-file")
+                    ? Files.readString(Paths.get(options.get("html-file")), StandardCharsets.UTF_8)
+                    : require("html");
+            email = new Email(fromName(), fromEmail(), new ArrayList<>(Arrays.asList(to.split(";"))), require("subject"), html);
+        }
+
+        if (options.containsKey("attach")) {
+            // 多个附件用分号分隔
+            email.setAttachments(new ArrayList<>(Arrays.asList(options.get("attach").split(";"))));
+        }
+        if (options.containsKey("priority")) {
+            email.setPriority(EmailPriority.valueOf(options.get("priority").toUpperCase()));
+        }
+        if (options.containsKey("send-at")) {
+            email.setSendAt(parseInstant(options.get("send-at")));
+            String scheduleKey = resendService.scheduleEmail(email).join();
+            System.out.println("邮件已定时于 " + email.getSendAt() + " 发送，取消用的键: " + scheduleKey);
+            return EXIT_OK;
+        }
+
+        SendResult result = resendService.sendEmailAsync(email).join();
+        if (result.isSuccess()) {
+            System.out.println("邮件发送成功，ID: " + result.getEmailId());
+            return EXIT_OK;
+        }
+        System.err.println("邮件发送失败: " + result.getErrorMessage());
+        return EXIT_FAILED;
+    }
+
+    /**
+     * 按收件人文件群发模板邮件，每 5 秒输出一次进度
+     */
+    private int campaign() throws Exception {
+        EmailTemplate template = findTemplate(require("template"));
+        Path recipients = Paths.get(require("recipients"));
+        CampaignHandle handle = resendService.sendCampaignAsync(template, fromName(), fromEmail(), recipients);
+        while (!handle.getCompletion().isDone()) {
+            if (!running) {
+                handle.cancel();
+            }
+            try {
+                handle.getCompletion().get(5, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                System.out.println(handle);
+            }
+        }
+        System.out.println(handle);
+        return handle.getFailedCount() == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * 常驻运行：监视 spool 目录，把新文件移到 processing 子目录后发送，
+     * 完成后按结果移到 sent 或 failed 子目录。启动时 processing 中遗留的文件重新处理，已由发件箱继续发送的不会再次提交。
+     */
+    private int daemon() throws IOException, InterruptedException {
+        Path spool = Paths.get(options.getOrDefault("spool", ConfigService.get("daemon.spool.dir", "mailclient/spool")));
+        Path processing = Files.createDirectories(spool.resolve("processing"));
+        Path sent = Files.createDirectories(spool.resolve("sent"));
+        Path failed = Files.createDirectories(spool.resolve("failed"));
+        long pollMillis = Long.parseLong(ConfigService.get("daemon.poll.ms", "5000"));
+        Semaphore inFlight = new Semaphore(Integer.parseInt(ConfigService.get("send.bulk.window", "100")));
+        ObjectMapper objectMapper = ResendServiceNew.getObjectMapper();
+
+        // 上次运行中断时未完成的文件放回队列。已由发件箱继续发送的文件只等待那次发送的结果，不再次提交
+        for (Path file : listSpoolFiles(processing)) {
+            Files.move(file, spool.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        logger.info("守护进程已启动，spool 目录: {}", spool.toAbsolutePath());
+        try (WatchService watchService = spool.getFileSystem().newWatchService()) {
+            spool.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+            while (running) {
+                for (Path file : listSpoolFiles(spool)) {
+                    if (!running) {
+                        break;
+                    }
+                    inFlight.acquire();
+                    Path claimed = processing.resolve(file.getFileName());
+                    try {
+                        Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        // 文件可能正在被写入或已被其他进程取走
+                        inFlight.release();
+                        continue;
+                    }
+                    submitSpoolFile(claimed, objectMapper, sent, failed).whenComplete((ignored, error) -> inFlight.release());
+                }
+                try {
+                    WatchKey key = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                } catch (ClosedWatchServiceException e) {
+                    break;
+                }
+            }
+        }
+        logger.info("守护进程正在退出");
+        return EXIT_OK;
+    }
+
+    /**
+     * 启动模拟服务并一直运行到进程被终止
+     */
+    private static int runMockServer(Map<String, String> options) {
+        try {
+            MockResendServer server = new MockResendServer(Integer.parseInt(options.getOrDefault("port", "8025")));
+            long latencyMillis = Long.parseLong(options.getOrDefault("latency-ms", "0"));
+            if (options.containsKey("latency-sigma")) {
+                server.setLatency(MockResendServer.LatencyDistribution.logNormal(latencyMillis,
+                        Double.parseDouble(options.get("latency-sigma"))));
+            } else {
+                server.setLatency(MockResendServer.LatencyDistribution.fixed(latencyMillis));
+            }
+            server.setErrorRate(Double.parseDouble(options.getOrDefault("error-rate", "0")));
+            server.setRateLimitRate(Double.parseDouble(options.getOrDefault("rate-limit-rate", "0")));
+            server.setMaxRequestsPerSecond(Double.parseDouble(options.getOrDefault("max-rps", "0")));
+            server.start();
+            System.out.println("模拟服务已启动，请设置 resend.base.url=" + server.getBaseUrl());
+
+            CountDownLatch stopped = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                stopped.countDown();
+            }, "mock-server-shutdown"));
+            stopped.await();
+            return EXIT_OK;
+        } catch (NumberFormatException e) {
+            System.err.println("无效的数字参数: " + e.getMessage());
+            return EXIT_USAGE;
+        } catch (IOException e) {
+            System.err.println("模拟服务启动失败: " + e.getMessage());
+            return EXIT_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_OK;
+        }
+    }
+
+    private CompletableFuture<Void> submitSpoolFile(Path file, ObjectMapper objectMapper, Path sent, Path failed) {
+        Email email;
+        try {
+            email = objectMapper.readValue(file.toFile(), Email.class);
+        } catch (IOException e) {
+            logger.error("无法解析 spool 文件: {}", file, e);
+            moveQuietly(file, failed);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (email.getIdempotencyKey() == null) {
+            email.setIdempotencyKey(UUID.nameUUIDFromBytes(file.getFileName().toString().getBytes(StandardCharsets.UTF_8)).toString());
+        }
+        if (email.getFromEmail() == null) {
+            email.setFromName(ConfigService.get("sender.name", ""));
+            email.setFromEmail(ConfigService.get("sender.email", ""));
+        }
+        CompletableFuture<SendResult> send = resendService.findResumedSend(email.getIdempotencyKey());
+        if (send != null) {
+            logger.info("spool 文件已由发件箱继续发送，等待发送结果: {}", file.getFileName());
+        } else {
+            send = resendService.sendEmailAsync(email);
+        }
+        return send.thenAccept(result -> {
+            if (result.isSuccess()) {
+                logger.info("spool 邮件发送成功: {} -> {}", file.getFileName(), result.getEmailId());
+                moveQuietly(file, sent);
+            } else {
+                logger.error("spool 邮件发送失败: {} {}", file.getFileName(), result.getErrorMessage());
+                moveQuietly(file, failed);
+            }
+        });
+    }
+
+    private void stop() {
+        running = false;
+    }
+
+    private static List<Path> listSpoolFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static void moveQuietly(Path file, Path directory) {
+        try {
+            Files.move(file, directory.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("移动 spool 文件失败: {}", file, e);
+        }
+    }
+
+    private EmailTemplate findTemplate(String idOrName) {
+        return resendService.getTemplates().stream()
+                .filter(template -> idOrName.equals(template.getId()) || idOrName.equals(template.getName()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("找不到模板: " + idOrName));
+    }
+
+    private String fromName() {
+        return options.getOrDefault("from-name", ConfigService.get("sender.name", ""));
+    }
+
+    private String fromEmail() {
+        String fromEmail = options.getOrDefault("from", ConfigService.get("sender.email", ""));
+        if (fromEmail.isEmpty()) {
+            throw new IllegalArgumentException("未设置发件人邮箱，请使用 --from 或在配置中设置 sender.email");
+        }
+        return fromEmail;
+    }
+
+    private String require(String name) {
+        String value = options.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("缺少参数 --" + name);
+        }
+        return value;
+    }
+
+    /**
+     * 解析 --name value 形式的参数
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("无效的参数: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * 解析 key=value,key=value 形式的模板变量
+     */
+    private static Map<String, String> parseVariables(String text) {
+        Map<String, String> variables = new HashMap<>();
+        if (text == null) {
+            return variables;
+        }
+        for (String pair : text.split(",")) {
+            int index = pair.indexOf('=');
+            if (index > 0) {
+                variables.put(pair.substring(0, index).trim(), pair.substring(index + 1));
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * 解析时间，支持 2026-01-01T09:00:00Z 形式的绝对时间和按本地时区解释的 2026-01-01T09:00
+     */
+    private static Instant parseInstant(String text) {
+        try {
+            return Instant.parse(text);
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(text).atZone(ZoneId.systemDefault()).toInstant();
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("用法:");
+        System.err.println("  send     --to 收件人[;收件人] (--subject 主题 (--html 内容 | --html-file 文件) | --template 模板ID或名称 [--vars k=v,k=v])");
+        System.err.println("           [--from 发件人邮箱] [--from-name 发件人名称] [--priority transactional|normal|bulk]");
+        System.err.println("           [--attach 附件1;附件2]");
+        System.err.println("           [--send-at 2026-01-01T09:00 定时发送，到期后由 daemon 或图形界面发送]");
+        System.err.println("  campaign --template 模板ID或名称 --recipients 收件人文件.csv|.jsonl [--from 发件人邮箱] [--from-name 发件人名称]");
+        System.err.println("  daemon   [--spool 目录]");
+        System.err.println("  mock-server [--port 8025] [--latency-ms 毫秒] [--latency-sigma 对数标准差] [--error-rate 0-1]");
+        System.err.println("           [--rate-limit-rate 0-1] [--max-rps 每秒请求数]");
+        System.err.println("通用参数: [--api-key API密钥]");
+    }
+}
@@ -0,0 +1,19 @@
+package org.resend.mailclient;
+
+/**
+ * 可执行 JAR 的入口。第一个参数为 send、campaign、daemon 或 mock-server 时以无界面模式运行，
+ * 不加载任何 JavaFX 类；否则启动图形界面。
+ * 图形界面通过反射启动，保证无界面模式下 JavaFX 模块缺失也能正常运行。
+ */
+public class Launcher {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && HeadlessMailClient.isCommand(args[0])) {
+            HeadlessMailClient.main(args);
+            return;
+        }
+        Class.forName("org.resend.mailclient.MainApp")
+                .getMethod("main", String[].class)
+                .invoke(null, (Object) args);
+    }
+}
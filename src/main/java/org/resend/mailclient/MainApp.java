@@ -6,11 +6,14 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.stage.Stage;
+import org.resend.mailclient.controller.MainController;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.URL;
 
 public class MainApp extends Application {
+    private MainController controller;
+
     @Override
     public void start(Stage stage) {
         try {
@@ -23,6 +26,7 @@ public class MainApp extends Application {
             // 2. 加载FXML
             FXMLLoader loader = new FXMLLoader(fxmlUrl);
             Parent root = loader.load();
+            controller = loader.getController();
 
             // 3. 设置场景
             Scene scene = new Scene(root, 800, 600);
@@ -43,6 +47,14 @@ public class MainApp extends Application {
         }
     }
 
+    @Override
+    public void stop() {
+        // 关闭窗口时等待排队中的邮件发送完毕
+        if (controller != null) {
+            controller.cleanup();
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
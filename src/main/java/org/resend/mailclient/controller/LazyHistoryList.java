@@ -0,0 +1,307 @@
+package org.resend.mailclient.controller;
+
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import javafx.util.Duration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+import org.resend.mailclient.service.ConfigService;
+import org.resend.mailclient.service.HistoryQuery;
+import org.resend.mailclient.service.HistorySort;
+import org.resend.mailclient.service.ResendServiceNew;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 邮件历史表格的虚拟数据源。
+ * 列表只知道记录总数，TableView 渲染某一行时才按页从历史记录中读取，页面加载完成前该行显示占位记录。
+ * 只缓存最近访问的几页，内存占用与可见窗口成正比，与历史记录总数无关。
+ * <p>
+ * 页面按写入顺序划分：第 N 页是按写入顺序排在 [N × 页大小, (N + 1) × 页大小) 的记录，与显示顺序无关。
+ * 历史记录只会追加，新记录不会改变已有记录所在的页，因此有新记录时已加载的页面继续有效：
+ * 按写入顺序显示时新行追加到列表末尾，按写入倒序显示时插入到列表开头，只重新加载原来未满的最后一页。
+ * 记录数减少（清空历史记录）时才丢弃所有页面重新加载。
+ * <p>
+ * 页大小由 ui.history.page.size（默认 100）控制，缓存页数由 ui.history.cached.pages（默认 8）控制。
+ * 页面在单个后台线程中加载，快速滚动时离当前位置太远的请求直接丢弃。
+ * 每隔 ui.history.poll.millis（默认 1000）毫秒检查一次记录总数。
+ * 设置查询条件后只显示命中的记录，记录总数和页面都在后台线程中查询。
+ * <p>
+ * 除 {@link #shutdown()} 外，所有方法都必须在 JavaFX 线程调用。
+ */
+class LazyHistoryList extends ObservableListBase<Email> {
+    private static final Logger logger = LogManager.getLogger(LazyHistoryList.class);
+    private static final Email PLACEHOLDER = new Email();
+
+    static {
+        PLACEHOLDER.setSubject("加载中…");
+    }
+
+    private final ResendServiceNew resendService;
+    private final int pageSize;
+    private final int cachedPages;
+    // 按写入顺序划分的页面
+    private final Map<Long, List<Email>> pages;
+    private final Set<Long> loading = new HashSet<>();
+    private final ExecutorService loader;
+    private final Timeline poller;
+
+    private HistorySort sort = HistorySort.LAST_WRITTEN_FIRST;
+    private HistoryQuery query = new HistoryQuery();
+    private long total;
+    private int size;
+    // 刷新或改变排序后递增，丢弃之前发出的页面请求的结果
+    private int generation;
+    private volatile long lastRequestedPage;
+
+    /**
+     * 构造函数
+     *
+     * @param resendService 邮件服务
+     */
+    LazyHistoryList(ResendServiceNew resendService) {
+        this.resendService = resendService;
+        this.pageSize = Math.max(1, Integer.parseInt(ConfigService.get("ui.history.page.size", "100")));
+        this.cachedPages = Math.max(2, Integer.parseInt(ConfigService.get("ui.history.cached.pages", "8")));
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<Email>> eldest) {
+                return size() > cachedPages;
+            }
+        };
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "history-page-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long pollMillis = Math.max(100, Long.parseLong(ConfigService.get("ui.history.poll.millis", "1000")));
+        this.poller = new Timeline(new KeyFrame(Duration.millis(pollMillis), event -> pollCount()));
+        this.poller.setCycleCount(Animation.INDEFINITE);
+    }
+
+    /**
+     * 判断是否为页面加载完成前的占位记录
+     *
+     * @param email 邮件对象
+     * @return 是否为占位记录
+     */
+    static boolean isPlaceholder(Email email) {
+        return email == PLACEHOLDER;
+    }
+
+    /**
+     * 读取记录总数并开始检查新记录
+     */
+    void start() {
+        refresh();
+        poller.play();
+    }
+
+    @Override
+    public Email get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        long position = position(index);
+        long page = position / pageSize;
+        List<Email> emails = pages.get(page);
+        if (emails != null) {
+            int offset = (int) (position - page * pageSize);
+            return offset < emails.size() ? emails.get(offset) : PLACEHOLDER;
+        }
+        requestPage(page);
+        return PLACEHOLDER;
+    }
+
+    /**
+     * 行号对应的记录按写入顺序的位置
+     */
+    private long position(int index) {
+        return sort == HistorySort.FIRST_WRITTEN_FIRST ? index : total - 1 - index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 获取当前排序方式
+     *
+     * @return 排序方式
+     */
+    HistorySort getSort() {
+        return sort;
+    }
+
+    /**
+     * 改变排序方式并重新加载
+     *
+     * @param sort 排序方式
+     */
+    void setSort(HistorySort sort) {
+        if (this.sort != sort) {
+            this.sort = sort;
+            refresh();
+        }
+    }
+
+    /**
+     * 设置查询条件并重新加载
+     *
+     * @param query 查询条件，为 null 时显示全部记录
+     */
+    void setQuery(HistoryQuery query) {
+        this.query = query != null ? query : new HistoryQuery();
+        refresh();
+    }
+
+    /**
+     * 丢弃缓存的页面，在后台重新读取记录总数，表格会按需重新加载可见的页面
+     */
+    void refresh() {
+        generation++;
+        pages.clear();
+        loading.clear();
+        int requestGeneration = generation;
+        HistoryQuery requestQuery = query;
+        loader.execute(() -> {
+            long count = resendService.countEmailHistory(requestQuery);
+            Platform.runLater(() -> {
+                if (requestGeneration == generation) {
+                    applyTotal(count);
+                }
+            });
+        });
+    }
+
+    private void applyTotal(long count) {
+        int oldSize = size;
+        total = count;
+        size = (int) Math.min(total, Integer.MAX_VALUE);
+        beginChange();
+        nextReplace(0, size, Collections.nCopies(oldSize, PLACEHOLDER));
+        endChange();
+    }
+
+    /**
+     * 在后台检查记录总数：增加时只添加新行，减少时重新加载
+     */
+    private void pollCount() {
+        int requestGeneration = generation;
+        HistoryQuery requestQuery = query;
+        loader.execute(() -> {
+            long count = resendService.countEmailHistory(requestQuery);
+            Platform.runLater(() -> {
+                if (requestGeneration != generation || count == total) {
+                    return;
+                }
+                if (count > total) {
+                    applyGrowth(count);
+                } else {
+                    refresh();
+                }
+            });
+        });
+    }
+
+    /**
+     * 追加了新记录：已加载的页面保留，原来未满的最后一页在后台重新加载，
+     * 新行按排序方式添加到列表末尾或开头，表格的选中行随之移动
+     */
+    private void applyGrowth(long count) {
+        long oldTotal = total;
+        int oldSize = size;
+        total = count;
+        size = (int) Math.min(total, Integer.MAX_VALUE);
+        long partialPage = oldTotal / pageSize;
+        if (oldTotal % pageSize != 0 && pages.containsKey(partialPage)) {
+            loadPage(partialPage);
+        }
+        if (size == oldSize) {
+            return;
+        }
+        beginChange();
+        if (sort == HistorySort.FIRST_WRITTEN_FIRST) {
+            nextAdd(oldSize, size);
+        } else {
+            nextAdd(0, size - oldSize);
+        }
+        endChange();
+    }
+
+    /**
+     * 停止检查新记录和后台加载
+     */
+    void shutdown() {
+        Platform.runLater(poller::stop);
+        loader.shutdownNow();
+    }
+
+    private void requestPage(long page) {
+        lastRequestedPage = page;
+        loadPage(page);
+    }
+
+    private void loadPage(long page) {
+        if (!loading.add(page)) {
+            return;
+        }
+        int requestGeneration = generation;
+        HistoryQuery requestQuery = query;
+        loader.execute(() -> {
+            // 快速滚动时排队的请求可能已经离开可见区域
+            if (Math.abs(page - lastRequestedPage) > cachedPages / 2) {
+                Platform.runLater(() -> {
+                    if (requestGeneration == generation) {
+                        loading.remove(page);
+                        // 未满的最后一页不再重新加载时丢弃，下次访问时重新读取新追加的行
+                        pages.remove(page);
+                    }
+                });
+                return;
+            }
+            // 页面按写入顺序读取，与显示顺序无关，新记录不会移动已读取的页面
+            List<Email> emails = resendService.queryEmailHistory(requestQuery, page * pageSize, pageSize,
+                    HistorySort.FIRST_WRITTEN_FIRST);
+            Platform.runLater(() -> pageLoaded(requestGeneration, page, emails));
+        });
+    }
+
+    private void pageLoaded(int requestGeneration, long page, List<Email> emails) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        loading.remove(page);
+        pages.put(page, emails);
+        long first = page * pageSize;
+        long end = first + emails.size();
+        int from;
+        int to;
+        if (sort == HistorySort.FIRST_WRITTEN_FIRST) {
+            from = (int) Math.min(first, size);
+            to = (int) Math.min(end, size);
+        } else {
+            from = (int) Math.min(Math.max(0, total - end), size);
+            to = (int) Math.min(Math.max(0, total - first), size);
+        }
+        if (from >= to) {
+            return;
+        }
+        logger.debug("已加载邮件历史第 {} 页，共 {} 条", page, emails.size());
+        beginChange();
+        nextReplace(from, to, Collections.nCopies(to - from, PLACEHOLDER));
+        endChange();
+    }
+}
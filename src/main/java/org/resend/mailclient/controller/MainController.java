@@ -1,5 +1,6 @@
 package org.resend.mailclient.controller;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -9,6 +10,7 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.web.HTMLEditor;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.greenrobot.eventbus.EventBus;
@@ -17,7 +19,11 @@ import org.resend.mailclient.model.Email;
 import org.resend.mailclient.model.EmailConfig;
 import org.resend.mailclient.model.EmailTemplate;
 import org.resend.mailclient.service.ConfigManager;
+import org.resend.mailclient.service.HistoryQuery;
+import org.resend.mailclient.service.HistorySort;
 import org.resend.mailclient.service.ResendServiceNew;
+import org.resend.mailclient.service.RetryExecutor;
+import org.resend.mailclient.service.events.CircuitStateChangedEvent;
 import org.resend.mailclient.service.events.EmailSentEvent;
 import org.resend.mailclient.service.events.StatusUpdateEvent;
 import org.resend.mailclient.service.events.TemplateLoadedEvent;
@@ -27,6 +33,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 主控制器类，处理邮件客户端的主要功能
@@ -48,8 +55,10 @@ public class MainController {
 
     // UI组件 - 状态栏
     @FXML private Label statusLabel;
+    @FXML private ProgressBar sendProgressBar;
 
     // UI组件 - 邮件历史
+    @FXML private TextField historySearchField;
     @FXML private TableView<Email> emailHistoryTable;
     @FXML private TableColumn<Email, String> statusColumn;
     @FXML private TableColumn<Email, String> subjectColumn;
@@ -61,15 +70,17 @@ public class MainController {
     @FXML private ListView<EmailTemplate> templateListView;
     @FXML private TextField templateNameField;
     @FXML private TextField templateSubjectField;
+    @FXML private TextField templateRecipientField;
     @FXML private HTMLEditor templateHtmlEditor;
 
     // 数据模型
-    private ObservableList<Email> emailHistory = FXCollections.observableArrayList();
+    private LazyHistoryList emailHistory;
     private ObservableList<EmailTemplate> templates = FXCollections.observableArrayList();
     private EmailConfig emailConfig;
 
     // 服务类
     private final ResendServiceNew resendService = new ResendServiceNew();
+    private ProgressSampler progressSampler;
 
     /**
      * 初始化控制器
@@ -94,6 +105,10 @@ public class MainController {
         // 加载模板数据
         loadTemplates();
 
+        // 按固定帧率刷新发送进度
+        progressSampler = new ProgressSampler(resendService.getSendProgress(), sendProgressBar, statusLabel);
+        progressSampler.start();
+
         logger.info("主控制器初始化完成");
     }
 
@@ -101,6 +116,7 @@ public class MainController {
      * 设置邮件历史表格
      */
     private void setupEmailHistoryTable() {
+        emailHistory = new LazyHistoryList(resendService);
         statusColumn.setCellValueFactory(new PropertyValueFactory<>("status"));
         subjectColumn.setCellValueFactory(new PropertyValueFactory<>("subject"));
         recipientColumn.setCellValueFactory(new PropertyValueFactory<>("to"));
@@ -120,7 +136,12 @@ public class MainController {
                     } else {
                         Button viewButton = new Button("查看");
                         viewButton.setStyle("-fx-background-color: #3498db; -fx-text-fill: white;");
-                        viewButton.setOnAction(event -> viewEmail(getTableView().getItems().get(getIndex())));
+                        viewButton.setOnAction(event -> {
+                            Email email = getTableView().getItems().get(getIndex());
+                            if (!LazyHistoryList.isPlaceholder(email)) {
+                                viewEmail(email);
+                            }
+                        });
                         setGraphic(viewButton);
                         setText(null);
                     }
@@ -129,7 +150,31 @@ public class MainController {
             return cell;
         });
 
-        emailHistoryTable.setItems(emailHistory);
+        // 历史记录按页从磁盘读取，只支持按写入顺序排序（通常与发送时间一致），日期列的排序交给存储层完成
+        statusColumn.setSortable(false);
+        subjectColumn.setSortable(false);
+        recipientColumn.setSortable(false);
+        actionColumn.setSortable(false);
+        emailHistoryTable.setSortPolicy(table -> {
+            List<TableColumn<Email, ?>> order = table.getSortOrder();
+            boolean ascending = !order.isEmpty() && order.get(0) == dateColumn
+                    && dateColumn.getSortType() == TableColumn.SortType.ASCENDING;
+            emailHistory.setSort(ascending ? HistorySort.FIRST_WRITTEN_FIRST : HistorySort.LAST_WRITTEN_FIRST);
+            return true;
+        });
+
+        // 输入停顿后自动搜索，避免每输入一个字就查询一次
+        PauseTransition searchDelay = new PauseTransition(Duration.millis(300));
+        searchDelay.setOnFinished(event -> handleSearchHistory());
+        historySearchField.textProperty().addListener((observable, oldValue, newValue) -> searchDelay.playFromStart());
+
+        // 历史记录在后台打开，打开完成后再显示记录
+        emailHistoryTable.setPlaceholder(new Label("正在加载邮件历史..."));
+        resendService.whenHistoryReady().thenRun(() -> Platform.runLater(() -> {
+            emailHistoryTable.setPlaceholder(new Label("暂无邮件历史"));
+            emailHistoryTable.setItems(emailHistory);
+            emailHistory.start();
+        }));
     }
 
     /**
@@ -191,9 +236,9 @@ public class MainController {
         // 这里应该从文件或数据库加载模板
         // 目前使用示例数据
         EmailTemplate template1 = new EmailTemplate("欢迎邮件", "欢迎加入我们", "<h1>欢迎加入我们的平台</h1><p>尊敬的用户，感谢您的注册！</p>");
-        template1.setToRecipients(List.of("welcome@example.com"));
+        template1.setRecipients(List.of("welcome@example.com"));
         EmailTemplate template2 = new EmailTemplate("订单确认", "您的订单已确认", "<h1>订单确认</h1><p>您的订单已确认，订单号：{orderNumber}</p>");
-        template2.setToRecipients(List.of("order@example.com"));
+        template2.setRecipients(List.of("order@example.com"));
 
         templates.addAll(template1, template2);
     }
@@ -206,8 +251,8 @@ public class MainController {
             templateNameField.setText(template.getName());
             templateSubjectField.setText(template.getSubject());
             templateHtmlEditor.setHtmlText(template.getHtmlContent());
-            if (template.getToRecipients() != null && !template.getToRecipients().isEmpty()) {
-                templateRecipientField.setText(String.join(";", template.getToRecipients()));
+            if (template.getRecipients() != null && !template.getRecipients().isEmpty()) {
+                templateRecipientField.setText(String.join(";", template.getRecipients()));
             } else {
                 templateRecipientField.clear();
             }
@@ -263,17 +308,27 @@ public class MainController {
             return;
         }
 
-        // 假设 API 密钥格式有效，进行初始化
-        try {
-            resendService.initializeResend(apiKey);
-            emailConfig.setApiKey(apiKey);
+        String key = apiKey.trim();
+        updateStatus("正在验证 API 密钥...");
+        // 在发送调度器中验证，不阻塞界面线程；验证通过后才初始化客户端并保存
+        resendService.verifyApiKeyAsync(key).whenComplete((isValid, e) -> Platform.runLater(() -> {
+            if (e != null) {
+                logger.error("API 密钥验证失败", e);
+                showAlert(Alert.AlertType.ERROR, "验证失败", "验证 API 密钥时出错: " + e.getMessage());
+                updateStatus("API 密钥验证失败: " + e.getMessage());
+                return;
+            }
+            if (!isValid) {
+                showAlert(Alert.AlertType.ERROR, "验证失败", "API 密钥无效。");
+                updateStatus("API 密钥验证失败：密钥无效。");
+                return;
+            }
+            resendService.initializeResend(key);
+            emailConfig.setApiKey(key);
             handleSaveConfig(); // 保存更新后的配置
             updateStatus("API 密钥已验证，Resend 服务已初始化。");
             showAlert(Alert.AlertType.INFORMATION, "验证成功", "API 密钥已成功验证并保存。");
-        } catch (Exception e) {
-            showAlert(Alert.AlertType.ERROR, "验证失败", "初始化 Resend 服务失败: " + e.getMessage());
-            updateStatus("API 密钥验证失败: " + e.getMessage());
-        }
+        }));
     }
 
     /**
@@ -304,45 +359,29 @@ public class MainController {
             return;
         }
 
-        if (html.isEmpty() || html.equals("<html dir="ltr"><head></head><body contenteditable="true"></body></html>")) {
+        if (html.isEmpty() || html.equals("<html dir=\"ltr\"><head></head><body contenteditable=\"true\"></body></html>")) {
             showAlert(Alert.AlertType.ERROR, "错误", "邮件内容不能为空");
             return;
         }
 
         // 创建邮件对象
         Email email = new Email(fromName, fromEmail, List.of(to.split(";")), subject, html);
-        emailHistory.add(0, email); // 添加到历史记录顶部
-
-        // 在新线程中发送邮件
-        new Thread(() -> {
-            try {
-                updateStatus("正在发送邮件...");
-                String emailId = resendService.sendEmail(fromName, fromEmail, List.of(to.split(";")), subject, html);
-
-                // 更新邮件状态
-                email.setId(emailId);
-                email.setStatus("SENT");
-                email.setSentAt(LocalDateTime.now());
 
+        // 提交到发送队列，由后台工作线程发送
+        updateStatus("正在发送邮件...");
+        resendService.sendEmailAsync(email).thenAccept(result -> {
+            if (!result.isSuccess()) {
+                logger.error("邮件发送失败", result.getError());
                 Platform.runLater(() -> {
-                    updateStatus("发送成功！ID: " + emailId);
-                    showAlert(Alert.AlertType.INFORMATION, "成功", "邮件发送成功");
-                });
-
-                // 发送事件
-                EventBus.getDefault().post(new EmailSentEvent(email, true));
-
-            } catch (Exception e) {
-                email.setStatus("FAILED");
-                email.setErrorMessage(e.getMessage());
-
-                logger.error("邮件发送失败", e);
-                Platform.runLater(() -> {
-                    updateStatus("发送失败: " + e.getMessage());
-                    showAlert(Alert.AlertType.ERROR, "错误", "邮件发送失败: " + e.getMessage());
+                    updateStatus("发送失败: " + result.getErrorMessage());
+                    showAlert(Alert.AlertType.ERROR, "错误", "邮件发送失败: " + result.getErrorMessage());
                 });
+                return;
             }
-        }).start();
+
+            // EmailSentEvent 已由发送服务发布，这里只更新状态栏
+            updateStatus("发送成功！ID: " + result.getEmailId());
+        });
     }
 
     /**
@@ -399,7 +438,7 @@ public class MainController {
             String subject = subjectField.getText();
             String html = htmlEditor.getHtmlText();
 
-            if (html.isEmpty() || html.equals("<html dir="ltr"><head></head><body contenteditable="true"></body></html>")) {
+            if (html.isEmpty() || html.equals("<html dir=\"ltr\"><head></head><body contenteditable=\"true\"></body></html>")) {
                 showAlert(Alert.AlertType.WARNING, "提示", "邮件内容为空，无法预览");
                 return;
             }
@@ -434,9 +473,9 @@ public class MainController {
     @FXML
     private void handleAddFromTemplate() {
         EmailTemplate selectedTemplate = templateListView.getSelectionModel().getSelectedItem();
-        if (selectedTemplate != null && selectedTemplate.getToRecipients() != null && !selectedTemplate.getToRecipients().isEmpty()) {
+        if (selectedTemplate != null && selectedTemplate.getRecipients() != null && !selectedTemplate.getRecipients().isEmpty()) {
             String currentRecipients = recipientField.getText().trim();
-            String newRecipients = String.join(";", selectedTemplate.getToRecipients());
+            String newRecipients = String.join(";", selectedTemplate.getRecipients());
             if (currentRecipients.isEmpty()) {
                 recipientField.setText(newRecipients);
             } else {
@@ -466,8 +505,8 @@ public class MainController {
         htmlEditor.setHtmlText(template.getHtmlContent());
         
         // 如果模板有收件人，则添加到收件人字段
-        if (template.getToRecipients() != null && !template.getToRecipients().isEmpty()) {
-            recipientField.setText(String.join(";", template.getToRecipients()));
+        if (template.getRecipients() != null && !template.getRecipients().isEmpty()) {
+            recipientField.setText(String.join(";", template.getRecipients()));
         }
         
         updateStatus("已应用模板: " + template.getName());
@@ -513,7 +552,7 @@ public class MainController {
 
         EmailTemplate template = new EmailTemplate(name, subject, content);
         if (!recipients.isEmpty()) {
-            template.setToRecipients(List.of(recipients.split(";")));
+            template.setRecipients(List.of(recipients.split(";")));
         }
         templates.add(template);
 
@@ -535,7 +574,7 @@ public class MainController {
         Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
         alert.setTitle("确认删除");
         alert.setHeaderText(null);
-        alert.setContentText("确定要删除模板 "" + selectedTemplate.getName() + "" 吗？");
+        alert.setContentText("确定要删除模板 \"" + selectedTemplate.getName() + "\" 吗？");
 
         alert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
@@ -557,13 +596,27 @@ public class MainController {
         updateStatus("模板列表已刷新");
     }
 
+    /**
+     * 按关键词搜索邮件历史的主题和正文，关键词为空时显示全部记录
+     */
+    @FXML
+    private void handleSearchHistory() {
+        HistoryQuery query = new HistoryQuery();
+        String text = historySearchField.getText();
+        if (text != null && !text.isBlank()) {
+            query.setText(text.trim());
+        }
+        emailHistory.setQuery(query);
+    }
+
     /**
      * 刷新邮件历史
      */
     @FXML
     private void handleRefreshHistory() {
+        // 只读取记录总数，可见的页面由表格按需加载
+        emailHistory.refresh();
         updateStatus("邮件历史已刷新");
-        // 这里应该从文件或数据库加载历史记录
     }
 
     /**
@@ -578,7 +631,8 @@ public class MainController {
 
         alert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                emailHistory.clear();
+                resendService.clearEmailHistory();
+                emailHistory.refresh();
                 updateStatus("邮件历史已清空");
                 logger.info("邮件历史已清空");
             }
@@ -589,6 +643,27 @@ public class MainController {
      * 查看邮件详情
      */
     private void viewEmail(Email email) {
+        // 历史记录列表只含元数据，正文在后台读取，避免大正文阻塞界面
+        updateStatus("正在加载邮件正文...");
+        CompletableFuture.supplyAsync(() -> resendService.loadEmailBody(email))
+                .whenComplete((html, e) -> Platform.runLater(() -> {
+                    if (e != null) {
+                        // 读取失败时恢复状态栏，否则会一直显示正在加载
+                        Throwable cause = RetryExecutor.unwrap(e);
+                        logger.error("加载邮件正文失败", cause);
+                        updateStatus("加载邮件正文失败: " + cause.getMessage());
+                        showAlert(Alert.AlertType.ERROR, "错误", "加载邮件正文失败: " + cause.getMessage());
+                        return;
+                    }
+                    updateStatus("邮件正文已加载");
+                    showEmail(email, html);
+                }));
+    }
+
+    /**
+     * 显示邮件详情
+     */
+    private void showEmail(Email email, String html) {
         // 显示邮件详情的对话框
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle("邮件详情");
@@ -596,12 +671,12 @@ public class MainController {
 
         VBox content = new VBox(10);
         content.getChildren().addAll(
-            new Label("收件人: " + email.getTo()),
+            new Label("收件人: " + email.getFormattedRecipients()),
             new Label("发送时间: " + email.getSentAt().format(DATE_FORMATTER)),
             new Label("状态: " + email.getStatus()),
             new Separator(),
             new Label("内容:"),
-            new Label(email.getHtmlContent())
+            new Label(html != null ? html : "")
         );
 
         alert.getDialogPane().setContent(content);
@@ -634,7 +709,8 @@ public class MainController {
      */
     @Subscribe
     public void onEmailSent(EmailSentEvent event) {
-        logger.info("收到邮件发送事件: {}", event.getEmail());
+        // 群发时每封邮件都会发布事件，不在这里访问 JavaFX 线程，进度由 ProgressSampler 按帧采样显示
+        logger.debug("收到邮件发送事件: {}", event.getEmail());
     }
 
     /**
@@ -645,6 +721,15 @@ public class MainController {
         logger.info("收到状态更新事件: {}", event.getMessage());
     }
 
+    /**
+     * 处理熔断器状态变化事件，在状态栏显示邮件服务的可用状态
+     */
+    @Subscribe
+    public void onCircuitStateChanged(CircuitStateChangedEvent event) {
+        logger.info("收到熔断器状态变化事件: {} -> {}", event.getPreviousState(), event.getState());
+        Platform.runLater(() -> statusLabel.setText(event.getDescription()));
+    }
+
     /**
      * 处理模板加载事件
      */
@@ -654,9 +739,16 @@ public class MainController {
     }
 
     /**
-     * 注销事件总线
+     * 注销事件总线并等待排队中的邮件发送完毕
      */
     public void cleanup() {
+        if (progressSampler != null) {
+            progressSampler.stop();
+        }
+        if (emailHistory != null) {
+            emailHistory.shutdown();
+        }
         EventBus.getDefault().unregister(this);
+        resendService.cleanup();
     }
 }
@@ -1,5 +1,6 @@
 package org.resend.mailclient.controller;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -9,6 +10,7 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.web.HTMLEditor;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.greenrobot.eventbus.EventBus;
@@ -17,7 +19,11 @@ import org.resend.mailclient.model.Email;
 import org.resend.mailclient.model.EmailConfig;
 import org.resend.mailclient.model.EmailTemplate;
 import org.resend.mailclient.service.ConfigManager;
+import org.resend.mailclient.service.HistoryQuery;
+import org.resend.mailclient.service.HistorySort;
 import org.resend.mailclient.service.ResendServiceNew;
+import org.resend.mailclient.service.RetryExecutor;
+import org.resend.mailclient.service.events.CircuitStateChangedEvent;
 import org.resend.mailclient.service.events.EmailSentEvent;
 import org.resend.mailclient.service.events.StatusUpdateEvent;
 import org.resend.mailclient.service.events.TemplateLoadedEvent;
@@ -27,6 +33,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 主控制器类，处理邮件客户端的主要功能
@@ -48,8 +55,10 @@ public class MainControllerFixed {
 
     // UI组件 - 状态栏
     @FXML private Label statusLabel;
+    @FXML private ProgressBar sendProgressBar;
 
     // UI组件 - 邮件历史
+    @FXML private TextField historySearchField;
     @FXML private TableView<Email> emailHistoryTable;
     @FXML private TableColumn<Email, String> statusColumn;
     @FXML private TableColumn<Email, String> subjectColumn;
@@ -64,12 +73,13 @@ public class MainControllerFixed {
     @FXML private HTMLEditor templateHtmlEditor;
 
     // 数据模型
-    private ObservableList<Email> emailHistory = FXCollections.observableArrayList();
+    private LazyHistoryList emailHistory;
     private ObservableList<EmailTemplate> templates = FXCollections.observableArrayList();
     private EmailConfig emailConfig;
 
     // 服务类
     private final ResendServiceNew resendService = new ResendServiceNew();
+    private ProgressSampler progressSampler;
 
     /**
      * 初始化控制器
@@ -94,6 +104,10 @@ public class MainControllerFixed {
         // 设置默认值
         setDefaultValues();
 
+        // 按固定帧率刷新发送进度
+        progressSampler = new ProgressSampler(resendService.getSendProgress(), sendProgressBar, statusLabel);
+        progressSampler.start();
+
         logger.info("主控制器初始化完成");
     }
 
@@ -101,6 +115,7 @@ public class MainControllerFixed {
      * 设置邮件历史表格
      */
     private void setupEmailHistoryTable() {
+        emailHistory = new LazyHistoryList(resendService);
         statusColumn.setCellValueFactory(new PropertyValueFactory<>("status"));
         subjectColumn.setCellValueFactory(new PropertyValueFactory<>("subject"));
         recipientColumn.setCellValueFactory(new PropertyValueFactory<>("to"));
@@ -120,7 +135,12 @@ public class MainControllerFixed {
                     } else {
                         Button viewButton = new Button("查看");
                         viewButton.setStyle("-fx-background-color: #3498db; -fx-text-fill: white;");
-                        viewButton.setOnAction(event -> viewEmail(getTableView().getItems().get(getIndex())));
+                        viewButton.setOnAction(event -> {
+                            Email email = getTableView().getItems().get(getIndex());
+                            if (!LazyHistoryList.isPlaceholder(email)) {
+                                viewEmail(email);
+                            }
+                        });
                         setGraphic(viewButton);
                         setText(null);
                     }
@@ -129,7 +149,31 @@ public class MainControllerFixed {
             return cell;
         });
 
-        emailHistoryTable.setItems(emailHistory);
+        // 历史记录按页从磁盘读取，只支持按写入顺序排序（通常与发送时间一致），日期列的排序交给存储层完成
+        statusColumn.setSortable(false);
+        subjectColumn.setSortable(false);
+        recipientColumn.setSortable(false);
+        actionColumn.setSortable(false);
+        emailHistoryTable.setSortPolicy(table -> {
+            List<TableColumn<Email, ?>> order = table.getSortOrder();
+            boolean ascending = !order.isEmpty() && order.get(0) == dateColumn
+                    && dateColumn.getSortType() == TableColumn.SortType.ASCENDING;
+            emailHistory.setSort(ascending ? HistorySort.FIRST_WRITTEN_FIRST : HistorySort.LAST_WRITTEN_FIRST);
+            return true;
+        });
+
+        // 输入停顿后自动搜索，避免每输入一个字就查询一次
+        PauseTransition searchDelay = new PauseTransition(Duration.millis(300));
+        searchDelay.setOnFinished(event -> handleSearchHistory());
+        historySearchField.textProperty().addListener((observable, oldValue, newValue) -> searchDelay.playFromStart());
+
+        // 历史记录在后台打开，打开完成后再显示记录
+        emailHistoryTable.setPlaceholder(new Label("正在加载邮件历史..."));
+        resendService.whenHistoryReady().thenRun(() -> Platform.runLater(() -> {
+            emailHistoryTable.setPlaceholder(new Label("暂无邮件历史"));
+            emailHistoryTable.setItems(emailHistory);
+            emailHistory.start();
+        }));
     }
 
     /**
@@ -239,26 +283,26 @@ public class MainControllerFixed {
             return;
         }
 
-        new Thread(() -> {
-            try {
-                boolean isValid = resendService.verifyApiKey(apiKey);
-                Platform.runLater(() -> {
-                    if (isValid) {
-                        updateStatus("API密钥验证成功！");
-                        showAlert(Alert.AlertType.INFORMATION, "成功", "API密钥有效");
-                    } else {
-                        updateStatus("API密钥验证失败！");
-                        showAlert(Alert.AlertType.ERROR, "错误", "API密钥无效");
-                    }
-                });
-            } catch (Exception e) {
+        // 在发送调度器中验证，避免为每次点击创建新线程
+        resendService.verifyApiKeyAsync(apiKey).whenComplete((isValid, e) -> {
+            if (e != null) {
                 logger.error("API密钥验证失败", e);
                 Platform.runLater(() -> {
                     updateStatus("API密钥验证出错: " + e.getMessage());
                     showAlert(Alert.AlertType.ERROR, "错误", "验证API密钥时出错: " + e.getMessage());
                 });
+                return;
             }
-        }).start();
+            Platform.runLater(() -> {
+                if (isValid) {
+                    updateStatus("API密钥验证成功！");
+                    showAlert(Alert.AlertType.INFORMATION, "成功", "API密钥有效");
+                } else {
+                    updateStatus("API密钥验证失败！");
+                    showAlert(Alert.AlertType.ERROR, "错误", "API密钥无效");
+                }
+            });
+        });
     }
 
     /**
@@ -287,45 +331,29 @@ public class MainControllerFixed {
             return;
         }
 
-        if (html.isEmpty() || html.equals("<html dir="ltr"><head></head><body contenteditable="true"></body></html>")) {
+        if (html.isEmpty() || html.equals("<html dir=\"ltr\"><head></head><body contenteditable=\"true\"></body></html>")) {
             showAlert(Alert.AlertType.ERROR, "错误", "邮件内容不能为空");
             return;
         }
 
         // 创建邮件对象
         Email email = new Email(fromName, fromEmail, List.of(to.split(";")), subject, html);
-        emailHistory.add(0, email); // 添加到历史记录顶部
-
-        // 在新线程中发送邮件
-        new Thread(() -> {
-            try {
-                updateStatus("正在发送邮件...");
-                String emailId = resendService.sendEmail(fromName, fromEmail, to, subject, html);
-
-                // 更新邮件状态
-                email.setId(emailId);
-                email.setStatus("SENT");
-                email.setSentAt(LocalDateTime.now());
 
+        // 提交到发送队列，由后台工作线程发送
+        updateStatus("正在发送邮件...");
+        resendService.sendEmailAsync(email).thenAccept(result -> {
+            if (!result.isSuccess()) {
+                logger.error("邮件发送失败", result.getError());
                 Platform.runLater(() -> {
-                    updateStatus("发送成功！ID: " + emailId);
-                    showAlert(Alert.AlertType.INFORMATION, "成功", "邮件发送成功");
-                });
-
-                // 发送事件
-                EventBus.getDefault().post(new EmailSentEvent(email, true));
-
-            } catch (Exception e) {
-                email.setStatus("FAILED");
-                email.setErrorMessage(e.getMessage());
-
-                logger.error("邮件发送失败", e);
-                Platform.runLater(() -> {
-                    updateStatus("发送失败: " + e.getMessage());
-                    showAlert(Alert.AlertType.ERROR, "错误", "邮件发送失败: " + e.getMessage());
+                    updateStatus("发送失败: " + result.getErrorMessage());
+                    showAlert(Alert.AlertType.ERROR, "错误", "邮件发送失败: " + result.getErrorMessage());
                 });
+                return;
             }
-        }).start();
+
+            // EmailSentEvent 已由发送服务发布，这里只更新状态栏
+            updateStatus("发送成功！ID: " + result.getEmailId());
+        });
     }
 
     /**
@@ -375,7 +403,7 @@ public class MainControllerFixed {
             String subject = subjectField.getText();
             String html = htmlEditor.getHtmlText();
 
-            if (html.isEmpty() || html.equals("<html dir="ltr"><head></head><body contenteditable="true"></body></html>")) {
+            if (html.isEmpty() || html.equals("<html dir=\"ltr\"><head></head><body contenteditable=\"true\"></body></html>")) {
                 showAlert(Alert.AlertType.WARNING, "提示", "邮件内容为空，无法预览");
                 return;
             }
@@ -543,19 +571,30 @@ public class MainControllerFixed {
         }
     }
 
+    /**
+     * 按关键词搜索邮件历史的主题和正文，关键词为空时显示全部记录
+     */
+    @FXML
+    private void handleSearchHistory() {
+        HistoryQuery query = new HistoryQuery();
+        String text = historySearchField.getText();
+        if (text != null && !text.isBlank()) {
+            query.setText(text.trim());
+        }
+        emailHistory.setQuery(query);
+    }
+
     /**
      * 刷新邮件历史
      */
     @FXML
     private void handleRefreshHistory() {
         try {
-            // 获取最新的邮件历史
-            List<Email> latestHistory = resendService.getEmailHistory();
-            emailHistory.clear();
-            emailHistory.addAll(latestHistory);
+            // 只读取记录总数，可见的页面由表格按需加载
+            emailHistory.refresh();
 
             updateStatus("邮件历史已刷新");
-            logger.info("邮件历史已刷新，共 {} 条记录", latestHistory.size());
+            logger.info("邮件历史已刷新");
         } catch (Exception e) {
             logger.error("刷新邮件历史失败", e);
             updateStatus("刷新邮件历史失败: " + e.getMessage());
@@ -579,7 +618,7 @@ public class MainControllerFixed {
                 resendService.clearEmailHistory();
 
                 // 刷新表格
-                emailHistory.clear();
+                emailHistory.refresh();
 
                 updateStatus("邮件历史已清空");
                 logger.info("邮件历史已清空");
@@ -614,6 +653,27 @@ public class MainControllerFixed {
      * 查看邮件
      */
     private void viewEmail(Email email) {
+        // 历史记录列表只含元数据，正文在后台读取，避免大正文阻塞界面
+        updateStatus("正在加载邮件正文...");
+        CompletableFuture.supplyAsync(() -> resendService.loadEmailBody(email))
+                .whenComplete((html, e) -> Platform.runLater(() -> {
+                    if (e != null) {
+                        // 读取失败时恢复状态栏，否则会一直显示正在加载
+                        Throwable cause = RetryExecutor.unwrap(e);
+                        logger.error("加载邮件正文失败", cause);
+                        updateStatus("加载邮件正文失败: " + cause.getMessage());
+                        showAlert(Alert.AlertType.ERROR, "错误", "加载邮件正文失败: " + cause.getMessage());
+                        return;
+                    }
+                    updateStatus("邮件正文已加载");
+                    showEmail(email, html);
+                }));
+    }
+
+    /**
+     * 显示邮件详情
+     */
+    private void showEmail(Email email, String html) {
         try {
             // 创建预览窗口
             Alert viewAlert = new Alert(Alert.AlertType.INFORMATION);
@@ -622,13 +682,13 @@ public class MainControllerFixed {
 
             // 创建WebView用于预览HTML内容
             javafx.scene.web.WebView webView = new javafx.scene.web.WebView();
-            webView.getEngine().loadContent(email.getHtmlContent());
+            webView.getEngine().loadContent(html != null ? html : "");
             webView.setPrefSize(600, 400);
 
             // 添加邮件信息
             VBox contentBox = new VBox(10);
             contentBox.getChildren().addAll(
-                new Label("收件人: " + String.join(", ", email.getTo())),
+                new Label("收件人: " + email.getFormattedRecipients()),
                 new Label("发送时间: " + email.getSentAt().format(DATE_FORMATTER)),
                 new Label("状态: " + email.getStatus()),
                 webView
@@ -667,15 +727,18 @@ public class MainControllerFixed {
      */
     @Subscribe
     public void onEmailSent(EmailSentEvent event) {
-        Platform.runLater(() -> {
-            if (event.isSuccess()) {
-                updateStatus("邮件发送成功: " + event.getEmail().getId());
-                showAlert(Alert.AlertType.INFORMATION, "成功", "邮件发送成功");
-            } else {
-                updateStatus("邮件发送失败: " + event.getErrorMessage());
-                showAlert(Alert.AlertType.ERROR, "错误", "邮件发送失败: " + event.getErrorMessage());
-            }
-        });
+        // 群发时每封邮件都会发布事件，不在这里访问 JavaFX 线程，进度由 ProgressSampler 按帧采样显示
+        if (logger.isDebugEnabled()) {
+            logger.debug("邮件发送{}: {}", event.isSuccess() ? "成功" : "失败", event.getEmail().getId());
+        }
+    }
+
+    /**
+     * 处理熔断器状态变化事件，在状态栏显示邮件服务的可用状态
+     */
+    @Subscribe
+    public void onCircuitStateChanged(CircuitStateChangedEvent event) {
+        updateStatus(event.getDescription());
     }
 
     /**
@@ -688,6 +751,20 @@ public class MainControllerFixed {
         });
     }
 
+    /**
+     * 注销事件总线并等待排队中的邮件发送完毕
+     */
+    public void cleanup() {
+        if (progressSampler != null) {
+            progressSampler.stop();
+        }
+        if (emailHistory != null) {
+            emailHistory.shutdown();
+        }
+        EventBus.getDefault().unregister(this);
+        resendService.cleanup();
+    }
+
     // ========== 辅助方法 ==========
 
     /**
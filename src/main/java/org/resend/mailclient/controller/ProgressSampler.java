@@ -0,0 +1,97 @@
+package org.resend.mailclient.controller;
+
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.util.Duration;
+import org.resend.mailclient.service.ConfigService;
+import org.resend.mailclient.service.SendProgress;
+
+/**
+ * 按固定帧率采样发送进度，刷新进度条和状态栏。
+ * 发送线程只累加 {@link SendProgress} 的计数器，不向 JavaFX 线程提交任何任务；
+ * 不论每秒完成多少封邮件，界面每帧最多更新一次，计数没有变化的帧不做任何操作。
+ * <p>
+ * 帧率从配置文件的 ui.progress.fps 读取，默认 10。
+ * 在途数量从 0 变为非 0 时开始新的一轮进度，只有一轮超过一封邮件时才改写状态栏，
+ * 单封邮件的发送结果仍由发送按钮自己的回调显示。
+ */
+class ProgressSampler {
+    private final SendProgress progress;
+    private final ProgressBar progressBar;
+    private final Label statusLabel;
+    private final Timeline timeline;
+
+    // 以下字段只在 JavaFX 线程访问
+    private SendProgress.Snapshot baseline;
+    private SendProgress.Snapshot lastFrame;
+    private SendProgress.Snapshot rateFrom;
+    private boolean running;
+
+    /**
+     * 构造函数
+     *
+     * @param progress 发送进度
+     * @param progressBar 进度条
+     * @param statusLabel 状态栏
+     */
+    ProgressSampler(SendProgress progress, ProgressBar progressBar, Label statusLabel) {
+        this.progress = progress;
+        this.progressBar = progressBar;
+        this.statusLabel = statusLabel;
+        double fps = Math.max(1, Double.parseDouble(ConfigService.get("ui.progress.fps", "10")));
+        this.timeline = new Timeline(new KeyFrame(Duration.millis(1000 / fps), event -> sample()));
+        this.timeline.setCycleCount(Animation.INDEFINITE);
+    }
+
+    /**
+     * 开始采样，必须在 JavaFX 线程调用
+     */
+    void start() {
+        baseline = progress.snapshot();
+        lastFrame = baseline;
+        progressBar.setProgress(0);
+        timeline.play();
+    }
+
+    /**
+     * 停止采样
+     */
+    void stop() {
+        timeline.stop();
+    }
+
+    private void sample() {
+        SendProgress.Snapshot current = progress.snapshot();
+        if (current.sameCounts(lastFrame)) {
+            return;
+        }
+        lastFrame = current;
+
+        if (!running && current.getInFlight() > 0) {
+            // 新的一轮发送开始，之前完成的数量不计入进度
+            running = true;
+            rateFrom = baseline;
+        }
+        long total = current.getSubmitted() - baseline.getSubmitted();
+        long sent = current.getSent() - baseline.getSent();
+        long failed = current.getFailed() - baseline.getFailed();
+        progressBar.setProgress(total > 0 ? (double) (sent + failed) / total : 0);
+
+        if (current.getInFlight() > 0) {
+            if (total > 1) {
+                statusLabel.setText(String.format("正在发送: %d/%d，成功 %d，失败 %d，在途 %d，%.1f 封/秒",
+                        sent + failed, total, sent, failed, current.getInFlight(), current.ratePerSecond(rateFrom)));
+            }
+            return;
+        }
+
+        running = false;
+        if (total > 1) {
+            statusLabel.setText(String.format("发送完成: 共 %d 封，成功 %d，失败 %d", total, sent, failed));
+        }
+        baseline = current;
+    }
+}
@@ -1,5 +1,8 @@
 package org.resend.mailclient.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,6 +20,13 @@ public class Email {
     private LocalDateTime sentAt;
     private String status;
     private String errorMessage;
+    private String idempotencyKey;
+    private EmailPriority priority;
+    private Instant sendAt;
+    private List<String> attachments;
+    private boolean htmlOptimized;
+    @JsonIgnore
+    private String bodyRef;
 
     /**
      * 默认构造函数
@@ -25,6 +35,8 @@ public class Email {
         this.recipients = new ArrayList<>();
         this.sentAt = LocalDateTime.now();
         this.status = "DRAFT";
+        this.priority = EmailPriority.NORMAL;
+        this.attachments = new ArrayList<>();
     }
 
     /**
@@ -128,6 +140,85 @@ public class Email {
         this.errorMessage = errorMessage;
     }
 
+    /**
+     * 获取幂等键，同一封邮件的多次重试使用相同的键，服务端据此去重
+     *
+     * @return 幂等键
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    /**
+     * 获取发送优先级，事务邮件优先于普通邮件和批量邮件发送
+     *
+     * @return 优先级
+     */
+    public EmailPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(EmailPriority priority) {
+        this.priority = priority != null ? priority : EmailPriority.NORMAL;
+    }
+
+    /**
+     * 获取定时发送时间，为 null 时表示立即发送
+     *
+     * @return 定时发送时间
+     */
+    public Instant getSendAt() {
+        return sendAt;
+    }
+
+    public void setSendAt(Instant sendAt) {
+        this.sendAt = sendAt;
+    }
+
+    /**
+     * 获取附件文件路径。只保存路径，发送时才读取文件内容
+     *
+     * @return 附件文件路径列表
+     */
+    public List<String> getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(List<String> attachments) {
+        this.attachments = attachments != null ? attachments : new ArrayList<>();
+    }
+
+    /**
+     * 判断正文是否已经过发送前的 HTML 优化，已优化的正文发送时不再处理
+     *
+     * @return 是否已优化
+     */
+    public boolean isHtmlOptimized() {
+        return htmlOptimized;
+    }
+
+    public void setHtmlOptimized(boolean htmlOptimized) {
+        this.htmlOptimized = htmlOptimized;
+    }
+
+    /**
+     * 获取历史记录中正文的位置。从历史记录读取的邮件只含元数据，htmlContent 为 null，
+     * 需要正文时通过此位置单独读取
+     *
+     * @return 正文位置，没有单独保存的正文时为 null
+     */
+    public String getBodyRef() {
+        return bodyRef;
+    }
+
+    public void setBodyRef(String bodyRef) {
+        this.bodyRef = bodyRef;
+    }
+
     @Override
     public String toString() {
         return "Email{" +
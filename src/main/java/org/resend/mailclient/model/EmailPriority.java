@@ -0,0 +1,13 @@
+package org.resend.mailclient.model;
+
+/**
+ * 邮件优先级，决定邮件进入发送调度器的哪条通道
+ */
+public enum EmailPriority {
+    /** 事务邮件，例如密码重置、验证码，有预留的发送容量 */
+    TRANSACTIONAL,
+    /** 普通邮件，界面上手动发送的邮件默认使用 */
+    NORMAL,
+    /** 批量邮件，例如群发活动 */
+    BULK
+}
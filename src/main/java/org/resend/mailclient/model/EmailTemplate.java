@@ -3,6 +3,7 @@ package org.resend.mailclient.model;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * 邮件模板实体类，用于存储和管理邮件模板
@@ -12,6 +13,8 @@ public class EmailTemplate {
     private String name;
     private String subject;
     private String htmlContent;
+    // 主题或内容每次修改后递增，用于判断编译缓存是否过期
+    private long version;
     private List<String> recipients;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
@@ -20,6 +23,7 @@ public class EmailTemplate {
      * 默认构造函数
      */
     public EmailTemplate() {
+        this.id = UUID.randomUUID().toString();
         this.recipients = new ArrayList<>();
         this.createdAt = LocalDateTime.now();
         this.updatedAt = LocalDateTime.now();
@@ -77,6 +81,7 @@ public class EmailTemplate {
 
     public void setSubject(String subject) {
         this.subject = subject;
+        this.version++;
         this.updatedAt = LocalDateTime.now();
     }
 
@@ -86,9 +91,23 @@ public class EmailTemplate {
 
     public void setHtmlContent(String htmlContent) {
         this.htmlContent = htmlContent;
+        this.version++;
         this.updatedAt = LocalDateTime.now();
     }
 
+    /**
+     * 获取模板版本号，主题或内容修改后递增
+     *
+     * @return 版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public List<String> getRecipients() {
         return recipients;
     }
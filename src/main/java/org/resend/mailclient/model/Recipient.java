@@ -0,0 +1,43 @@
+package org.resend.mailclient.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 收件人实体类，包含邮箱地址和用于模板替换的个性化字段
+ */
+public class Recipient {
+    private final String email;
+    private final Map<String, String> fields;
+    private final long lineNumber;
+
+    /**
+     * 构造函数
+     *
+     * @param email 邮箱地址
+     * @param fields 个性化字段，包含 email 本身
+     * @param lineNumber 在导入文件中的行号，从1开始
+     */
+    public Recipient(String email, Map<String, String> fields, long lineNumber) {
+        this.email = email;
+        this.fields = fields;
+        this.lineNumber = lineNumber;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public String toString() {
+        return email;
+    }
+}
@@ -0,0 +1,155 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应令牌桶限流器。
+ * 按配置的每秒请求数发放令牌；收到 429 时速率减半并按 Retry-After 暂停，
+ * 之后每秒按固定步长恢复，直到回到配置的上限。
+ * 限流器不阻塞调用线程：令牌不足时返回需要等待的时间，由调用方安排稍后重新提交。
+ * 有优先请求（事务邮件）在等待令牌时，普通请求让出令牌，保证事务邮件不排在群发邮件之后。
+ */
+public class AdaptiveRateLimiter {
+    private static final Logger logger = LogManager.getLogger(AdaptiveRateLimiter.class);
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    /** 同一秒内多次限流只降速一次，避免并发中的请求把速率压到最低 */
+    private static final long DECREASE_COOLDOWN_NANOS = NANOS_PER_SECOND;
+    /** 优先请求预计重新提交的时间之后再为它保留令牌的时长，覆盖调度延迟 */
+    private static final long PRIORITY_RESERVATION_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final double maxRate;
+    private final double minRate;
+    private final double recoveryStep;
+
+    private double currentRate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long lastAdjustNanos;
+    private long pausedUntilNanos;
+    private long priorityReservedUntilNanos;
+
+    /**
+     * 构造函数
+     *
+     * @param maxRate 每秒请求数上限
+     * @param minRate 降速后的最低每秒请求数
+     * @param recoveryStep 每秒恢复的请求数
+     */
+    public AdaptiveRateLimiter(double maxRate, double minRate, double recoveryStep) {
+        if (maxRate <= 0 || minRate <= 0 || minRate > maxRate) {
+            throw new IllegalArgumentException("限流速率配置无效");
+        }
+        this.maxRate = maxRate;
+        this.minRate = minRate;
+        this.recoveryStep = recoveryStep;
+        this.currentRate = maxRate;
+        this.tokens = 1;
+        this.lastRefillNanos = System.nanoTime();
+        this.lastAdjustNanos = lastRefillNanos;
+    }
+
+    /**
+     * 根据配置文件创建限流器
+     *
+     * @return 限流器
+     */
+    public static AdaptiveRateLimiter fromConfig() {
+        // Resend 默认每秒允许 2 个请求
+        double maxRate = Double.parseDouble(ConfigService.get("send.rate.limit", "2"));
+        double minRate = Double.parseDouble(ConfigService.get("send.rate.min", String.valueOf(Math.min(0.5, maxRate))));
+        double step = Double.parseDouble(ConfigService.get("send.rate.recovery.step", String.valueOf(Math.max(0.1, maxRate / 10))));
+        return new AdaptiveRateLimiter(maxRate, minRate, step);
+    }
+
+    /**
+     * 尝试获取一个令牌，不阻塞调用线程。令牌不足时返回需要等待的时间，
+     * 调用方应在这段时间后重新提交请求，等待期间不占用发送线程
+     *
+     * @param priority 是否为优先请求，有优先请求等待时普通请求不能取走令牌
+     * @return 取得令牌时返回 0，否则返回建议等待的毫秒数（至少 1）
+     */
+    public synchronized long tryAcquire(boolean priority) {
+        long now = System.nanoTime();
+        refill(now);
+        long waitNanos;
+        if (now < pausedUntilNanos) {
+            waitNanos = pausedUntilNanos - now;
+        } else if (tokens >= 1 && (priority || now >= priorityReservedUntilNanos)) {
+            tokens -= 1;
+            if (priority && priorityReservedUntilNanos - now <= PRIORITY_RESERVATION_GRACE_NANOS) {
+                // 这是最后一个等待中的优先请求，普通请求可以继续取令牌
+                priorityReservedUntilNanos = 0;
+            }
+            return 0;
+        } else if (tokens >= 1) {
+            // 令牌留给即将重新提交的优先请求
+            waitNanos = priorityReservedUntilNanos - now;
+        } else {
+            waitNanos = (long) ((1 - tokens) / currentRate * NANOS_PER_SECOND);
+        }
+        if (priority) {
+            // 优先请求重新提交之前，普通请求不能取走这段时间补充的令牌
+            priorityReservedUntilNanos = Math.max(priorityReservedUntilNanos,
+                    now + waitNanos + PRIORITY_RESERVATION_GRACE_NANOS);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1;
+    }
+
+    /**
+     * 记录一次成功的请求，距离上次调整超过一秒时提高速率
+     */
+    public synchronized void onSuccess() {
+        long now = System.nanoTime();
+        if (currentRate < maxRate && now - lastAdjustNanos >= NANOS_PER_SECOND) {
+            refill(now);
+            currentRate = Math.min(maxRate, currentRate + recoveryStep);
+            lastAdjustNanos = now;
+        }
+    }
+
+    /**
+     * 记录一次被限流的请求：速率减半，并在 Retry-After 期间暂停发放令牌
+     *
+     * @param retryAfterMillis 服务端建议的等待时间（毫秒），未知时传 0
+     */
+    public synchronized void onThrottled(long retryAfterMillis) {
+        long now = System.nanoTime();
+        if (retryAfterMillis > 0) {
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+        }
+        if (now - lastAdjustNanos < DECREASE_COOLDOWN_NANOS && currentRate < maxRate) {
+            return;
+        }
+        refill(now);
+        double previous = currentRate;
+        currentRate = Math.max(minRate, currentRate / 2);
+        tokens = 0;
+        lastAdjustNanos = now;
+        logger.warn("触发服务端限流，发送速率由 {}/s 降至 {}/s，暂停 {} 毫秒", previous, currentRate, retryAfterMillis);
+    }
+
+    /**
+     * 获取当前的每秒请求数
+     *
+     * @return 当前速率
+     */
+    public synchronized double getCurrentRate() {
+        return currentRate;
+    }
+
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * 按经过的时间补充令牌，桶容量为一秒的请求量
+     */
+    private void refill(long now) {
+        double capacity = Math.max(1, currentRate);
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * currentRate / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,166 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * API密钥验证缓存。
+ * 以密钥的 SHA-256 摘要为键缓存验证结果，内存中不保留密钥原文：
+ * <ul>
+ *     <li>验证通过的结果保留 apikey.verify.ttl.seconds 秒</li>
+ *     <li>服务端明确拒绝的密钥（4xx）保留 apikey.verify.negative.ttl.seconds 秒；
+ *     网络异常、限流、5xx 等临时性错误不缓存，下次重新验证</li>
+ *     <li>同一密钥的并发验证只发出一次请求，其余调用等待同一个结果</li>
+ * </ul>
+ * 更换密钥时调用 {@link #invalidateAll()} 清空缓存。
+ */
+public class ApiKeyVerifier {
+    private static final Logger logger = LogManager.getLogger(ApiKeyVerifier.class);
+    private static final int CLEANUP_THRESHOLD = 64;
+
+    /**
+     * 实际发出验证请求的操作，密钥无效时抛出异常
+     */
+    @FunctionalInterface
+    public interface Probe {
+        void verify(String apiKey) throws Exception;
+    }
+
+    private final Probe probe;
+    private final long positiveTtlNanos;
+    private final long negativeTtlNanos;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数
+     *
+     * @param probe 验证请求
+     * @param positiveTtlMillis 验证通过的结果缓存时间（毫秒）
+     * @param negativeTtlMillis 密钥无效的结果缓存时间（毫秒），为 0 时不缓存
+     */
+    public ApiKeyVerifier(Probe probe, long positiveTtlMillis, long negativeTtlMillis) {
+        this.probe = probe;
+        this.positiveTtlNanos = TimeUnit.MILLISECONDS.toNanos(positiveTtlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+    }
+
+    /**
+     * 根据配置文件创建验证缓存
+     *
+     * @param probe 验证请求
+     * @return 验证缓存
+     */
+    public static ApiKeyVerifier fromConfig(Probe probe) {
+        long positiveTtl = Long.parseLong(ConfigService.get("apikey.verify.ttl.seconds", "600"));
+        long negativeTtl = Long.parseLong(ConfigService.get("apikey.verify.negative.ttl.seconds", "30"));
+        return new ApiKeyVerifier(probe, TimeUnit.SECONDS.toMillis(positiveTtl), TimeUnit.SECONDS.toMillis(negativeTtl));
+    }
+
+    /**
+     * 验证API密钥，缓存未过期时直接返回缓存的结果
+     *
+     * @param apiKey API密钥
+     * @return 是否有效
+     */
+    public boolean verify(String apiKey) {
+        if (apiKey == null || apiKey.isEmpty()) {
+            return false;
+        }
+        String fingerprint = fingerprint(apiKey);
+        long now = System.nanoTime();
+        Entry[] created = new Entry[1];
+        Entry entry = cache.compute(fingerprint, (key, current) -> {
+            if (current != null && !current.isExpired(now)) {
+                return current;
+            }
+            created[0] = new Entry();
+            return created[0];
+        });
+
+        if (entry != created[0]) {
+            MetricsService.increment("apikey.verify.cache.hit");
+            return entry.result.join();
+        }
+
+        MetricsService.increment("apikey.verify.cache.miss");
+        try {
+            probe.verify(apiKey);
+            entry.complete(true, positiveTtlNanos);
+        } catch (Exception e) {
+            if (SendErrors.isRetryable(e) || negativeTtlNanos <= 0) {
+                // 临时性错误不能说明密钥无效，不缓存
+                cache.remove(fingerprint, entry);
+                logger.warn("API密钥验证请求失败: {}", e.getMessage());
+            } else {
+                logger.error("API密钥验证失败", e);
+            }
+            entry.complete(false, negativeTtlNanos);
+        }
+        if (cache.size() > CLEANUP_THRESHOLD) {
+            cache.values().removeIf(cached -> cached.isExpired(System.nanoTime()));
+        }
+        return entry.result.join();
+    }
+
+    /**
+     * 清除指定密钥的缓存结果
+     *
+     * @param apiKey API密钥
+     */
+    public void invalidate(String apiKey) {
+        if (apiKey != null && !apiKey.isEmpty()) {
+            cache.remove(fingerprint(apiKey));
+        }
+    }
+
+    /**
+     * 清除所有缓存结果，更换密钥后调用
+     */
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    /**
+     * 计算API密钥的 SHA-256 摘要（十六进制）
+     *
+     * @param apiKey API密钥
+     * @return 摘要
+     */
+    public static String fingerprint(String apiKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前JVM不支持SHA-256", e);
+        }
+    }
+
+    /**
+     * 缓存项，验证进行中时 result 尚未完成，不会过期
+     */
+    private static final class Entry {
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private volatile long expiresAt;
+
+        private void complete(boolean valid, long ttlNanos) {
+            expiresAt = System.nanoTime() + ttlNanos;
+            result.complete(valid);
+        }
+
+        private boolean isExpired(long now) {
+            return result.isDone() && now - expiresAt >= 0;
+        }
+    }
+}
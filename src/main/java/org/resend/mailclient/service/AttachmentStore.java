@@ -0,0 +1,419 @@
+package org.resend.mailclient.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * 附件编码缓存。
+ * 附件从 FileChannel 分块读取，边计算 SHA-256 边以 base64 写入数据目录下的缓存文件，
+ * 堆内存中只有一个读取缓冲区；缓存文件按内容哈希命名，同一文件发给多少收件人都只读取、编码一次，
+ * 路径不同但内容相同的文件也共用同一个缓存文件。
+ * <ul>
+ *     <li>文件路径、大小和修改时间不变时直接使用已有的编码结果，不再读取文件</li>
+ *     <li>同一文件的并发编码请求只执行一次</li>
+ *     <li>单封邮件的附件编码后总大小与正文之和不能超过 attachment.max.message.bytes（默认 40 MB），
+ *     超出时在读取文件之前就拒绝</li>
+ *     <li>缓存文件总大小超过 attachment.cache.max.bytes（默认 512 MB）时删除最久未使用的文件</li>
+ * </ul>
+ * HTTP 传输层直接从缓存文件流式写入请求体；SDK 只接受字符串，使用 {@link #readContent(EncodedAttachment)}，
+ * 读出的字符串按内容哈希保留在内存中，总量不超过 attachment.memory.cache.bytes（默认 64 MB）。
+ */
+public class AttachmentStore {
+    private static final Logger logger = LogManager.getLogger(AttachmentStore.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final String SUFFIX = ".b64";
+
+    /**
+     * 编码后的附件，序列化为 Resend 接口要求的 {"filename": ..., "content": ...}，
+     * content 从缓存文件流式写出
+     */
+    public static final class EncodedAttachment implements JsonSerializable {
+        private final String filename;
+        private final String sha256;
+        private final long rawSize;
+        private final long encodedSize;
+        private final Path encodedFile;
+
+        private EncodedAttachment(String filename, String sha256, long rawSize, long encodedSize, Path encodedFile) {
+            this.filename = filename;
+            this.sha256 = sha256;
+            this.rawSize = rawSize;
+            this.encodedSize = encodedSize;
+            this.encodedFile = encodedFile;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getRawSize() {
+            return rawSize;
+        }
+
+        public long getEncodedSize() {
+            return encodedSize;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("filename", filename);
+            generator.writeFieldName("content");
+            // base64 字符不需要转义，按块从文件复制到输出
+            try (Reader reader = Channels.newReader(FileChannel.open(encodedFile, StandardOpenOption.READ),
+                    StandardCharsets.US_ASCII)) {
+                generator.writeString(reader, (int) encodedSize);
+            }
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer)
+                throws IOException {
+            serialize(generator, provider);
+        }
+    }
+
+    private final Path cacheDir;
+    private final long maxMessageBytes;
+    private final long maxCacheBytes;
+    private final long maxMemoryBytes;
+    private final Map<String, CompletableFuture<EncodedAttachment>> byFile = new ConcurrentHashMap<>();
+    // 按最近使用顺序排列的缓存文件，访问时持有自身的锁
+    private final LinkedHashMap<String, Long> cachedFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, String> inMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private long inMemoryBytes;
+
+    /**
+     * 构造函数
+     *
+     * @param cacheDir 缓存文件目录
+     * @param maxMessageBytes 单封邮件编码后附件与正文的总大小上限
+     * @param maxCacheBytes 缓存文件总大小上限
+     * @param maxMemoryBytes 内存中保留的编码字符串总大小上限
+     */
+    public AttachmentStore(Path cacheDir, long maxMessageBytes, long maxCacheBytes, long maxMemoryBytes) {
+        if (maxMessageBytes <= 0 || maxCacheBytes <= 0 || maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("附件大小限制必须大于0");
+        }
+        this.cacheDir = cacheDir;
+        this.maxMessageBytes = maxMessageBytes;
+        this.maxCacheBytes = maxCacheBytes;
+        this.maxMemoryBytes = maxMemoryBytes;
+        loadExisting();
+    }
+
+    /**
+     * 根据配置文件创建
+     *
+     * @param cacheDir 缓存文件目录
+     * @return 附件缓存
+     */
+    public static AttachmentStore fromConfig(Path cacheDir) {
+        long maxMessage = Long.parseLong(ConfigService.get("attachment.max.message.bytes", String.valueOf(40L << 20)));
+        long maxCache = Long.parseLong(ConfigService.get("attachment.cache.max.bytes", String.valueOf(512L << 20)));
+        long maxMemory = Long.parseLong(ConfigService.get("attachment.memory.cache.bytes", String.valueOf(64L << 20)));
+        return new AttachmentStore(cacheDir, maxMessage, maxCache, maxMemory);
+    }
+
+    /**
+     * 获取邮件附件的编码结果，检查单封邮件的大小限制。
+     * 首次遇到的文件在当前线程读取并编码，之后直接使用缓存
+     *
+     * @param email 邮件对象
+     * @return 与 {@link Email#getAttachments()} 顺序一致的编码结果，没有附件时为空列表
+     * @throws IOException 读取或写入缓存文件失败时抛出
+     * @throws IllegalArgumentException 附件不存在或超出大小限制时抛出
+     */
+    public List<EncodedAttachment> resolve(Email email) throws IOException {
+        List<String> paths = email.getAttachments();
+        if (paths == null || paths.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 先按文件大小估算编码后的大小，超限时不读取任何文件
+        long htmlBytes = email.getHtmlContent() != null ? email.getHtmlContent().length() : 0;
+        long total = htmlBytes;
+        List<Path> files = new ArrayList<>(paths.size());
+        List<BasicFileAttributes> attributes = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            Path file = Paths.get(path).toAbsolutePath().normalize();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                throw new IllegalArgumentException("附件不存在: " + path);
+            }
+            if (!attrs.isRegularFile()) {
+                throw new IllegalArgumentException("附件不是普通文件: " + path);
+            }
+            total += encodedLength(attrs.size());
+            files.add(file);
+            attributes.add(attrs);
+        }
+        if (total > maxMessageBytes) {
+            throw new IllegalArgumentException(String.format("邮件大小 %d 字节（附件按 base64 编码后计算）超过单封邮件限制 %d 字节",
+                    total, maxMessageBytes));
+        }
+
+        List<EncodedAttachment> encoded = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            encoded.add(encode(files.get(i), attributes.get(i)));
+        }
+        return encoded;
+    }
+
+    /**
+     * 读取编码后的内容，供只接受字符串的 SDK 使用
+     *
+     * @param attachment 编码后的附件
+     * @return base64 字符串
+     * @throws IOException 读取缓存文件失败时抛出
+     */
+    public String readContent(EncodedAttachment attachment) throws IOException {
+        synchronized (inMemory) {
+            String content = inMemory.get(attachment.sha256);
+            if (content != null) {
+                return content;
+            }
+        }
+        String content = new String(Files.readAllBytes(attachment.encodedFile), StandardCharsets.US_ASCII);
+        if (content.length() <= maxMemoryBytes) {
+            synchronized (inMemory) {
+                if (inMemory.putIfAbsent(attachment.sha256, content) == null) {
+                    inMemoryBytes += content.length();
+                    Iterator<Map.Entry<String, String>> iterator = inMemory.entrySet().iterator();
+                    while (inMemoryBytes > maxMemoryBytes && iterator.hasNext()) {
+                        inMemoryBytes -= iterator.next().getValue().length();
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        return content;
+    }
+
+    /**
+     * 获取当前缓存文件的总大小
+     *
+     * @return 字节数
+     */
+    public long getCachedBytes() {
+        synchronized (cachedFiles) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * 登记上次运行留下的缓存文件，使其参与总大小限制，并清理未完成的临时文件
+     */
+    private void loadExisting() {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.list(cacheDir)) {
+            paths.sorted(Comparator.comparingLong(AttachmentStore::lastModified)).forEach(path -> {
+                String name = path.getFileName().toString();
+                try {
+                    if (name.endsWith(SUFFIX)) {
+                        register(name.substring(0, name.length() - SUFFIX.length()), Files.size(path));
+                    } else if (name.endsWith(".tmp")) {
+                        Files.delete(path);
+                    }
+                } catch (IOException e) {
+                    logger.warn("处理附件缓存文件失败: {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("读取附件缓存目录失败: {}", cacheDir, e);
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private EncodedAttachment encode(Path file, BasicFileAttributes attrs) throws IOException {
+        String key = file + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+        while (true) {
+            CompletableFuture<EncodedAttachment> future = new CompletableFuture<>();
+            CompletableFuture<EncodedAttachment> existing = byFile.putIfAbsent(key, future);
+            if (existing == null) {
+                try {
+                    EncodedAttachment attachment = encodeFile(file);
+                    future.complete(attachment);
+                    MetricsService.increment("attachment.cache.miss");
+                    return attachment;
+                } catch (IOException | RuntimeException e) {
+                    byFile.remove(key, future);
+                    future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            EncodedAttachment attachment;
+            try {
+                attachment = existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待附件编码时被中断: " + file, e);
+            } catch (ExecutionException | CompletionException e) {
+                // 另一个线程编码失败，由当前线程重新尝试
+                continue;
+            }
+            if (touch(attachment.sha256)) {
+                MetricsService.increment("attachment.cache.hit");
+                return attachment;
+            }
+            // 缓存文件已被淘汰，重新编码
+            byFile.remove(key, existing);
+        }
+    }
+
+    /**
+     * 读取文件并写入缓存：一次读取同时计算哈希和 base64 编码
+     */
+    private EncodedAttachment encodeFile(Path file) throws IOException {
+        Files.createDirectories(cacheDir);
+        MessageDigest digest = newDigest();
+        Path temp = Files.createTempFile(cacheDir, "encoding-", ".tmp");
+        long rawSize = 0;
+        try {
+            try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel output = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 OutputStream encoder = Base64.getEncoder().wrap(
+                         new BufferedOutputStream(Channels.newOutputStream(output), READ_BUFFER_SIZE))) {
+                ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                while (input.read(buffer) >= 0) {
+                    buffer.flip();
+                    digest.update(buffer.array(), 0, buffer.limit());
+                    encoder.write(buffer.array(), 0, buffer.limit());
+                    rawSize += buffer.limit();
+                    buffer.clear();
+                }
+            }
+            String sha256 = toHex(digest.digest());
+            Path target = cacheDir.resolve(sha256 + SUFFIX);
+            if (Files.exists(target)) {
+                Files.delete(temp);
+            } else {
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            long encodedSize = encodedLength(rawSize);
+            register(sha256, encodedSize);
+            logger.debug("附件已编码: {}，{} 字节，内容哈希 {}", file, rawSize, sha256);
+            return new EncodedAttachment(file.getFileName().toString(), sha256, rawSize, encodedSize, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 记录新的缓存文件，超出总大小时删除最久未使用的文件
+     */
+    private void register(String sha256, long encodedSize) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (cachedFiles) {
+            if (cachedFiles.putIfAbsent(sha256, encodedSize) == null) {
+                cachedBytes += encodedSize;
+            }
+            Iterator<Map.Entry<String, Long>> iterator = cachedFiles.entrySet().iterator();
+            while (cachedBytes > maxCacheBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(sha256)) {
+                    continue;
+                }
+                cachedBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+        for (String hash : evicted) {
+            try {
+                // 正在流式发送的请求已经打开了文件，删除不影响这些请求
+                Files.deleteIfExists(cacheDir.resolve(hash + SUFFIX));
+            } catch (IOException e) {
+                logger.warn("删除附件缓存文件失败: {}", hash, e);
+            }
+        }
+    }
+
+    /**
+     * 标记缓存文件被使用
+     *
+     * @return 缓存文件是否仍然存在
+     */
+    private boolean touch(String sha256) {
+        synchronized (cachedFiles) {
+            return cachedFiles.get(sha256) != null;
+        }
+    }
+
+    private static long encodedLength(long rawSize) {
+        return (rawSize + 2) / 3 * 4;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 JVM 不支持 SHA-256", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * 批量发送阶段：将待发送邮件按接口上限分块，通过批量接口一次提交一个分块。
+ * 分块因邮件内容被拒绝（参数校验错误）时对半拆分后分别重试，最终只有真正失败的邮件会被标记为失败；
+ * 临时性错误（限流、5xx、网络异常）不拆分，直接抛给调用方按重试策略处理；
+ * 认证、发件域名、账户额度等与单封邮件无关的错误拆分后仍会失败，整块直接标记为失败。
+ */
+public class BatchSender {
+    private static final Logger logger = LogManager.getLogger(BatchSender.class);
+
+    /** Resend 批量接口单次请求允许的最大邮件数量 */
+    public static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * 批量发送调用，返回的邮件ID与传入的邮件一一对应，无法获得ID的位置为 null
+     */
+    @FunctionalInterface
+    public interface BatchCall {
+        List<String> send(List<Email> chunk) throws Exception;
+    }
+
+    private final BatchCall batchCall;
+    private final int batchSize;
+    private final Predicate<Throwable> transientError;
+    private final Predicate<Throwable> memberError;
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * 构造函数
+     *
+     * @param batchCall 批量发送调用
+     * @param batchSize 每个分块的邮件数量，不超过 {@link #MAX_BATCH_SIZE}
+     * @param transientError 判断错误是否为临时性错误，临时性错误不拆分分块
+     * @param memberError 判断错误是否由分块中的个别邮件引起，只有这类错误拆分分块
+     */
+    public BatchSender(BatchCall batchCall, int batchSize, Predicate<Throwable> transientError,
+                       Predicate<Throwable> memberError) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("分块大小必须大于0");
+        }
+        this.batchCall = batchCall;
+        this.batchSize = Math.min(batchSize, MAX_BATCH_SIZE);
+        this.transientError = transientError;
+        this.memberError = memberError;
+    }
+
+    /**
+     * 将邮件按分块大小切分
+     *
+     * @param emails 邮件列表
+     * @return 分块列表
+     */
+    public List<List<Email>> partition(List<Email> emails) {
+        List<List<Email>> chunks = new ArrayList<>((emails.size() + batchSize - 1) / batchSize);
+        for (int i = 0; i < emails.size(); i += batchSize) {
+            chunks.add(new ArrayList<>(emails.subList(i, Math.min(i + batchSize, emails.size()))));
+        }
+        return chunks;
+    }
+
+    /**
+     * 发送一个分块。整个请求因参数校验错误失败时对半拆分后递归重试，其他错误整块失败，
+     * 响应中缺少ID的邮件可能已经发出，以发送结果未知失败，不重新提交。
+     *
+     * @param chunk 分块
+     * @param onSent 邮件发送成功的回调，参数为邮件和邮件ID
+     * @param onFailed 邮件最终发送失败的回调
+     * @throws Exception 遇到临时性错误时抛出，此前已回调成功的邮件不受影响
+     */
+    public void sendChunk(List<Email> chunk, BiConsumer<Email, String> onSent, BiConsumer<Email, Exception> onFailed) throws Exception {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        List<String> ids;
+        try {
+            requestCount.incrementAndGet();
+            ids = batchCall.send(chunk);
+        } catch (Exception e) {
+            if (transientError.test(e)) {
+                throw e;
+            }
+            if (chunk.size() == 1) {
+                onFailed.accept(chunk.get(0), e);
+                return;
+            }
+            if (!memberError.test(e)) {
+                // 认证、发件域名、额度等错误拆分后仍会失败，整块直接失败
+                logger.warn("批量发送 {} 封邮件失败，不拆分重试: {}", chunk.size(), e.getMessage());
+                chunk.forEach(email -> onFailed.accept(email, e));
+                return;
+            }
+            int middle = chunk.size() / 2;
+            logger.warn("批量发送 {} 封邮件失败，拆分后重试: {}", chunk.size(), e.getMessage());
+            sendChunk(new ArrayList<>(chunk.subList(0, middle)), onSent, onFailed);
+            sendChunk(new ArrayList<>(chunk.subList(middle, chunk.size())), onSent, onFailed);
+            return;
+        }
+
+        List<Email> missing = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            String id = ids != null && i < ids.size() ? ids.get(i) : null;
+            if (id != null) {
+                onSent.accept(chunk.get(i), id);
+            } else {
+                missing.add(chunk.get(i));
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+        // 请求已经成功，缺少ID的邮件很可能已被接收；它们组成的新批次幂等键不同，服务端无法去重，因此不重新提交
+        logger.warn("批量发送响应缺少 {} 个邮件ID，这些邮件的发送结果未知，不再重新提交", missing.size());
+        Exception error = new IllegalStateException("批量发送响应中没有返回邮件ID，邮件可能已经发出，发送结果未知");
+        missing.forEach(email -> onFailed.accept(email, error));
+    }
+
+    /**
+     * 获取已发出的批量请求数量
+     *
+     * @return 请求数量
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+}
@@ -0,0 +1,63 @@
+package org.resend.mailclient.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * 批量异步发送的句柄，包含每封邮件的 Future 以及全部完成时的汇总 Future
+ */
+public class BulkSendHandle {
+    private final List<CompletableFuture<SendResult>> futures;
+    private final CompletableFuture<List<SendResult>> aggregate;
+
+    /**
+     * 构造函数
+     *
+     * @param futures 每封邮件的发送结果，顺序与提交顺序一致
+     */
+    public BulkSendHandle(List<CompletableFuture<SendResult>> futures) {
+        this.futures = Collections.unmodifiableList(futures);
+        this.aggregate = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> futures.stream()
+                        .map(CompletableFuture::join)
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * 获取每封邮件的发送结果
+     *
+     * @return Future 列表
+     */
+    public List<CompletableFuture<SendResult>> getFutures() {
+        return futures;
+    }
+
+    /**
+     * 获取全部邮件完成后的汇总结果
+     *
+     * @return 汇总 Future
+     */
+    public CompletableFuture<List<SendResult>> getAggregate() {
+        return aggregate;
+    }
+
+    /**
+     * 获取已完成的邮件数量
+     *
+     * @return 已完成数量
+     */
+    public long getCompletedCount() {
+        return futures.stream().filter(CompletableFuture::isDone).count();
+    }
+
+    /**
+     * 获取邮件总数
+     *
+     * @return 邮件总数
+     */
+    public int size() {
+        return futures.size();
+    }
+}
@@ -0,0 +1,134 @@
+package org.resend.mailclient.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 群发任务句柄，提供发送进度和完成通知。
+ * 群发不保留每封邮件的 Future，只用 {@link SendProgress} 无锁累计计数，收件人数量不影响内存占用。
+ */
+public class CampaignHandle {
+    private final String name;
+    private final SendProgress progress = new SendProgress();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder htmlBytesSaved = new LongAdder();
+    private final CompletableFuture<CampaignHandle> completion = new CompletableFuture<>();
+    private volatile boolean cancelled;
+
+    /**
+     * 构造函数
+     *
+     * @param name 群发任务名称，用于日志
+     */
+    public CampaignHandle(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 取消群发，已提交的邮件继续发送，尚未读取的收件人不再发送
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 获取完成通知，所有已提交的邮件都有结果后完成
+     *
+     * @return 完成后返回自身
+     */
+    public CompletableFuture<CampaignHandle> getCompletion() {
+        return completion;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 获取进度快照，适合按固定频率采样
+     *
+     * @return 快照
+     */
+    public SendProgress.Snapshot getProgress() {
+        return progress.snapshot();
+    }
+
+    public long getSubmittedCount() {
+        return progress.snapshot().getSubmitted();
+    }
+
+    public long getSentCount() {
+        return progress.snapshot().getSent();
+    }
+
+    public long getFailedCount() {
+        return progress.snapshot().getFailed();
+    }
+
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    /**
+     * 获取 HTML 优化为本次群发节省的正文字节数
+     *
+     * @return 字节数
+     */
+    public long getHtmlBytesSaved() {
+        return htmlBytesSaved.sum();
+    }
+
+    /**
+     * 获取已有结果的邮件数量
+     *
+     * @return 成功与失败之和
+     */
+    public long getCompletedCount() {
+        return progress.snapshot().getCompleted();
+    }
+
+    /**
+     * 获取已提交但还没有结果的邮件数量
+     *
+     * @return 在途数量
+     */
+    public long getInFlightCount() {
+        return progress.snapshot().getInFlight();
+    }
+
+    void recordSubmitted() {
+        progress.recordSubmitted();
+    }
+
+    void recordResult(SendResult result) {
+        progress.recordResult(result.isSuccess());
+    }
+
+    void recordHtmlBytesSaved(long bytes) {
+        htmlBytesSaved.add(bytes);
+    }
+
+    void recordSkipped(long count) {
+        skipped.add(count);
+    }
+
+    void complete() {
+        completion.complete(this);
+    }
+
+    void fail(Throwable error) {
+        completion.completeExceptionally(error);
+    }
+
+    @Override
+    public String toString() {
+        SendProgress.Snapshot snapshot = progress.snapshot();
+        return String.format("%s: 已提交 %d，成功 %d，失败 %d，在途 %d，跳过 %d，正文节省 %d 字节", name,
+                snapshot.getSubmitted(), snapshot.getSent(), snapshot.getFailed(), snapshot.getInFlight(),
+                getSkippedCount(), getHtmlBytesSaved());
+    }
+}
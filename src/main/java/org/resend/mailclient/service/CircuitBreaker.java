@@ -0,0 +1,255 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.greenrobot.eventbus.EventBus;
+import org.resend.mailclient.service.events.CircuitStateChangedEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 熔断器。按最近 N 次调用统计失败率和慢调用比例，超过阈值后打开，
+ * 打开期间直接拒绝调用；到期后进入半开状态，只放行少量探测调用，
+ * 探测全部成功则关闭，任何一次失败则重新打开。
+ * 状态变化通过事件总线发布 {@link CircuitStateChangedEvent}。
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LogManager.getLogger(CircuitBreaker.class);
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /** 正常放行 */
+        CLOSED,
+        /** 拒绝所有调用 */
+        OPEN,
+        /** 放行少量探测调用 */
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    // 滑动窗口：每个位置记录一次调用是否失败、是否慢调用
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int windowIndex;
+    private int windowCount;
+    private int failureCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    /**
+     * 构造函数
+     *
+     * @param name 名称，用于日志和事件
+     * @param windowSize 滑动窗口包含的调用次数
+     * @param minimumCalls 窗口内至少有多少次调用才开始计算比例
+     * @param failureRateThreshold 失败率阈值（0-1）
+     * @param slowCallRateThreshold 慢调用比例阈值（0-1）
+     * @param slowCallMillis 超过该耗时的调用视为慢调用
+     * @param openMillis 打开状态持续的毫秒数
+     * @param halfOpenProbes 半开状态放行的探测调用数量
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          double slowCallRateThreshold, long slowCallMillis, long openMillis, int halfOpenProbes) {
+        if (windowSize <= 0 || minimumCalls <= 0 || halfOpenProbes <= 0) {
+            throw new IllegalArgumentException("熔断器配置无效");
+        }
+        this.name = name;
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenProbes = halfOpenProbes;
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+    }
+
+    /**
+     * 根据配置文件创建熔断器
+     *
+     * @param name 名称
+     * @return 熔断器
+     */
+    public static CircuitBreaker fromConfig(String name) {
+        return new CircuitBreaker(name,
+                Integer.parseInt(ConfigService.get("circuit.window.size", "20")),
+                Integer.parseInt(ConfigService.get("circuit.minimum.calls", "10")),
+                Double.parseDouble(ConfigService.get("circuit.failure.rate", "0.5")),
+                Double.parseDouble(ConfigService.get("circuit.slow.call.rate", "0.8")),
+                Long.parseLong(ConfigService.get("circuit.slow.call.ms", "10000")),
+                Long.parseLong(ConfigService.get("circuit.open.ms", "30000")),
+                Integer.parseInt(ConfigService.get("circuit.half.open.probes", "3")));
+    }
+
+    /**
+     * 申请一次调用许可。打开状态下到期后转为半开并放行探测调用
+     *
+     * @return 是否允许调用，允许时调用方必须随后调用 {@link #onSuccess} 或 {@link #onFailure}
+     */
+    public boolean tryAcquire() {
+        State previous;
+        synchronized (this) {
+            previous = state;
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+                return false;
+            }
+            probesInFlight++;
+        }
+        if (previous != State.HALF_OPEN) {
+            publish(previous, State.HALF_OPEN);
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次成功调用
+     *
+     * @param durationNanos 调用耗时（纳秒）
+     */
+    public void onSuccess(long durationNanos) {
+        record(false, durationNanos);
+    }
+
+    /**
+     * 记录一次失败调用
+     *
+     * @param durationNanos 调用耗时（纳秒）
+     */
+    public void onFailure(long durationNanos) {
+        record(true, durationNanos);
+    }
+
+    /**
+     * 释放许可但不计入统计，例如调用因参数错误失败，与服务端健康状况无关
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && probesInFlight > 0) {
+            probesInFlight--;
+        }
+    }
+
+    /**
+     * 获取当前状态
+     *
+     * @return 状态
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 获取距离打开状态结束的毫秒数
+     *
+     * @return 剩余毫秒数，未打开时为 0
+     */
+    public synchronized long getRemainingOpenMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (System.nanoTime() - openedAt)));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void record(boolean failed, long durationNanos) {
+        boolean slow = durationNanos >= slowCallNanos;
+        State previous;
+        State current;
+        synchronized (this) {
+            previous = state;
+            if (state == State.HALF_OPEN) {
+                probesInFlight = Math.max(0, probesInFlight - 1);
+                if (failed || slow) {
+                    open();
+                } else if (++probeSuccesses >= halfOpenProbes) {
+                    state = State.CLOSED;
+                    resetWindow();
+                }
+            } else if (state == State.CLOSED) {
+                addToWindow(failed, slow);
+                if (windowCount >= minimumCalls
+                        && ((double) failureCount / windowCount >= failureRateThreshold
+                        || (double) slowCount / windowCount >= slowCallRateThreshold)) {
+                    logger.warn("熔断器[{}]打开：最近 {} 次调用中失败 {} 次，慢调用 {} 次",
+                            name, windowCount, failureCount, slowCount);
+                    open();
+                }
+            }
+            current = state;
+        }
+        if (previous != current) {
+            publish(previous, current);
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        probesInFlight = 0;
+        probeSuccesses = 0;
+        resetWindow();
+    }
+
+    private void addToWindow(boolean failed, boolean slow) {
+        if (windowCount == windowSize) {
+            if (failedCalls[windowIndex]) {
+                failureCount--;
+            }
+            if (slowCalls[windowIndex]) {
+                slowCount--;
+            }
+        } else {
+            windowCount++;
+        }
+        failedCalls[windowIndex] = failed;
+        slowCalls[windowIndex] = slow;
+        if (failed) {
+            failureCount++;
+        }
+        if (slow) {
+            slowCount++;
+        }
+        windowIndex = (windowIndex + 1) % windowSize;
+    }
+
+    private void resetWindow() {
+        windowIndex = 0;
+        windowCount = 0;
+        failureCount = 0;
+        slowCount = 0;
+    }
+
+    private void publish(State previous, State current) {
+        logger.info("熔断器[{}]状态变化: {} -> {}", name, previous, current);
+        MetricsService.increment("circuit." + name + ".transitions");
+        EventBus.getDefault().post(new CircuitStateChangedEvent(name, previous, current, getRemainingOpenMillis()));
+    }
+}
@@ -0,0 +1,33 @@
+package org.resend.mailclient.service;
+
+import com.resend.core.exception.ResendException;
+
+/**
+ * 熔断器打开时调用被拒绝抛出的异常
+ */
+public class CircuitOpenException extends ResendException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+    private final boolean parked;
+
+    /**
+     * 构造函数
+     *
+     * @param retryAfterMillis 距离熔断器允许探测的毫秒数
+     * @param parked 是否让邮件在发送队列中等待熔断器恢复，false 时直接失败
+     */
+    public CircuitOpenException(long retryAfterMillis, boolean parked) {
+        super("邮件服务暂时不可用（熔断器已打开），" + (retryAfterMillis / 1000) + " 秒后重试");
+        this.retryAfterMillis = retryAfterMillis;
+        this.parked = parked;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public boolean isParked() {
+        return parked;
+    }
+}
@@ -0,0 +1,241 @@
+package org.resend.mailclient.service;
+
+import org.resend.mailclient.model.Email;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译后的邮件模板。主题和内容各自被解析为“文本片段 + 变量”交替的数组，
+ * 渲染时只需按顺序拼接一次，不再扫描模板文本。内容在解析前已经过 {@link HtmlOptimizer} 优化。
+ * 变量值来自收件人文件等外部输入，插入内容时按 HTML 转义，需要原样插入 HTML 片段时写作 {!name}；主题不转义。
+ * 实例不可变，可以在多个线程间共享。
+ */
+public final class CompiledTemplate {
+    private final String templateId;
+    private final long version;
+    private final String subjectSource;
+    private final String htmlSource;
+    private final Text subject;
+    private final Text html;
+    private final Set<String> variableNames;
+    private final long htmlBytesSaved;
+
+    CompiledTemplate(String templateId, long version, String subjectSource, String htmlSource, String optimizedHtml) {
+        this.templateId = templateId;
+        this.version = version;
+        this.subjectSource = subjectSource;
+        this.htmlSource = htmlSource;
+        this.subject = Text.parse(subjectSource, false);
+        this.html = Text.parse(optimizedHtml, true);
+        this.htmlBytesSaved = Math.max(0, HtmlOptimizer.utf8Length(htmlSource) - HtmlOptimizer.utf8Length(optimizedHtml));
+        Set<String> names = new LinkedHashSet<>();
+        Collections.addAll(names, subject.names);
+        Collections.addAll(names, html.names);
+        this.variableNames = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * 渲染邮件主题
+     *
+     * @param variables 变量值，缺少的变量保留原占位符
+     * @return 主题
+     */
+    public String renderSubject(Map<String, String> variables) {
+        return subject.render(variables);
+    }
+
+    /**
+     * 渲染邮件内容，变量值按 HTML 转义，{!name} 形式的变量原样插入
+     *
+     * @param variables 变量值，缺少的变量保留原占位符
+     * @return HTML内容
+     */
+    public String renderHtml(Map<String, String> variables) {
+        return html.render(variables);
+    }
+
+    /**
+     * 为单个收件人生成个性化邮件
+     *
+     * @param fromName 发件人名称
+     * @param fromEmail 发件人邮箱
+     * @param recipient 收件人
+     * @param variables 收件人的变量值
+     * @return 邮件对象
+     */
+    public Email toEmail(String fromName, String fromEmail, String recipient, Map<String, String> variables) {
+        List<String> recipients = new ArrayList<>(1);
+        recipients.add(recipient);
+        Email email = new Email(fromName, fromEmail, recipients, renderSubject(variables), renderHtml(variables));
+        email.setHtmlOptimized(true);
+        return email;
+    }
+
+    /**
+     * 获取模板中出现的所有变量名，按首次出现的顺序排列
+     *
+     * @return 变量名集合
+     */
+    public Set<String> getVariableNames() {
+        return variableNames;
+    }
+
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 获取 HTML 优化使每封邮件正文减少的字节数（UTF-8，不含变量值）
+     *
+     * @return 字节数
+     */
+    public long getHtmlBytesSaved() {
+        return htmlBytesSaved;
+    }
+
+    /**
+     * 判断编译结果是否仍对应给定的模板文本
+     */
+    boolean matches(String subjectSource, String htmlSource) {
+        return sameText(this.subjectSource, subjectSource) && sameText(this.htmlSource, htmlSource);
+    }
+
+    private static boolean sameText(String a, String b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * 一段编译后的文本：literals[0] names[0] literals[1] ... names[n-1] literals[n]。
+     * HTML 文本中的变量值默认转义，raw[i] 为 true 的变量原样插入
+     */
+    private static final class Text {
+        // 预估的单个变量值长度，用于预分配 StringBuilder
+        private static final int ESTIMATED_VALUE_LENGTH = 16;
+
+        private final String[] literals;
+        private final String[] names;
+        private final String[] placeholders;
+        private final boolean[] escape;
+        private final int literalLength;
+
+        private Text(String[] literals, String[] names, String[] placeholders, boolean[] escape, int literalLength) {
+            this.literals = literals;
+            this.names = names;
+            this.placeholders = placeholders;
+            this.escape = escape;
+            this.literalLength = literalLength;
+        }
+
+        /**
+         * 解析 {name} 形式的占位符，变量名只能由字母、数字、下划线、点和连字符组成，
+         * 因此 CSS 中的 { color: red } 之类不会被当作变量。HTML 文本还识别原样插入的 {!name}
+         *
+         * @param source 模板文本
+         * @param html 是否为 HTML 文本，变量值需要转义
+         */
+        static Text parse(String source, boolean html) {
+            if (source == null || source.isEmpty()) {
+                return new Text(new String[]{""}, new String[0], new String[0], new boolean[0], 0);
+            }
+            List<String> literals = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            List<String> placeholders = new ArrayList<>();
+            List<Boolean> escape = new ArrayList<>();
+            int literalStart = 0;
+            int literalLength = 0;
+            int i = 0;
+            while (i < source.length()) {
+                if (source.charAt(i) != '{') {
+                    i++;
+                    continue;
+                }
+                boolean raw = html && i + 1 < source.length() && source.charAt(i + 1) == '!';
+                int nameStart = raw ? i + 2 : i + 1;
+                int end = nameStart;
+                while (end < source.length() && isNameChar(source.charAt(end))) {
+                    end++;
+                }
+                if (end < source.length() && end > nameStart && source.charAt(end) == '}') {
+                    literals.add(source.substring(literalStart, i));
+                    literalLength += i - literalStart;
+                    names.add(source.substring(nameStart, end));
+                    placeholders.add(source.substring(i, end + 1));
+                    escape.add(html && !raw);
+                    literalStart = end + 1;
+                    i = end + 1;
+                } else {
+                    i++;
+                }
+            }
+            literals.add(source.substring(literalStart));
+            literalLength += source.length() - literalStart;
+            boolean[] escapeValues = new boolean[escape.size()];
+            for (int k = 0; k < escapeValues.length; k++) {
+                escapeValues[k] = escape.get(k);
+            }
+            return new Text(literals.toArray(new String[0]), names.toArray(new String[0]),
+                    placeholders.toArray(new String[0]), escapeValues, literalLength);
+        }
+
+        String render(Map<String, String> variables) {
+            if (names.length == 0) {
+                return literals[0];
+            }
+            StringBuilder builder = new StringBuilder(literalLength + names.length * ESTIMATED_VALUE_LENGTH);
+            for (int i = 0; i < names.length; i++) {
+                builder.append(literals[i]);
+                String value = variables != null ? variables.get(names[i]) : null;
+                if (value == null) {
+                    builder.append(placeholders[i]);
+                } else if (escape[i]) {
+                    appendEscaped(builder, value);
+                } else {
+                    builder.append(value);
+                }
+            }
+            builder.append(literals[names.length]);
+            return builder.toString();
+        }
+
+        /**
+         * 按 HTML 转义追加文本，可用于元素内容和带引号的属性值
+         */
+        private static void appendEscaped(StringBuilder builder, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&':
+                        builder.append("&amp;");
+                        break;
+                    case '<':
+                        builder.append("&lt;");
+                        break;
+                    case '>':
+                        builder.append("&gt;");
+                        break;
+                    case '"':
+                        builder.append("&quot;");
+                        break;
+                    case '\'':
+                        builder.append("&#39;");
+                        break;
+                    default:
+                        builder.append(c);
+                }
+            }
+        }
+
+        private static boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-';
+        }
+    }
+}
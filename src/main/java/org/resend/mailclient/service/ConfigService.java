@@ -17,6 +17,7 @@ import java.util.Properties;
 public class ConfigService {
     private static final Logger logger = LogManager.getLogger(ConfigService.class);
     private static final String CONFIG_FILE = "mailclient.properties";
+    private static final String SYSTEM_PROPERTY_PREFIX = "mailclient.";
     private static final Properties properties = new Properties();
     
     static {
@@ -61,17 +62,22 @@ public class ConfigService {
      * @return 配置值，如果不存在则返回空字符串
      */
     public static String get(String key) {
-        return properties.getProperty(key, "");
+        return get(key, "");
     }
 
     /**
-     * 获取配置项
+     * 获取配置项。JVM 系统属性 mailclient.&lt;配置键&gt; 优先于配置文件，
+     * 便于压测等场景临时覆盖配置而不修改 mailclient.properties
      *
      * @param key 配置键
      * @param defaultValue 默认值
      * @return 配置值，如果不存在则返回默认值
      */
     public static String get(String key, String defaultValue) {
+        String override = System.getProperty(SYSTEM_PROPERTY_PREFIX + key);
+        if (override != null) {
+            return override;
+        }
         return properties.getProperty(key, defaultValue);
     }
 
@@ -0,0 +1,267 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按收件人域名限制并发和发送间隔。
+ * 每个域名有独立的等待队列，只有域名的并发数和间隔允许时任务才交给执行器，
+ * 等待中的任务不占用发送线程，某个域名积压或变慢不会阻塞其他域名的邮件（没有队头阻塞）。
+ * <p>
+ * 限制从配置文件读取：domain.&lt;域名&gt;.concurrency、domain.&lt;域名&gt;.interval.ms，
+ * 未单独配置的域名使用 domain.default.concurrency（默认 8）和 domain.default.interval.ms（默认 0）。
+ * 队列清空且没有在途任务的域名会被移除，大量不同域名不会让内存持续增长。
+ */
+public class DomainDispatcher {
+    private static final Logger logger = LogManager.getLogger(DomainDispatcher.class);
+
+    private final int defaultConcurrency;
+    private final long defaultIntervalMillis;
+    private final Map<String, DomainQueue> domains = new ConcurrentHashMap<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final ScheduledExecutorService pacer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "domain-pacer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 构造函数
+     *
+     * @param defaultConcurrency 未单独配置的域名允许的最大并发数
+     * @param defaultIntervalMillis 未单独配置的域名两次发送之间的最小间隔（毫秒）
+     */
+    public DomainDispatcher(int defaultConcurrency, long defaultIntervalMillis) {
+        if (defaultConcurrency <= 0 || defaultIntervalMillis < 0) {
+            throw new IllegalArgumentException("域名并发数必须大于0，发送间隔不能为负数");
+        }
+        this.defaultConcurrency = defaultConcurrency;
+        this.defaultIntervalMillis = defaultIntervalMillis;
+    }
+
+    /**
+     * 根据配置文件创建
+     *
+     * @return 域名调度器
+     */
+    public static DomainDispatcher fromConfig() {
+        int concurrency = Integer.parseInt(ConfigService.get("domain.default.concurrency", "8"));
+        long interval = Long.parseLong(ConfigService.get("domain.default.interval.ms", "0"));
+        return new DomainDispatcher(concurrency, interval);
+    }
+
+    /**
+     * 提交任务，域名的并发数和发送间隔允许时交给执行器执行
+     *
+     * @param domain 收件人域名
+     * @param executor 执行任务的执行器
+     * @param task 任务
+     * @param <T> 任务结果类型
+     * @return 任务结果，执行器拒绝任务时以 RejectedExecutionException 失败
+     */
+    public <T> CompletableFuture<T> submit(String domain, Executor executor, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Pending pending = new Pending(executor, () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }, future);
+        String key = domain != null ? domain : "";
+        while (true) {
+            DomainQueue queue = domains.computeIfAbsent(key, this::newQueue);
+            synchronized (queue) {
+                if (queue.retired) {
+                    // 刚被移除的空队列，重新创建
+                    continue;
+                }
+                queue.waiting.addLast(pending);
+                queuedCount.incrementAndGet();
+            }
+            drain(queue);
+            return future;
+        }
+    }
+
+    /**
+     * 获取所有域名中等待的任务数量
+     *
+     * @return 任务数量
+     */
+    public int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * 获取当前有等待或在途任务的域名数量
+     *
+     * @return 域名数量
+     */
+    public int getActiveDomainCount() {
+        return domains.size();
+    }
+
+    /**
+     * 停止发送间隔计时，尚未放行的任务以 RejectedExecutionException 结束
+     */
+    public void shutdown() {
+        pacer.shutdownNow();
+        for (DomainQueue queue : domains.values()) {
+            synchronized (queue) {
+                Pending pending;
+                while ((pending = queue.waiting.pollFirst()) != null) {
+                    queuedCount.decrementAndGet();
+                    pending.future.completeExceptionally(new RejectedExecutionException("域名调度器已关闭"));
+                }
+            }
+        }
+    }
+
+    private DomainQueue newQueue(String domain) {
+        int concurrency = Integer.parseInt(ConfigService.get("domain." + domain + ".concurrency",
+                String.valueOf(defaultConcurrency)));
+        long interval = Long.parseLong(ConfigService.get("domain." + domain + ".interval.ms",
+                String.valueOf(defaultIntervalMillis)));
+        return new DomainQueue(domain, Math.max(1, concurrency), TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval)));
+    }
+
+    /**
+     * 在并发数和发送间隔允许的范围内放行等待中的任务
+     */
+    private void drain(DomainQueue queue) {
+        while (true) {
+            Pending next;
+            synchronized (queue) {
+                if (queue.inFlight >= queue.maxConcurrency || queue.waiting.isEmpty()) {
+                    retireIfIdle(queue);
+                    return;
+                }
+                long now = System.nanoTime();
+                if (now < queue.nextStartNanos) {
+                    if (!queue.wakeupScheduled) {
+                        queue.wakeupScheduled = true;
+                        schedule(queue, queue.nextStartNanos - now);
+                    }
+                    return;
+                }
+                next = queue.waiting.pollFirst();
+                queuedCount.decrementAndGet();
+                queue.inFlight++;
+                queue.nextStartNanos = Math.max(now, queue.nextStartNanos) + queue.intervalNanos;
+            }
+            dispatch(queue, next);
+        }
+    }
+
+    private void dispatch(DomainQueue queue, Pending pending) {
+        try {
+            // 发送调度器关闭超时丢弃任务时通过拒绝回调结束 Future，调用方不会一直等待
+            pending.executor.execute(new SendDispatcher.RejectableTask() {
+                @Override
+                public void run() {
+                    try {
+                        pending.task.run();
+                    } finally {
+                        release(queue);
+                    }
+                }
+
+                @Override
+                public void reject(Exception reason) {
+                    pending.future.completeExceptionally(reason);
+                    release(queue);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.future.completeExceptionally(e);
+            release(queue);
+        }
+    }
+
+    private void release(DomainQueue queue) {
+        synchronized (queue) {
+            queue.inFlight--;
+        }
+        drain(queue);
+    }
+
+    private void schedule(DomainQueue queue, long delayNanos) {
+        try {
+            pacer.schedule(() -> {
+                synchronized (queue) {
+                    queue.wakeupScheduled = false;
+                }
+                drain(queue);
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("域名调度器已关闭，{} 的等待任务不再放行", queue.domain);
+        }
+    }
+
+    /**
+     * 队列为空且没有在途任务时移除；发送间隔未结束时等间隔结束后再移除，
+     * 避免重新创建的队列绕过间隔限制。调用方必须持有队列的锁
+     */
+    private void retireIfIdle(DomainQueue queue) {
+        if (queue.inFlight > 0 || !queue.waiting.isEmpty() || queue.wakeupScheduled) {
+            return;
+        }
+        long remaining = queue.nextStartNanos - System.nanoTime();
+        if (remaining > 0) {
+            queue.wakeupScheduled = true;
+            schedule(queue, remaining);
+            return;
+        }
+        queue.retired = true;
+        domains.remove(queue.domain, queue);
+    }
+
+    /**
+     * 单个域名的等待队列和限制，字段在队列的锁内访问
+     */
+    private static final class DomainQueue {
+        private final String domain;
+        private final int maxConcurrency;
+        private final long intervalNanos;
+        private final ArrayDeque<Pending> waiting = new ArrayDeque<>();
+        private int inFlight;
+        private long nextStartNanos;
+        private boolean wakeupScheduled;
+        private boolean retired;
+
+        private DomainQueue(String domain, int maxConcurrency, long intervalNanos) {
+            this.domain = domain;
+            this.maxConcurrency = maxConcurrency;
+            this.intervalNanos = intervalNanos;
+            this.nextStartNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * 等待放行的任务
+     */
+    private static final class Pending {
+        private final Executor executor;
+        private final Runnable task;
+        private final CompletableFuture<?> future;
+
+        private Pending(Executor executor, Runnable task, CompletableFuture<?> future) {
+            this.executor = executor;
+            this.task = task;
+            this.future = future;
+        }
+    }
+}
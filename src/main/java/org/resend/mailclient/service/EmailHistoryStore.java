@@ -0,0 +1,867 @@
+package org.resend.mailclient.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+import org.resend.mailclient.model.EmailPriority;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 邮件历史记录存储，基于 {@link SegmentedLog} 的分段追加日志。
+ * 每封邮件追加一条带长度前缀和校验和的记录，写入线程对同一批记录只做一次 fsync（组提交），
+ * 并发发送时每秒可以追加数千条记录，不会因为文件名冲突互相覆盖。
+ * 分段大小由 history.segment.bytes 控制（默认 64 MB）。
+ * <p>
+ * 记录按写入顺序编号，位置索引文件 records.idx 中第 N 个定长条目保存第 N 条记录的发送时间和在日志中的位置，
+ * 分页查询只读取索引中对应的条目和当页的记录，耗时和内存与总记录数无关。
+ * 索引在日志落盘后由写入线程追加，不单独 fsync；打开时发现索引落后于日志，会从日志中补齐。
+ * <p>
+ * 每条记录只保存列表需要的元数据：定长的头部（发送时间、优先级、正文位置和哈希）加上长度前缀的字符串字段，
+ * 正文由 {@link HistoryBodyStore} 单独保存在 bodies 子目录中，按内容哈希去重。
+ * 分页和全部读取返回的邮件不含正文，需要正文时调用 {@link #readBody(Email)}。
+ * 旧版本写入的 JSON 记录仍然可以读取，正文包含在记录中。
+ * <p>
+ * index 子目录中的 {@link HistoryIndex} 按收件人、状态和发送时间索引记录编号，与位置索引一起在写入线程中维护，
+ * {@link #query} 对各条件的倒排表求交集后只读取命中的记录。写入线程更新二级索引失败后，
+ * 由后台索引线程按位置索引补齐，补齐之前写入线程不再追加。
+ * <p>
+ * text 子目录中的 {@link FullTextIndex} 索引主题和正文中的词，由后台索引线程跟随日志增量建立，
+ * 新记录通常在写入后几毫秒内可以搜索到，追加记录不等待分词。相同正文的分词结果按内容哈希缓存。
+ * <p>
+ * 打开时如果目录中还有旧版本“每封邮件一个 JSON 文件”的历史记录，会先按时间顺序导入日志再删除这些文件。
+ */
+public class EmailHistoryStore implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(EmailHistoryStore.class);
+    private static final String PREFIX = "history-";
+    private static final String INDEX_FILE = "records.idx";
+    /** [JSON] */
+    private static final byte FORMAT_JSON = 1;
+    /** [发送时间 long][JSON] */
+    private static final byte FORMAT_TIMED_JSON = 2;
+    /**
+     * [发送时间 long][定时发送时间 long][优先级 byte][标志 byte][正文分段 long][正文偏移量 long][正文哈希 32 字节]
+     * 之后依次为 id、发件人名称、发件人邮箱、主题、状态、错误信息、幂等键，收件人和附件列表（数量 + 字符串）。
+     * 字符串为 [UTF-8 字节数 int][UTF-8]，null 的字节数为 -1；没有正文时正文分段为 -1
+     */
+    private static final byte FORMAT_METADATA = 3;
+    private static final byte FLAG_HTML_OPTIMIZED = 1;
+    private static final long NO_TIME = Long.MIN_VALUE;
+    /** [发送时间 long][分段编号 long][偏移量 long] */
+    private static final int INDEX_ENTRY_SIZE = 24;
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final SegmentedLog log;
+    private final HistoryBodyStore bodies;
+    private final HistoryIndex secondary;
+    private final FullTextIndex fullText;
+    private final int textMaxChars;
+    private final LinkedHashMap<String, Set<String>> bodyTerms = new LinkedHashMap<>(16, 0.75f, true);
+    // 后台补齐索引和清空历史记录互斥
+    private final Object textLock = new Object();
+    private final Object textSignal = new Object();
+    private final Thread indexer;
+    private volatile boolean closed;
+    // 二级索引落后于位置索引、等待后台补齐
+    private volatile boolean secondaryLagging;
+    private final FileChannel index;
+    private final Object appendLock = new Object();
+    // 上一条记录的元数据进入日志队列后完成，只在 appendLock 内访问
+    private CompletableFuture<?> lastEnqueued = CompletableFuture.completedFuture(null);
+    // 上一条记录的元数据写入日志后完成（无论成败），只在 appendLock 内访问
+    private CompletableFuture<?> lastAppended = CompletableFuture.completedFuture(null);
+    // 只在日志的锁内修改
+    private volatile long recordCount;
+
+    /**
+     * 打开历史记录存储
+     *
+     * @param directory 历史记录目录
+     * @param objectMapper 序列化邮件使用的 ObjectMapper
+     * @param segmentBytes 单个分段的最大字节数
+     * @throws IOException 打开失败时抛出
+     */
+    public EmailHistoryStore(Path directory, ObjectMapper objectMapper, long segmentBytes) throws IOException {
+        this(directory, objectMapper, segmentBytes, 4096, 65536);
+    }
+
+    /**
+     * 打开历史记录存储
+     *
+     * @param directory 历史记录目录
+     * @param objectMapper 序列化邮件使用的 ObjectMapper
+     * @param segmentBytes 单个分段的最大字节数
+     * @param bodyDedupEntries 按内容哈希记住位置的正文数量
+     * @param indexFlushRecords 二级索引在内存中累计多少条记录后写成分段
+     * @throws IOException 打开失败时抛出
+     */
+    public EmailHistoryStore(Path directory, ObjectMapper objectMapper, long segmentBytes,
+                             int bodyDedupEntries, int indexFlushRecords) throws IOException {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        this.log = new SegmentedLog(directory, PREFIX, segmentBytes);
+        this.bodies = new HistoryBodyStore(directory.resolve("bodies"), segmentBytes, bodyDedupEntries);
+        this.secondary = new HistoryIndex(directory.resolve("index"), indexFlushRecords);
+        this.fullText = FullTextIndex.fromConfig(directory.resolve("text"));
+        this.textMaxChars = Integer.parseInt(ConfigService.get("search.index.max.chars", "100000"));
+        this.index = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recoverIndex();
+        catchUpSecondaryIndex();
+        log.setWriteListener(new SegmentedLog.WriteListener() {
+            @Override
+            public void written(List<SegmentedLog.Position> positions, List<byte[]> payloads) throws IOException {
+                appendIndex(positions, payloads);
+            }
+
+            @Override
+            public void truncated() throws IOException {
+                index.truncate(0);
+                recordCount = 0;
+                secondary.clear();
+            }
+        });
+        migrateLegacyFiles();
+        this.indexer = new Thread(this::runIndexer, "history-indexer");
+        this.indexer.setDaemon(true);
+        this.indexer.start();
+    }
+
+    /**
+     * 根据配置文件打开
+     *
+     * @param directory 历史记录目录
+     * @param objectMapper 序列化邮件使用的 ObjectMapper
+     * @return 历史记录存储
+     * @throws IOException 打开失败时抛出
+     */
+    public static EmailHistoryStore fromConfig(Path directory, ObjectMapper objectMapper) throws IOException {
+        long segmentBytes = Long.parseLong(ConfigService.get("history.segment.bytes", String.valueOf(64L * 1024 * 1024)));
+        int bodyDedupEntries = Integer.parseInt(ConfigService.get("history.body.dedup.entries", "4096"));
+        int indexFlushRecords = Integer.parseInt(ConfigService.get("history.index.flush.records", "65536"));
+        return new EmailHistoryStore(directory, objectMapper, segmentBytes, bodyDedupEntries, indexFlushRecords);
+    }
+
+    /**
+     * 追加一封邮件，先保存正文，正文落盘后再追加引用它的元数据记录
+     *
+     * @param email 邮件对象
+     * @return 记录落盘并进入索引后完成
+     */
+    public CompletableFuture<Void> append(Email email) {
+        byte[] hash = null;
+        byte[] body = null;
+        if (email.getHtmlContent() != null) {
+            body = email.getHtmlContent().getBytes(StandardCharsets.UTF_8);
+            hash = HistoryBodyStore.hash(body);
+        }
+        byte[] bodyHash = hash;
+        synchronized (appendLock) {
+            CompletableFuture<SegmentedLog.Position> stored = bodyHash != null
+                    ? bodies.store(bodyHash, body) : CompletableFuture.completedFuture(null);
+            // 去重命中的正文立即完成，元数据仍按调用顺序进入日志，保持记录编号与调用顺序一致
+            CompletableFuture<CompletableFuture<Void>> enqueued = lastEnqueued.thenCombine(stored,
+                    (ignored, position) -> appendMetadata(email, position, bodyHash));
+            lastEnqueued = enqueued.handle((ignored, error) -> null);
+            CompletableFuture<Void> appended = enqueued.thenCompose(written -> written);
+            lastAppended = appended.handle((ignored, error) -> null);
+            return appended;
+        }
+    }
+
+    private CompletableFuture<Void> appendMetadata(Email email, SegmentedLog.Position body, byte[] hash) {
+        byte[] payload;
+        try {
+            payload = encodeMetadata(email, body, hash);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return log.append(payload).thenApply(position -> null);
+    }
+
+    /**
+     * 读取邮件正文。从历史记录读取的邮件只含元数据，正文按元数据中的位置单独读取
+     *
+     * @param email 邮件对象
+     * @return 正文，没有正文时返回 null
+     * @throws IOException 读取失败时抛出
+     */
+    public String readBody(Email email) throws IOException {
+        if (email.getHtmlContent() != null || email.getBodyRef() == null) {
+            return email.getHtmlContent();
+        }
+        return bodies.read(email.getBodyRef());
+    }
+
+    /**
+     * 获取历史记录总数
+     *
+     * @return 记录数
+     */
+    public long size() {
+        return recordCount;
+    }
+
+    /**
+     * 分页读取历史记录
+     *
+     * @param offset 跳过的记录数
+     * @param limit 最多返回的记录数
+     * @param sort 排序方式
+     * @return 当页的邮件
+     * @throws IOException 读取失败时抛出
+     */
+    public List<Email> readPage(long offset, int limit, HistorySort sort) throws IOException {
+        long count = recordCount;
+        if (offset < 0 || limit <= 0 || offset >= count) {
+            return new ArrayList<>();
+        }
+        int n = (int) Math.min(limit, count - offset);
+        long first = sort == HistorySort.LAST_WRITTEN_FIRST ? count - offset - n : offset;
+        ByteBuffer entries = ByteBuffer.allocate(n * INDEX_ENTRY_SIZE);
+        readFully(entries, first * INDEX_ENTRY_SIZE);
+        entries.flip();
+
+        List<Email> page = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            entries.getLong();
+            SegmentedLog.Position position = new SegmentedLog.Position(entries.getLong(), entries.getLong());
+            Email email = decode(log.read(position));
+            if (email != null) {
+                page.add(email);
+            }
+        }
+        if (sort == HistorySort.LAST_WRITTEN_FIRST) {
+            Collections.reverse(page);
+        }
+        return page;
+    }
+
+    /**
+     * 按条件查询历史记录，各条件同时满足。没有任何条件时等同于 {@link #readPage}
+     *
+     * @param query 查询条件
+     * @param offset 跳过的记录数
+     * @param limit 最多返回的记录数
+     * @param sort 排序方式
+     * @return 当页的邮件，不含正文
+     * @throws IOException 读取失败时抛出
+     */
+    public List<Email> query(HistoryQuery query, long offset, int limit, HistorySort sort) throws IOException {
+        if (query == null || query.isEmpty()) {
+            return readPage(offset, limit, sort);
+        }
+        long[] ids = matchingIds(query);
+        if (offset < 0 || limit <= 0 || offset >= ids.length) {
+            return new ArrayList<>();
+        }
+        int n = (int) Math.min(limit, ids.length - offset);
+        List<Email> page = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int k = (int) (offset + i);
+            long id = sort == HistorySort.LAST_WRITTEN_FIRST ? ids[ids.length - 1 - k] : ids[k];
+            Email email = readRecord(id);
+            if (email != null) {
+                page.add(email);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 统计满足条件的历史记录数量，只读取索引
+     *
+     * @param query 查询条件
+     * @return 记录数
+     * @throws IOException 读取失败时抛出
+     */
+    public long count(HistoryQuery query) throws IOException {
+        if (query == null || query.isEmpty()) {
+            return recordCount;
+        }
+        return matchingIds(query).length;
+    }
+
+    /**
+     * 取出各条件的倒排表，从最短的开始依次求交集
+     */
+    private long[] matchingIds(HistoryQuery query) throws IOException {
+        List<long[]> lists = new ArrayList<>(3);
+        if (query.getRecipient() != null) {
+            lists.add(secondary.postings(HistoryIndex.FIELD_RECIPIENT, query.getRecipient()));
+        }
+        if (query.getStatus() != null) {
+            lists.add(secondary.postings(HistoryIndex.FIELD_STATUS, query.getStatus()));
+        }
+        if (query.getFrom() != null || query.getTo() != null) {
+            long from = query.getFrom() != null ? toEpochMillis(query.getFrom()) : Long.MIN_VALUE;
+            long to = query.getTo() != null ? toEpochMillis(query.getTo()) : Long.MAX_VALUE;
+            lists.add(secondary.timeRange(from, to));
+        }
+        if (query.hasText()) {
+            lists.add(fullText.search(query.getText()));
+        }
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+        long[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = HistoryIndex.intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 按记录编号读取一条记录
+     */
+    private Email readRecord(long id) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        readFully(entry, id * INDEX_ENTRY_SIZE);
+        entry.flip();
+        entry.getLong();
+        return decode(log.read(new SegmentedLog.Position(entry.getLong(), entry.getLong())));
+    }
+
+    /**
+     * 读取所有历史记录，不含正文
+     *
+     * @return 邮件列表，按发送时间倒序排列
+     * @throws IOException 读取失败时抛出
+     */
+    public List<Email> readAll() throws IOException {
+        List<Email> history = new ArrayList<>();
+        log.replay((position, payload) -> {
+            Email email = decode(payload);
+            if (email != null) {
+                history.add(email);
+            } else {
+                logger.warn("跳过无法识别的历史记录: {}", position);
+            }
+        });
+        history.sort(Comparator.comparing(Email::getSentAt, Comparator.nullsLast(Comparator.reverseOrder())));
+        return history;
+    }
+
+    /**
+     * 删除所有历史记录。先等待已提交的记录写完，清空期间新的记录等待清空完成后再写入，
+     * 避免清空前拿到正文位置的记录在清空后写入，指向新写入的其他正文
+     *
+     * @throws IOException 删除失败时抛出
+     */
+    public void clear() throws IOException {
+        synchronized (appendLock) {
+            lastAppended.join();
+            synchronized (textLock) {
+                log.truncateAll();
+                bodies.clear();
+                fullText.clear();
+                synchronized (bodyTerms) {
+                    bodyTerms.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭存储，等待已提交的记录写完
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (textSignal) {
+            textSignal.notifyAll();
+        }
+        try {
+            indexer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        secondary.close();
+        fullText.close();
+        bodies.close();
+        try {
+            index.close();
+        } catch (IOException e) {
+            logger.error("关闭历史记录索引失败", e);
+        }
+    }
+
+    /**
+     * 写入线程回调：为落盘的记录追加索引条目
+     */
+    private void appendIndex(List<SegmentedLog.Position> positions, List<byte[]> payloads) throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate(positions.size() * INDEX_ENTRY_SIZE);
+        long[] sentAt = new long[positions.size()];
+        for (int i = 0; i < positions.size(); i++) {
+            sentAt[i] = sentAtMillis(payloads.get(i));
+            putEntry(entries, positions.get(i), sentAt[i]);
+        }
+        entries.flip();
+        long writeAt = recordCount * INDEX_ENTRY_SIZE;
+        while (entries.hasRemaining()) {
+            writeAt += index.write(entries, writeAt);
+        }
+        long firstId = recordCount;
+        // 先更新记录数再追加二级索引，后台索引线程看到的二级索引编号不会超过记录数
+        recordCount += positions.size();
+        // 二级索引落后时（之前更新失败）不在这里追加，由后台索引线程从位置索引补齐
+        long indexed = secondary.nextId();
+        if (indexed == firstId) {
+            try {
+                for (int i = 0; i < positions.size(); i++) {
+                    secondary.add(firstId + i, decodeQuietly(payloads.get(i)), sentAt[i]);
+                }
+            } catch (IOException e) {
+                secondaryLagging = true;
+                logger.error("更新历史记录二级索引失败，从日志补齐", e);
+            }
+        } else if (indexed < firstId && !secondaryLagging) {
+            secondaryLagging = true;
+            logger.warn("历史记录二级索引落后位置索引 {} 条，从日志补齐", firstId - indexed);
+        }
+        synchronized (textSignal) {
+            textSignal.notifyAll();
+        }
+    }
+
+    /**
+     * 后台索引线程：补齐落后的二级索引，跟随位置索引为新记录分词，空闲时等待写入线程通知
+     */
+    private void runIndexer() {
+        while (!closed) {
+            try {
+                boolean progress = indexSecondaryBatch();
+                progress |= indexTextBatch();
+                if (!progress) {
+                    synchronized (textSignal) {
+                        if (!closed && fullText.nextId() >= recordCount && secondary.nextId() >= recordCount) {
+                            textSignal.wait(1000);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.error("建立历史记录索引失败，稍后重试", e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 为最多一批尚未进入全文索引的记录分词
+     *
+     * @return 是否处理了记录
+     */
+    private boolean indexTextBatch() throws IOException {
+        synchronized (textLock) {
+            long next = fullText.nextId();
+            long count = recordCount;
+            if (next > count) {
+                logger.warn("全文索引与位置索引不一致，重建全文索引");
+                fullText.clear();
+                return true;
+            }
+            if (next == count) {
+                return false;
+            }
+            int n = (int) Math.min(512, count - next);
+            ByteBuffer entries = ByteBuffer.allocate(n * INDEX_ENTRY_SIZE);
+            readFully(entries, next * INDEX_ENTRY_SIZE);
+            entries.flip();
+            for (int i = 0; i < n && !closed; i++) {
+                entries.getLong();
+                SegmentedLog.Position position = new SegmentedLog.Position(entries.getLong(), entries.getLong());
+                Email email = decodeQuietly(log.read(position));
+                fullText.add(next + i, email != null ? textTerms(email) : Collections.emptySet());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 主题和正文的词，相同正文的分词结果按内容哈希缓存
+     */
+    private Set<String> textTerms(Email email) {
+        Set<String> terms = TextTokenizer.terms(email.getSubject(), textMaxChars);
+        if (email.getHtmlContent() != null) {
+            terms.addAll(TextTokenizer.terms(TextTokenizer.htmlToText(email.getHtmlContent(), textMaxChars), textMaxChars));
+            return terms;
+        }
+        if (email.getBodyRef() == null) {
+            return terms;
+        }
+        String hash = HistoryBodyStore.hashOf(email.getBodyRef());
+        Set<String> body;
+        synchronized (bodyTerms) {
+            body = bodyTerms.get(hash);
+        }
+        if (body == null) {
+            try {
+                body = TextTokenizer.terms(TextTokenizer.htmlToText(bodies.read(email.getBodyRef()), textMaxChars), textMaxChars);
+            } catch (IOException e) {
+                logger.warn("读取邮件正文失败，只索引主题: {}", e.getMessage());
+                return terms;
+            }
+            synchronized (bodyTerms) {
+                bodyTerms.put(hash, body);
+                if (bodyTerms.size() > 64) {
+                    bodyTerms.remove(bodyTerms.keySet().iterator().next());
+                }
+            }
+        }
+        terms.addAll(body);
+        return terms;
+    }
+
+    /**
+     * 打开时补齐落后的二级索引
+     */
+    private void catchUpSecondaryIndex() throws IOException {
+        long from = secondary.nextId();
+        while (indexSecondaryBatch()) {
+            // 逐批补齐
+        }
+        if (recordCount > from) {
+            logger.info("已从日志补齐 {} 条历史记录二级索引", recordCount - from);
+        }
+    }
+
+    /**
+     * 二级索引落后于位置索引时，按编号读取最多一批缺少的记录补齐；二级索引超前（位置索引被重建）时整体重建
+     *
+     * @return 是否处理了记录
+     */
+    private boolean indexSecondaryBatch() throws IOException {
+        synchronized (textLock) {
+            long from = secondary.nextId();
+            long count = recordCount;
+            if (from > count) {
+                logger.warn("历史记录二级索引与位置索引不一致，重建二级索引");
+                secondary.clear();
+                return true;
+            }
+            if (from == count) {
+                if (secondaryLagging) {
+                    secondaryLagging = false;
+                    logger.info("历史记录二级索引已跟上位置索引");
+                }
+                return false;
+            }
+            int n = (int) Math.min(4096, count - from);
+            ByteBuffer entries = ByteBuffer.allocate(n * INDEX_ENTRY_SIZE);
+            readFully(entries, from * INDEX_ENTRY_SIZE);
+            entries.flip();
+            for (int i = 0; i < n && !closed; i++) {
+                long sentAt = entries.getLong();
+                SegmentedLog.Position position = new SegmentedLog.Position(entries.getLong(), entries.getLong());
+                secondary.add(from + i, decodeQuietly(log.read(position)), sentAt);
+            }
+            return true;
+        }
+    }
+
+    private Email decodeQuietly(byte[] payload) {
+        try {
+            return decode(payload);
+        } catch (IOException e) {
+            logger.warn("无法解析历史记录，只加入时间索引: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 截掉不完整的索引条目，最后一条索引指向的记录不存在时重建索引，然后从日志补齐缺少的条目
+     */
+    private void recoverIndex() throws IOException {
+        long count = index.size() / INDEX_ENTRY_SIZE;
+        index.truncate(count * INDEX_ENTRY_SIZE);
+        SegmentedLog.Position last = null;
+        if (count > 0) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            readFully(entry, (count - 1) * INDEX_ENTRY_SIZE);
+            entry.flip();
+            entry.getLong();
+            last = new SegmentedLog.Position(entry.getLong(), entry.getLong());
+            try {
+                log.read(last);
+            } catch (IOException e) {
+                logger.warn("历史记录索引与日志不一致，重建索引: {}", e.getMessage());
+                index.truncate(0);
+                count = 0;
+                last = null;
+            }
+        }
+        recordCount = count;
+
+        List<SegmentedLog.Position> positions = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        SegmentedLog.Position skip = last;
+        SegmentedLog.RecordVisitor visitor = (position, payload) -> {
+            if (skip != null && position.getSegmentId() == skip.getSegmentId() && position.getOffset() == skip.getOffset()) {
+                return;
+            }
+            positions.add(position);
+            payloads.add(payload);
+            if (positions.size() >= 4096) {
+                appendIndex(positions, payloads);
+                positions.clear();
+                payloads.clear();
+            }
+        };
+        if (last != null) {
+            log.replayFrom(last, visitor);
+        } else {
+            log.replay(visitor);
+        }
+        if (!positions.isEmpty()) {
+            appendIndex(positions, payloads);
+        }
+        if (recordCount > count) {
+            logger.info("已从日志补齐 {} 条历史记录索引", recordCount - count);
+        }
+    }
+
+    private long sentAtMillis(byte[] payload) throws IOException {
+        if (payload.length > Long.BYTES && (payload[0] == FORMAT_TIMED_JSON || payload[0] == FORMAT_METADATA)) {
+            return ByteBuffer.wrap(payload, 1, Long.BYTES).getLong();
+        }
+        Email email = decode(payload);
+        return email != null ? toEpochMillis(email.getSentAt()) : NO_TIME;
+    }
+
+    private Email decode(byte[] payload) throws IOException {
+        if (payload.length == 0) {
+            return null;
+        }
+        if (payload[0] == FORMAT_METADATA) {
+            return decodeMetadata(payload);
+        }
+        if (payload[0] == FORMAT_TIMED_JSON) {
+            int start = 1 + Long.BYTES;
+            return objectMapper.readValue(payload, start, payload.length - start, Email.class);
+        }
+        if (payload[0] == FORMAT_JSON) {
+            return objectMapper.readValue(payload, 1, payload.length - 1, Email.class);
+        }
+        return null;
+    }
+
+    private static byte[] encodeMetadata(Email email, SegmentedLog.Position body, byte[] hash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_METADATA);
+        out.writeLong(toEpochMillis(email.getSentAt()));
+        out.writeLong(email.getSendAt() != null ? email.getSendAt().toEpochMilli() : NO_TIME);
+        out.writeByte(email.getPriority().ordinal());
+        out.writeByte(email.isHtmlOptimized() ? FLAG_HTML_OPTIMIZED : 0);
+        out.writeLong(body != null ? body.getSegmentId() : -1);
+        out.writeLong(body != null ? body.getOffset() : -1);
+        out.write(hash != null ? hash : new byte[HistoryBodyStore.HASH_SIZE]);
+        writeString(out, email.getId());
+        writeString(out, email.getFromName());
+        writeString(out, email.getFromEmail());
+        writeString(out, email.getSubject());
+        writeString(out, email.getStatus());
+        writeString(out, email.getErrorMessage());
+        writeString(out, email.getIdempotencyKey());
+        writeList(out, email.getRecipients());
+        writeList(out, email.getAttachments());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Email decodeMetadata(byte[] payload) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload, 1, payload.length - 1);
+        try {
+            Email email = new Email();
+            email.setSentAt(fromEpochMillis(in.getLong()));
+            long sendAt = in.getLong();
+            email.setSendAt(sendAt != NO_TIME ? Instant.ofEpochMilli(sendAt) : null);
+            EmailPriority[] priorities = EmailPriority.values();
+            int priority = in.get();
+            email.setPriority(priority >= 0 && priority < priorities.length ? priorities[priority] : null);
+            email.setHtmlOptimized((in.get() & FLAG_HTML_OPTIMIZED) != 0);
+            long bodySegment = in.getLong();
+            long bodyOffset = in.getLong();
+            byte[] hash = new byte[HistoryBodyStore.HASH_SIZE];
+            in.get(hash);
+            if (bodySegment >= 0) {
+                email.setBodyRef(HistoryBodyStore.toRef(new SegmentedLog.Position(bodySegment, bodyOffset), hash));
+            }
+            email.setId(readString(in));
+            email.setFromName(readString(in));
+            email.setFromEmail(readString(in));
+            email.setSubject(readString(in));
+            email.setStatus(readString(in));
+            email.setErrorMessage(readString(in));
+            email.setIdempotencyKey(readString(in));
+            email.setRecipients(readList(in));
+            email.setAttachments(readList(in));
+            return email;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("历史记录元数据格式错误", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static void writeList(DataOutputStream out, List<String> values) throws IOException {
+        int size = values != null ? values.size() : 0;
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            writeString(out, values.get(i));
+        }
+    }
+
+    private static List<String> readList(ByteBuffer in) {
+        int size = in.getInt();
+        if (size < 0 || size > in.remaining() / Integer.BYTES) {
+            throw new IllegalArgumentException("列表长度无效: " + size);
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static void putEntry(ByteBuffer buffer, SegmentedLog.Position position, long sentAtMillis) {
+        buffer.putLong(sentAtMillis);
+        buffer.putLong(position.getSegmentId());
+        buffer.putLong(position.getOffset());
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = index.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("读取历史记录索引时遇到文件结尾");
+            }
+            current += read;
+        }
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : NO_TIME;
+    }
+
+    private static LocalDateTime fromEpochMillis(long millis) {
+        return millis != NO_TIME ? LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()) : null;
+    }
+
+    /**
+     * 导入旧版本每封邮件一个 JSON 文件的历史记录，全部落盘后删除原文件。
+     * 先读取所有文件，按发送时间排序后再写入，使导入的记录之间编号顺序与发送时间顺序一致；
+     * 文件名中的时间戳只在发送时间相同或缺失时决定先后
+     */
+    private void migrateLegacyFiles() throws IOException {
+        List<Path> legacy;
+        try (Stream<Path> files = Files.list(directory)) {
+            legacy = files.filter(path -> path.getFileName().toString().endsWith(".json"))
+                    .collect(Collectors.toList());
+        }
+        if (legacy.isEmpty()) {
+            return;
+        }
+        List<LegacyRecord> records = new ArrayList<>(legacy.size());
+        for (Path path : legacy) {
+            try {
+                records.add(new LegacyRecord(path, objectMapper.readValue(path.toFile(), Email.class)));
+            } catch (IOException e) {
+                logger.error("导入旧历史记录失败，保留原文件: {}", path, e);
+            }
+        }
+        records.sort(Comparator.comparing((LegacyRecord record) -> record.email.getSentAt(),
+                        Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(record -> legacyTimestamp(record.path)));
+        if (recordCount > 0) {
+            logger.warn("历史记录中已有 {} 条记录，导入的 {} 条旧记录排在它们之后", recordCount, records.size());
+        }
+        List<CompletableFuture<Void>> writes = new ArrayList<>(records.size());
+        for (LegacyRecord record : records) {
+            writes.add(append(record.email));
+        }
+        try {
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new IOException("导入旧历史记录失败", e.getCause());
+        }
+        for (LegacyRecord record : records) {
+            Files.deleteIfExists(record.path);
+        }
+        logger.info("已将 {} 条旧格式的历史记录导入 {}", records.size(), directory);
+    }
+
+    /**
+     * 旧文件名为 email_时间戳.json 或 draft_时间戳.json，取下划线之后的部分
+     */
+    private static String legacyTimestamp(Path path) {
+        String name = path.getFileName().toString();
+        int separator = name.indexOf('_');
+        return separator >= 0 ? name.substring(separator + 1) : name;
+    }
+
+    /**
+     * 待导入的旧格式记录
+     */
+    private static final class LegacyRecord {
+        private final Path path;
+        private final Email email;
+
+        private LegacyRecord(Path path, Email email) {
+            this.path = path;
+            this.email = email;
+        }
+    }
+}
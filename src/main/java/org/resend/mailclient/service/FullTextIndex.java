@@ -0,0 +1,773 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 历史记录的全文倒排索引，词由 {@link TextTokenizer} 切分。
+ * <p>
+ * 新记录先进入内存中的增量索引，倒排项累计 search.index.flush.postings（默认 200 万）个后写成不可变的分段。
+ * 分段文件为 [头部][词项目录][倒排表]：词项目录是按词的 64 位哈希排序的定长条目，查找时二分；
+ * 倒排表保存词本身和升序的 long 记录编号，编号按与前一个编号的差值用变长整数编码，连续发送的群发邮件每个编号只占一个字节。
+ * <p>
+ * 分段覆盖连续的记录编号。后台线程把相邻的 search.merge.factor（默认 8）个同一层级的分段合并成上一层级的一个分段，
+ * 分段数量随记录数按对数增长。合并后的分段先落盘再删除旧分段，崩溃后打开时保留覆盖范围最大的分段。
+ * 查询会持有正在使用的分段，合并不会关闭查询中的文件。
+ */
+class FullTextIndex implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(FullTextIndex.class);
+    private static final String PREFIX = "text-";
+    private static final String SUFFIX = ".seg";
+    private static final int MAGIC = 0x48545854;
+    private static final int VERSION = 2;
+    /** [魔数 int][版本 int][起始编号 long][结束编号 long][层级 int][词项数 int] */
+    private static final int HEADER_SIZE = 32;
+    /** [哈希 long][倒排表位置 long][记录数 int][倒排表字节数 int] */
+    private static final int TERM_ENTRY_SIZE = 24;
+    private static final int CURSOR_BATCH = 4096;
+
+    private final Path directory;
+    private final long flushPostings;
+    private final int mergeFactor;
+    private final ExecutorService merger;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, HistoryIndex.LongList> delta = new HashMap<>();
+    private long deltaFirstId;
+    private long deltaPostings;
+    private long nextId;
+    // 清空索引时递增，丢弃清空前开始的合并结果
+    private int generation;
+    private boolean merging;
+    private boolean closed;
+
+    /**
+     * 打开索引目录
+     *
+     * @param directory 索引目录
+     * @param flushPostings 增量索引累计多少个倒排项后写成分段
+     * @param mergeFactor 同一层级累计多少个相邻分段后合并
+     * @throws IOException 打开失败时抛出
+     */
+    FullTextIndex(Path directory, long flushPostings, int mergeFactor) throws IOException {
+        this.directory = directory;
+        this.flushPostings = Math.max(1, flushPostings);
+        this.mergeFactor = Math.max(2, mergeFactor);
+        this.merger = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "fulltext-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Files.createDirectories(directory);
+        loadSegments();
+        deltaFirstId = nextId;
+        scheduleMerge();
+    }
+
+    /**
+     * 根据配置文件打开
+     *
+     * @param directory 索引目录
+     * @return 全文索引
+     * @throws IOException 打开失败时抛出
+     */
+    static FullTextIndex fromConfig(Path directory) throws IOException {
+        return new FullTextIndex(directory,
+                Long.parseLong(ConfigService.get("search.index.flush.postings", "2000000")),
+                Integer.parseInt(ConfigService.get("search.merge.factor", "8")));
+    }
+
+    /**
+     * 获取下一条待索引的记录编号
+     *
+     * @return 记录编号
+     */
+    synchronized long nextId() {
+        return nextId;
+    }
+
+    /**
+     * 添加一条记录的词。编号必须连续，已经索引过的编号直接忽略
+     *
+     * @param id 记录编号
+     * @param terms 去重后的词
+     * @throws IOException 编号不连续或写出分段失败时抛出
+     */
+    synchronized void add(long id, Collection<String> terms) throws IOException {
+        if (id < nextId) {
+            return;
+        }
+        if (id != nextId) {
+            throw new IOException("全文索引记录编号不连续: 期望 " + nextId + "，实际 " + id);
+        }
+        for (String term : terms) {
+            delta.computeIfAbsent(term, k -> new HistoryIndex.LongList()).add(id);
+        }
+        deltaPostings += terms.size();
+        nextId++;
+        if (deltaPostings >= flushPostings) {
+            flush();
+        }
+    }
+
+    /**
+     * 查询包含所有词的记录
+     *
+     * @param text 查询文本
+     * @return 升序的记录编号
+     * @throws IOException 读取失败时抛出
+     */
+    long[] search(String text) throws IOException {
+        List<String> terms = new ArrayList<>(TextTokenizer.terms(text, 256));
+        if (terms.isEmpty()) {
+            return new long[0];
+        }
+        List<Segment> snapshot;
+        List<long[]> deltaLists = new ArrayList<>(terms.size());
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+            snapshot.forEach(segment -> segment.refs++);
+            for (String term : terms) {
+                HistoryIndex.LongList ids = delta.get(term);
+                deltaLists.add(ids != null ? ids.toArray() : new long[0]);
+            }
+        }
+        try {
+            List<long[]> lists = new ArrayList<>(terms.size());
+            for (int i = 0; i < terms.size(); i++) {
+                byte[] key = terms.get(i).getBytes(StandardCharsets.UTF_8);
+                long hash = hash(key);
+                HistoryIndex.LongList ids = new HistoryIndex.LongList();
+                for (Segment segment : snapshot) {
+                    segment.postings(key, hash, ids);
+                }
+                ids.addAll(deltaLists.get(i));
+                if (ids.size() == 0) {
+                    return new long[0];
+                }
+                lists.add(ids.toArray());
+            }
+            lists.sort(Comparator.comparingInt(ids -> ids.length));
+            long[] result = lists.get(0);
+            for (int i = 1; i < lists.size() && result.length > 0; i++) {
+                result = HistoryIndex.intersect(result, lists.get(i));
+            }
+            return result;
+        } finally {
+            release(snapshot);
+        }
+    }
+
+    /**
+     * 将增量索引写成分段，并在后台检查是否需要合并
+     *
+     * @throws IOException 写入失败时抛出
+     */
+    synchronized void flush() throws IOException {
+        if (nextId == deltaFirstId) {
+            return;
+        }
+        List<Map.Entry<String, HistoryIndex.LongList>> entries = new ArrayList<>(delta.entrySet());
+        List<TermPostings> terms = new ArrayList<>(entries.size());
+        for (Map.Entry<String, HistoryIndex.LongList> entry : entries) {
+            terms.add(new TermPostings(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+        }
+        terms.sort(TermPostings.ORDER);
+        SegmentWriter writer = new SegmentWriter(directory, deltaFirstId, nextId, 0);
+        try {
+            for (TermPostings term : terms) {
+                writer.add(term.hash, term.key, term.ids);
+            }
+            segments.add(Segment.open(writer.finish()));
+        } finally {
+            writer.discard();
+        }
+        logger.debug("已写出全文索引分段，记录编号 {} - {}，{} 个词", deltaFirstId, nextId, terms.size());
+        delta.clear();
+        deltaPostings = 0;
+        deltaFirstId = nextId;
+        scheduleMerge();
+    }
+
+    /**
+     * 删除所有索引
+     *
+     * @throws IOException 删除失败时抛出
+     */
+    synchronized void clear() throws IOException {
+        generation++;
+        for (Segment segment : segments) {
+            segment.retired = true;
+            segment.refs--;
+            releaseIfUnused(segment);
+        }
+        segments.clear();
+        delta.clear();
+        deltaPostings = 0;
+        nextId = 0;
+        deltaFirstId = 0;
+    }
+
+    /**
+     * 停止后台合并，写出剩余的增量索引并关闭分段
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        merger.shutdown();
+        try {
+            if (!merger.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("等待全文索引合并完成超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.error("写出全文索引失败，下次打开时从日志重建", e);
+            }
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+        }
+    }
+
+    /**
+     * 加载分段。分段按起始编号排序，同一起始编号保留覆盖范围最大的（合并后尚未删除旧分段时会出现重叠），
+     * 编号接不上的分段及其之后的分段都被删除
+     */
+    private void loadSegments() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            try {
+                candidates.add(Segment.open(file));
+            } catch (IOException e) {
+                logger.warn("全文索引分段无法使用，删除 {}: {}", file, e.getMessage());
+                Files.deleteIfExists(file);
+            }
+        }
+        candidates.sort(Comparator.<Segment>comparingLong(segment -> segment.firstId)
+                .thenComparing(Comparator.<Segment>comparingLong(segment -> segment.endId).reversed()));
+        for (Segment segment : candidates) {
+            if (segment.firstId == nextId) {
+                segments.add(segment);
+                nextId = segment.endId;
+            } else {
+                if (segment.endId > nextId) {
+                    logger.warn("全文索引分段编号不连续，删除 {}", segment.path);
+                }
+                segment.close();
+                Files.deleteIfExists(segment.path);
+            }
+        }
+    }
+
+    private synchronized void scheduleMerge() {
+        if (merging || closed) {
+            return;
+        }
+        merging = true;
+        try {
+            merger.execute(this::mergeWhilePossible);
+        } catch (RuntimeException e) {
+            merging = false;
+        }
+    }
+
+    /**
+     * 后台线程：依次合并满足条件的相邻分段
+     */
+    private void mergeWhilePossible() {
+        try {
+            while (true) {
+                List<Segment> run;
+                int runGeneration;
+                synchronized (this) {
+                    run = closed ? null : findMergeRun();
+                    if (run == null) {
+                        merging = false;
+                        return;
+                    }
+                    run.forEach(segment -> segment.refs++);
+                    runGeneration = generation;
+                }
+                try {
+                    merge(run, runGeneration);
+                } finally {
+                    release(run);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("合并全文索引分段失败", e);
+            synchronized (this) {
+                merging = false;
+            }
+        }
+    }
+
+    /**
+     * 查找最早的一组同一层级的相邻分段
+     */
+    private List<Segment> findMergeRun() {
+        int start = 0;
+        for (int i = 1; i <= segments.size(); i++) {
+            if (i == segments.size() || segments.get(i).level != segments.get(start).level) {
+                if (i - start >= mergeFactor) {
+                    return new ArrayList<>(segments.subList(start, start + mergeFactor));
+                }
+                start = i;
+            }
+        }
+        return null;
+    }
+
+    private void merge(List<Segment> run, int runGeneration) throws IOException {
+        long firstId = run.get(0).firstId;
+        long endId = run.get(run.size() - 1).endId;
+        int level = run.get(0).level + 1;
+        long startNanos = System.nanoTime();
+        SegmentWriter writer = new SegmentWriter(directory, firstId, endId, level);
+        Path merged;
+        try {
+            List<TermCursor> cursors = new ArrayList<>(run.size());
+            for (Segment segment : run) {
+                TermCursor cursor = new TermCursor(segment);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+            while (!cursors.isEmpty()) {
+                long hash = Long.MAX_VALUE;
+                for (TermCursor cursor : cursors) {
+                    hash = Math.min(hash, cursor.hash);
+                }
+                // 哈希相同的词按词本身分组，同一个词按分段顺序拼接倒排表
+                List<TermPostings> group = new ArrayList<>();
+                for (TermCursor cursor : cursors) {
+                    while (cursor.valid && cursor.hash == hash) {
+                        byte[] key = cursor.readKey();
+                        TermPostings target = null;
+                        for (TermPostings existing : group) {
+                            if (Arrays.equals(existing.key, key)) {
+                                target = existing;
+                                break;
+                            }
+                        }
+                        if (target == null) {
+                            target = new TermPostings(key, new HistoryIndex.LongList());
+                            group.add(target);
+                        }
+                        cursor.readPostings(target.ids);
+                        cursor.advance();
+                    }
+                }
+                group.sort(TermPostings.ORDER);
+                for (TermPostings term : group) {
+                    writer.add(term.hash, term.key, term.ids);
+                }
+                cursors.removeIf(cursor -> !cursor.valid);
+            }
+            merged = writer.finish();
+        } finally {
+            writer.discard();
+        }
+
+        Segment segment = Segment.open(merged);
+        synchronized (this) {
+            int index = segments.indexOf(run.get(0));
+            boolean intact = runGeneration == generation && index >= 0 && index + run.size() <= segments.size()
+                    && segments.subList(index, index + run.size()).equals(run);
+            if (!intact) {
+                segment.close();
+                Files.deleteIfExists(merged);
+                return;
+            }
+            segments.subList(index, index + run.size()).clear();
+            segments.add(index, segment);
+            for (Segment old : run) {
+                old.retired = true;
+                old.refs--;
+                releaseIfUnused(old);
+            }
+        }
+        logger.info("已合并 {} 个全文索引分段，记录编号 {} - {}，层级 {}，耗时 {} 毫秒",
+                run.size(), firstId, endId, level, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private synchronized void release(List<Segment> used) {
+        for (Segment segment : used) {
+            segment.refs--;
+            releaseIfUnused(segment);
+        }
+    }
+
+    /**
+     * 已退役且没有查询在使用的分段关闭并删除文件，调用方持有索引的锁
+     */
+    private void releaseIfUnused(Segment segment) {
+        if (segment.retired && segment.refs == 0) {
+            segment.close();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                logger.error("删除全文索引分段失败: {}", segment.path, e);
+            }
+        }
+    }
+
+    /**
+     * FNV-1a 64 位哈希
+     */
+    static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("读取全文索引分段时遇到文件结尾");
+            }
+            current += read;
+        }
+    }
+
+    /**
+     * 一个词和它的倒排表
+     */
+    private static final class TermPostings {
+        static final Comparator<TermPostings> ORDER = Comparator.<TermPostings>comparingLong(term -> term.hash)
+                .thenComparing((a, b) -> Arrays.compare(a.key, b.key));
+
+        final byte[] key;
+        final long hash;
+        final HistoryIndex.LongList ids;
+
+        TermPostings(byte[] key, HistoryIndex.LongList ids) {
+            this.key = key;
+            this.hash = FullTextIndex.hash(key);
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * 按词项目录顺序写分段：倒排表和目录先分别写入临时文件，结束时拼成分段文件
+     */
+    private static final class SegmentWriter {
+        private final Path directory;
+        private final long firstId;
+        private final long endId;
+        private final int level;
+        private final Path postingsFile;
+        private final Path directoryFile;
+        private final FileOutputStream postingsStream;
+        private final DataOutputStream postings;
+        private final DataOutputStream entries;
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        private long postingsSize;
+        private int termCount;
+
+        SegmentWriter(Path directory, long firstId, long endId, int level) throws IOException {
+            this.directory = directory;
+            this.firstId = firstId;
+            this.endId = endId;
+            this.level = level;
+            this.postingsFile = Files.createTempFile(directory, "postings-", ".tmp");
+            this.directoryFile = Files.createTempFile(directory, "terms-", ".tmp");
+            this.postingsStream = new FileOutputStream(postingsFile.toFile());
+            this.postings = new DataOutputStream(new BufferedOutputStream(postingsStream, 64 * 1024));
+            this.entries = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(directoryFile.toFile()), 64 * 1024));
+        }
+
+        /**
+         * 按 (哈希, 词) 的顺序添加一个词
+         */
+        void add(long hash, byte[] key, HistoryIndex.LongList ids) throws IOException {
+            encoded.reset();
+            DataOutputStream out = new DataOutputStream(encoded);
+            long previous = firstId;
+            for (int i = 0; i < ids.size(); i++) {
+                writeVarint(out, ids.get(i) - previous);
+                previous = ids.get(i);
+            }
+            entries.writeLong(hash);
+            entries.writeLong(postingsSize);
+            entries.writeInt(ids.size());
+            entries.writeInt(encoded.size());
+            postings.writeShort(key.length);
+            postings.write(key);
+            encoded.writeTo(postings);
+            postingsSize += Short.BYTES + key.length + encoded.size();
+            termCount++;
+        }
+
+        /**
+         * 拼接分段文件并落盘
+         *
+         * @return 分段文件
+         */
+        Path finish() throws IOException {
+            postings.close();
+            entries.close();
+            Path temp = Files.createTempFile(directory, "writing-", ".tmp");
+            Path target = directory.resolve(String.format("%s%016d-%016d%s", PREFIX, firstId, endId, SUFFIX));
+            try {
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                     FileChannel terms = FileChannel.open(directoryFile, StandardOpenOption.READ);
+                     FileChannel data = FileChannel.open(postingsFile, StandardOpenOption.READ)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(MAGIC).putInt(VERSION).putLong(firstId).putLong(endId).putInt(level).putInt(termCount);
+                    header.flip();
+                    while (header.hasRemaining()) {
+                        out.write(header);
+                    }
+                    transfer(terms, out);
+                    transfer(data, out);
+                    out.force(true);
+                }
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return target;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        /**
+         * 删除临时文件
+         */
+        void discard() throws IOException {
+            postings.close();
+            entries.close();
+            Files.deleteIfExists(postingsFile);
+            Files.deleteIfExists(directoryFile);
+        }
+
+        private static void transfer(FileChannel from, FileChannel to) throws IOException {
+            long size = from.size();
+            long position = 0;
+            while (position < size) {
+                position += from.transferTo(position, size - position, to);
+            }
+        }
+    }
+
+    /**
+     * 按目录顺序遍历一个分段的词，合并时使用
+     */
+    private static final class TermCursor {
+        private final Segment segment;
+        private final ByteBuffer block = ByteBuffer.allocate(CURSOR_BATCH * TERM_ENTRY_SIZE);
+        private int index = -1;
+        private int blockStart;
+        private int blockCount;
+        boolean valid;
+        long hash;
+        long offset;
+        int count;
+        int length;
+
+        TermCursor(Segment segment) {
+            this.segment = segment;
+        }
+
+        boolean advance() throws IOException {
+            index++;
+            if (index >= segment.termCount) {
+                valid = false;
+                return false;
+            }
+            if (index >= blockStart + blockCount) {
+                blockStart = index;
+                blockCount = Math.min(CURSOR_BATCH, segment.termCount - index);
+                block.clear().limit(blockCount * TERM_ENTRY_SIZE);
+                readFully(segment.channel, block, HEADER_SIZE + (long) index * TERM_ENTRY_SIZE);
+            }
+            int base = (index - blockStart) * TERM_ENTRY_SIZE;
+            hash = block.getLong(base);
+            offset = block.getLong(base + 8);
+            count = block.getInt(base + 16);
+            length = block.getInt(base + 20);
+            valid = true;
+            return true;
+        }
+
+        byte[] readKey() throws IOException {
+            return segment.readKey(offset);
+        }
+
+        void readPostings(HistoryIndex.LongList out) throws IOException {
+            segment.decode(offset, count, length, out);
+        }
+    }
+
+    /**
+     * 不可变的索引分段，通过定位读取访问
+     */
+    private static final class Segment {
+        final Path path;
+        final FileChannel channel;
+        final long firstId;
+        final long endId;
+        final int level;
+        final int termCount;
+        final long postingsOffset;
+        // 以下字段只在索引的锁内访问；分段在列表中时持有一个引用
+        int refs = 1;
+        boolean retired;
+
+        private Segment(Path path, FileChannel channel, ByteBuffer header) {
+            this.path = path;
+            this.channel = channel;
+            this.firstId = header.getLong(8);
+            this.endId = header.getLong(16);
+            this.level = header.getInt(24);
+            this.termCount = header.getInt(28);
+            this.postingsOffset = HEADER_SIZE + (long) termCount * TERM_ENTRY_SIZE;
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("不是有效的全文索引分段");
+                }
+                if (header.getInt(4) != VERSION) {
+                    throw new IOException("全文索引分段格式版本 " + header.getInt(4) + " 已不再使用");
+                }
+                Segment segment = new Segment(path, channel, header);
+                if (segment.endId < segment.firstId || segment.termCount < 0 || channel.size() < segment.postingsOffset) {
+                    throw new IOException("全文索引分段长度不正确");
+                }
+                return segment;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        void postings(byte[] key, long hash, HistoryIndex.LongList out) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(TERM_ENTRY_SIZE);
+            int low = 0;
+            int high = termCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                readEntry(entry, mid);
+                if (entry.getLong(0) < hash) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < termCount; i++) {
+                readEntry(entry, i);
+                if (entry.getLong(0) != hash) {
+                    return;
+                }
+                long offset = entry.getLong(8);
+                if (Arrays.equals(readKey(offset), key)) {
+                    decode(offset, entry.getInt(16), entry.getInt(20), out);
+                    return;
+                }
+            }
+        }
+
+        byte[] readKey(long offset) throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(Short.BYTES);
+            readFully(channel, length, postingsOffset + offset);
+            ByteBuffer key = ByteBuffer.allocate(length.getShort(0) & 0xFFFF);
+            readFully(channel, key, postingsOffset + offset + Short.BYTES);
+            return key.array();
+        }
+
+        void decode(long offset, int count, int length, HistoryIndex.LongList out) throws IOException {
+            ByteBuffer keyLength = ByteBuffer.allocate(Short.BYTES);
+            readFully(channel, keyLength, postingsOffset + offset);
+            ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(channel, data, postingsOffset + offset + Short.BYTES + (keyLength.getShort(0) & 0xFFFF));
+            data.flip();
+            long previous = firstId;
+            for (int i = 0; i < count; i++) {
+                long value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data.get();
+                    value |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                previous += value;
+                out.add(previous);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error("关闭全文索引分段失败: {}", path, e);
+            }
+        }
+
+        private void readEntry(ByteBuffer entry, int index) throws IOException {
+            entry.clear();
+            readFully(channel, entry, HEADER_SIZE + (long) index * TERM_ENTRY_SIZE);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * 分层哈希时间轮。
+ * 共 4 层，每层 256 个槽：第 0 层每个槽对应一个刻度，第 N 层每个槽对应 256^N 个刻度。
+ * 定时项按到期刻度与当前刻度的差值放入能容纳它的最低一层，
+ * 高层槽到期时把其中的定时项重新分配到低层（级联），插入和到期处理都是 O(1)。
+ * <p>
+ * 插入可以在任意线程调用，先进入无锁队列，由时间轮线程在下一个刻度取出；
+ * 槽只由时间轮线程访问，不需要加锁。取消只做标记，定时项在所在槽被处理时丢弃。
+ * 同一轮处理中到期的定时项按批次交给处理器，处理器在时间轮线程上执行，不应阻塞。
+ *
+ * @param <T> 定时项类型
+ */
+public class HashedTimerWheel<T> implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(HashedTimerWheel.class);
+    private static final int LEVELS = 4;
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    /**
+     * 一个定时项
+     *
+     * @param <T> 定时项类型
+     */
+    public static final class Timeout<T> {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedTimerWheel<T> wheel;
+        private final T item;
+        private final long deadlineTick;
+        private volatile int state;
+
+        private Timeout(HashedTimerWheel<T> wheel, T item, long deadlineTick) {
+            this.wheel = wheel;
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * 取消定时项
+         *
+         * @return 是否取消成功，已到期或已取消时返回 false
+         */
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                wheel.size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        private boolean expire() {
+            if (STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                wheel.size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final long tickMillis;
+    private final int batchSize;
+    private final Consumer<List<T>> handler;
+    private final long startMillis;
+    private final List<Timeout<T>>[][] slots;
+    private final Queue<Timeout<T>> inserts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Thread ticker;
+
+    // 已处理到的刻度，只由时间轮线程修改
+    private long currentTick;
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    /**
+     * 构造函数，时间轮线程在调用 {@link #start()} 后才开始处理到期项
+     *
+     * @param name 线程名称
+     * @param tickMillis 刻度长度（毫秒），即到期时间的精度
+     * @param batchSize 每批交给处理器的最大数量
+     * @param handler 到期项处理器
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HashedTimerWheel(String name, long tickMillis, int batchSize, Consumer<List<T>> handler) {
+        if (tickMillis <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("刻度长度和批次大小必须大于0");
+        }
+        this.tickMillis = tickMillis;
+        this.batchSize = batchSize;
+        this.handler = handler;
+        this.startMillis = System.currentTimeMillis();
+        this.slots = new List[LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                slots[level][slot] = new ArrayList<>(0);
+            }
+        }
+        this.ticker = new Thread(this::run, name);
+        this.ticker.setDaemon(true);
+    }
+
+    /**
+     * 启动时间轮线程，启动前已经到期的定时项在第一个刻度一起处理
+     */
+    public synchronized void start() {
+        if (!started && !closed) {
+            started = true;
+            ticker.start();
+        }
+    }
+
+    /**
+     * 添加定时项
+     *
+     * @param item 定时项
+     * @param deadlineMillis 到期时间（毫秒时间戳），已经过去的时间在下一个刻度处理
+     * @return 可用于取消的句柄
+     */
+    public Timeout<T> schedule(T item, long deadlineMillis) {
+        long offset = Math.max(0, deadlineMillis - startMillis);
+        // 向上取整，保证不会早于到期时间触发
+        Timeout<T> timeout = new Timeout<>(this, item, (offset + tickMillis - 1) / tickMillis);
+        size.incrementAndGet();
+        inserts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 获取尚未到期且未取消的定时项数量
+     *
+     * @return 数量
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 停止时间轮线程，尚未到期的定时项不再处理
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (started) {
+            ticker.interrupt();
+            try {
+                ticker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 时间轮线程主循环：等到下一个刻度，补齐落后的刻度后统一交付到期项
+     */
+    private void run() {
+        List<T> due = new ArrayList<>();
+        while (!closed) {
+            long targetTick = (System.currentTimeMillis() - startMillis) / tickMillis;
+            if (targetTick <= currentTick) {
+                long sleepMillis = startMillis + (currentTick + 1) * tickMillis - System.currentTimeMillis();
+                try {
+                    Thread.sleep(Math.max(1, Math.min(sleepMillis, tickMillis)));
+                } catch (InterruptedException e) {
+                    if (closed) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            while (currentTick < targetTick) {
+                currentTick++;
+                drainInserts(due);
+                advance(currentTick, due);
+            }
+            deliver(due);
+            due.clear();
+        }
+    }
+
+    /**
+     * 把新插入的定时项放入对应的槽
+     */
+    private void drainInserts(List<T> due) {
+        Timeout<T> timeout;
+        while ((timeout = inserts.poll()) != null) {
+            if (!timeout.isCancelled()) {
+                place(timeout, due);
+            }
+        }
+    }
+
+    /**
+     * 处理一个刻度：先从高到低级联边界上的高层槽，再处理第 0 层当前槽
+     */
+    private void advance(long tick, List<T> due) {
+        int cascadeLevel = 0;
+        for (int level = 1; level < LEVELS; level++) {
+            if ((tick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            cascadeLevel = level;
+        }
+        for (int level = cascadeLevel; level >= 1; level--) {
+            int slot = (int) ((tick >>> (WHEEL_BITS * level)) & MASK);
+            for (Timeout<T> timeout : takeSlot(level, slot)) {
+                if (!timeout.isCancelled()) {
+                    place(timeout, due);
+                }
+            }
+        }
+        for (Timeout<T> timeout : takeSlot(0, (int) (tick & MASK))) {
+            if (timeout.expire()) {
+                due.add(timeout.item);
+            }
+        }
+    }
+
+    /**
+     * 按到期刻度与当前刻度的差值选择层和槽，已经到期的直接加入到期列表
+     */
+    private void place(Timeout<T> timeout, List<T> due) {
+        long delta = timeout.deadlineTick - currentTick;
+        if (delta <= 0) {
+            if (timeout.expire()) {
+                due.add(timeout.item);
+            }
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (WHEEL_BITS * (level + 1))) {
+                int slot = (int) ((timeout.deadlineTick >>> (WHEEL_BITS * level)) & MASK);
+                slots[level][slot].add(timeout);
+                return;
+            }
+        }
+        // 超出时间轮范围：放在最高层最晚级联的槽中，级联时再重新分配
+        int top = LEVELS - 1;
+        int slot = (int) (((currentTick >>> (WHEEL_BITS * top)) + MASK) & MASK);
+        slots[top][slot].add(timeout);
+    }
+
+    private List<Timeout<T>> takeSlot(int level, int slot) {
+        List<Timeout<T>> timeouts = slots[level][slot];
+        if (timeouts.isEmpty()) {
+            return timeouts;
+        }
+        slots[level][slot] = new ArrayList<>(0);
+        return timeouts;
+    }
+
+    /**
+     * 按批次把到期项交给处理器
+     */
+    private void deliver(List<T> due) {
+        for (int i = 0; i < due.size(); i += batchSize) {
+            List<T> batch = new ArrayList<>(due.subList(i, Math.min(i + batchSize, due.size())));
+            try {
+                handler.accept(batch);
+            } catch (RuntimeException e) {
+                logger.error("处理 {} 个到期项失败", batch.size(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 历史记录中的邮件正文，保存在单独的分段日志中，每条记录为 [SHA-256 32 字节][UTF-8 正文]。
+ * 元数据记录只保存正文的哈希和位置，列表查询不读取正文，查看邮件时才按位置读取。
+ * <p>
+ * 同一次群发中各收件人的正文相同，最近写入的正文按内容哈希记住位置，相同的正文只写一次。
+ * 记住的数量由 history.body.dedup.entries（默认 4096）控制，只占用哈希和位置的内存。
+ */
+class HistoryBodyStore implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(HistoryBodyStore.class);
+    private static final String PREFIX = "body-";
+    static final int HASH_SIZE = 32;
+
+    private final SegmentedLog log;
+    private final int dedupEntries;
+    private final LinkedHashMap<ByteBuffer, CompletableFuture<SegmentedLog.Position>> recent =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 打开正文存储
+     *
+     * @param directory 正文目录
+     * @param segmentBytes 单个分段的最大字节数
+     * @param dedupEntries 按哈希记住位置的正文数量
+     * @throws IOException 打开失败时抛出
+     */
+    HistoryBodyStore(Path directory, long segmentBytes, int dedupEntries) throws IOException {
+        this.log = new SegmentedLog(directory, PREFIX, segmentBytes);
+        this.dedupEntries = Math.max(0, dedupEntries);
+    }
+
+    /**
+     * 计算正文的 SHA-256
+     *
+     * @param body UTF-8 正文
+     * @return 32 字节的哈希
+     */
+    static byte[] hash(byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 JVM 不支持 SHA-256", e);
+        }
+    }
+
+    /**
+     * 保存正文，最近保存过相同内容时直接返回已有的位置
+     *
+     * @param hash 正文哈希
+     * @param body UTF-8 正文
+     * @return 正文落盘后完成，结果为正文记录的位置
+     */
+    CompletableFuture<SegmentedLog.Position> store(byte[] hash, byte[] body) {
+        ByteBuffer key = ByteBuffer.wrap(hash);
+        CompletableFuture<SegmentedLog.Position> future;
+        synchronized (recent) {
+            CompletableFuture<SegmentedLog.Position> existing = recent.get(key);
+            if (existing != null && !existing.isCompletedExceptionally()) {
+                MetricsService.increment("history.body.dedup");
+                return existing;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(HASH_SIZE + body.length);
+            payload.put(hash).put(body);
+            future = log.append(payload.array());
+            if (dedupEntries > 0) {
+                recent.put(key, future);
+                if (recent.size() > dedupEntries) {
+                    recent.remove(recent.keySet().iterator().next());
+                }
+            }
+        }
+        return future;
+    }
+
+    /**
+     * 读取正文并校验哈希
+     *
+     * @param position 正文记录的位置
+     * @param hash 元数据中记录的哈希
+     * @return 正文
+     * @throws IOException 读取失败或内容与哈希不一致时抛出
+     */
+    String read(SegmentedLog.Position position, byte[] hash) throws IOException {
+        byte[] payload = log.read(position);
+        if (payload.length < HASH_SIZE || !Arrays.equals(payload, 0, HASH_SIZE, hash, 0, HASH_SIZE)) {
+            throw new IOException("邮件正文与哈希不一致: " + position);
+        }
+        return new String(payload, HASH_SIZE, payload.length - HASH_SIZE, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 删除所有正文
+     *
+     * @throws IOException 删除失败时抛出
+     */
+    void clear() throws IOException {
+        synchronized (recent) {
+            recent.clear();
+            log.truncateAll();
+        }
+    }
+
+    /**
+     * 关闭存储，等待已提交的正文写完
+     */
+    @Override
+    public void close() {
+        log.close();
+        logger.debug("邮件正文存储已关闭");
+    }
+
+    /**
+     * 将正文位置编码为字符串，保存在只含元数据的邮件对象中
+     */
+    static String toRef(SegmentedLog.Position position, byte[] hash) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(position.getSegmentId()).append(':').append(position.getOffset()).append(':');
+        for (byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 取出 {@link #toRef} 编码中的内容哈希
+     *
+     * @param ref 正文位置
+     * @return 十六进制的 SHA-256
+     */
+    static String hashOf(String ref) {
+        return ref.substring(ref.lastIndexOf(':') + 1);
+    }
+
+    /**
+     * 读取 {@link #toRef} 编码的正文
+     *
+     * @param ref 正文位置
+     * @return 正文
+     * @throws IOException 格式错误或读取失败时抛出
+     */
+    String read(String ref) throws IOException {
+        String[] parts = ref.split(":");
+        if (parts.length != 3 || parts[2].length() != HASH_SIZE * 2) {
+            throw new IOException("无效的正文位置: " + ref);
+        }
+        try {
+            byte[] hash = new byte[HASH_SIZE];
+            for (int i = 0; i < HASH_SIZE; i++) {
+                hash[i] = (byte) Integer.parseInt(parts[2].substring(i * 2, i * 2 + 2), 16);
+            }
+            return read(new SegmentedLog.Position(Long.parseLong(parts[0]), Long.parseLong(parts[1])), hash);
+        } catch (NumberFormatException e) {
+            throw new IOException("无效的正文位置: " + ref, e);
+        }
+    }
+}
@@ -0,0 +1,613 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 历史记录的二级索引：收件人 → 记录编号、状态 → 记录编号，以及按发送时间排序的时间索引。
+ * <p>
+ * 新记录先进入内存中的增量索引，累计 history.index.flush.records（默认 65536）条后写成一个不可变的索引分段，
+ * 关闭时也会写出剩余的增量。每个分段覆盖一段连续的记录编号，文件结构为：
+ * <ul>
+ *     <li>头部：编号范围、发送时间范围和各部分的位置</li>
+ *     <li>词项目录：定长条目 [字段][键的 64 位哈希][倒排表位置][记录数]，按字段和哈希排序，查找时二分</li>
+ *     <li>倒排表：[键的字节数][键][升序的记录编号]</li>
+ *     <li>时间索引：定长条目 [发送时间][记录编号]，按发送时间排序</li>
+ * </ul>
+ * 分段按编号顺序排列，同一个键在各分段中的倒排表依次拼接后仍然有序，多个条件通过倒排表求交集组合。
+ * 查询只读取用到的倒排表，不把索引整体加载到内存。
+ * <p>
+ * 记录编号使用 long。分段头部保存 long 的编号范围，倒排表和时间索引中的编号保存为相对分段起始编号的 int 偏移量，
+ * 单个分段不超过 int 范围，编号本身没有上限。
+ */
+class HistoryIndex implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(HistoryIndex.class);
+    private static final String PREFIX = "index-";
+    private static final String SUFFIX = ".seg";
+    private static final int MAGIC = 0x48494458;
+    private static final int VERSION = 2;
+    /** [魔数 int][版本 int][起始编号 long][结束编号 long][最早时间 long][最晚时间 long][词项数 int][时间条目数 int][时间索引位置 long] */
+    private static final int HEADER_SIZE = 56;
+    /** [字段 byte][哈希 long][倒排表位置 long][记录数 int] */
+    private static final int TERM_ENTRY_SIZE = 21;
+    /** [发送时间 long][记录编号相对起始编号的偏移量 int] */
+    private static final int TIME_ENTRY_SIZE = 12;
+
+    static final byte FIELD_RECIPIENT = 1;
+    static final byte FIELD_STATUS = 2;
+
+    private final Path directory;
+    private final int flushThreshold;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, LongList> deltaRecipients = new HashMap<>();
+    private final Map<String, LongList> deltaStatuses = new HashMap<>();
+    private final LongList deltaIds = new LongList();
+    private long[] deltaTimes = new long[1024];
+    private long nextId;
+
+    /**
+     * 打开索引目录，加载已有的分段。编号不连续或损坏的分段及其之后的分段会被删除，由调用方从日志补齐
+     *
+     * @param directory 索引目录
+     * @param flushThreshold 增量索引累计多少条记录后写成分段
+     * @throws IOException 打开失败时抛出
+     */
+    HistoryIndex(Path directory, int flushThreshold) throws IOException {
+        this.directory = directory;
+        this.flushThreshold = Math.max(1, flushThreshold);
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+        boolean discard = false;
+        for (Path file : files) {
+            if (!discard) {
+                try {
+                    Segment segment = Segment.open(file);
+                    if (segment.firstId == nextId) {
+                        segments.add(segment);
+                        nextId = segment.endId;
+                        continue;
+                    }
+                    segment.close();
+                    logger.warn("索引分段编号不连续，丢弃 {} 及之后的分段", file);
+                } catch (IOException e) {
+                    logger.warn("索引分段无法使用，丢弃 {} 及之后的分段: {}", file, e.getMessage());
+                }
+                discard = true;
+            }
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * 获取下一条待索引的记录编号，小于它的记录都已进入索引
+     *
+     * @return 记录编号
+     */
+    synchronized long nextId() {
+        return nextId;
+    }
+
+    /**
+     * 添加一条记录。编号必须连续，已经索引过的编号直接忽略
+     *
+     * @param id 记录编号
+     * @param email 记录的元数据，无法解析时为 null，只进入时间索引
+     * @param sentAtMillis 发送时间
+     * @throws IOException 写出分段失败时抛出
+     */
+    synchronized void add(long id, Email email, long sentAtMillis) throws IOException {
+        if (id < nextId) {
+            return;
+        }
+        if (id != nextId) {
+            throw new IOException("索引记录编号不连续: 期望 " + nextId + "，实际 " + id);
+        }
+        if (email != null) {
+            if (email.getRecipients() != null) {
+                for (String recipient : new LinkedHashSet<>(email.getRecipients())) {
+                    String key = normalizeRecipient(recipient);
+                    if (key != null) {
+                        deltaRecipients.computeIfAbsent(key, k -> new LongList()).add(id);
+                    }
+                }
+            }
+            String status = normalizeStatus(email.getStatus());
+            if (status != null) {
+                deltaStatuses.computeIfAbsent(status, k -> new LongList()).add(id);
+            }
+        }
+        if (deltaIds.size() == deltaTimes.length) {
+            deltaTimes = Arrays.copyOf(deltaTimes, deltaTimes.length * 2);
+        }
+        deltaTimes[deltaIds.size()] = sentAtMillis;
+        deltaIds.add(id);
+        nextId++;
+        if (deltaIds.size() >= flushThreshold) {
+            flush();
+        }
+    }
+
+    /**
+     * 查询某个字段取某个值的所有记录
+     *
+     * @param field 字段
+     * @param value 值，收件人不区分大小写
+     * @return 升序的记录编号
+     * @throws IOException 读取失败时抛出
+     */
+    long[] postings(byte field, String value) throws IOException {
+        String key = field == FIELD_RECIPIENT ? normalizeRecipient(value) : normalizeStatus(value);
+        if (key == null) {
+            return new long[0];
+        }
+        List<Segment> snapshot;
+        long[] delta;
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+            LongList list = (field == FIELD_RECIPIENT ? deltaRecipients : deltaStatuses).get(key);
+            delta = list != null ? list.toArray() : new long[0];
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(field, keyBytes);
+        LongList result = new LongList();
+        for (Segment segment : snapshot) {
+            segment.postings(field, keyBytes, hash, result);
+        }
+        result.addAll(delta);
+        return result.toArray();
+    }
+
+    /**
+     * 查询发送时间在指定范围内的记录
+     *
+     * @param fromMillis 起始时间（包含）
+     * @param toMillis 结束时间（不包含）
+     * @return 升序的记录编号
+     * @throws IOException 读取失败时抛出
+     */
+    long[] timeRange(long fromMillis, long toMillis) throws IOException {
+        List<Segment> snapshot;
+        LongList delta = new LongList();
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+            for (int i = 0; i < deltaIds.size(); i++) {
+                if (deltaTimes[i] >= fromMillis && deltaTimes[i] < toMillis) {
+                    delta.add(deltaIds.get(i));
+                }
+            }
+        }
+        LongList result = new LongList();
+        for (Segment segment : snapshot) {
+            if (segment.maxTime >= fromMillis && segment.minTime < toMillis) {
+                int start = result.size();
+                segment.timeRange(fromMillis, toMillis, result);
+                result.sort(start, result.size());
+            }
+        }
+        result.addAll(delta.toArray());
+        return result.toArray();
+    }
+
+    /**
+     * 求两个升序倒排表的交集，长度相差较大时在较长的表中倍增查找
+     *
+     * @param a 升序的记录编号
+     * @param b 升序的记录编号
+     * @return 升序的交集
+     */
+    static long[] intersect(long[] a, long[] b) {
+        if (a.length > b.length) {
+            long[] swap = a;
+            a = b;
+            b = swap;
+        }
+        long[] result = new long[a.length];
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < a.length && j < b.length; i++) {
+            long target = a[i];
+            if (b[j] < target) {
+                int step = 1;
+                int low = j;
+                int high = j + 1;
+                while (high < b.length && b[high] < target) {
+                    low = high;
+                    step <<= 1;
+                    high = j + step;
+                }
+                int index = Arrays.binarySearch(b, low, Math.min(high + 1, b.length), target);
+                j = index >= 0 ? index : -index - 1;
+            }
+            if (j < b.length && b[j] == target) {
+                result[count++] = target;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * 将增量索引写成分段
+     *
+     * @throws IOException 写入失败时抛出
+     */
+    synchronized void flush() throws IOException {
+        if (deltaIds.size() == 0) {
+            return;
+        }
+        long firstId = deltaIds.get(0);
+        Path file = directory.resolve(String.format("%s%016d%s", PREFIX, firstId, SUFFIX));
+        writeSegment(file, firstId, nextId);
+        segments.add(Segment.open(file));
+        deltaRecipients.clear();
+        deltaStatuses.clear();
+        deltaIds.clear();
+        logger.debug("已写出历史记录索引分段 {}，记录编号 {} - {}", file.getFileName(), firstId, nextId);
+    }
+
+    /**
+     * 删除所有索引
+     *
+     * @throws IOException 删除失败时抛出
+     */
+    synchronized void clear() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        }
+        segments.clear();
+        deltaRecipients.clear();
+        deltaStatuses.clear();
+        deltaIds.clear();
+        nextId = 0;
+    }
+
+    /**
+     * 写出剩余的增量索引并关闭分段
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("写出历史记录索引失败，下次打开时从日志重建", e);
+        }
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    static String normalizeRecipient(String recipient) {
+        if (recipient == null) {
+            return null;
+        }
+        String address = recipient.trim();
+        int open = address.lastIndexOf('<');
+        int close = address.lastIndexOf('>');
+        if (open >= 0 && close > open) {
+            address = address.substring(open + 1, close).trim();
+        }
+        return address.isEmpty() ? null : address.toLowerCase(Locale.ROOT);
+    }
+
+    static String normalizeStatus(String status) {
+        if (status == null || status.isBlank()) {
+            return null;
+        }
+        return status.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * FNV-1a 64 位哈希，字段参与计算
+     */
+    private static long hash(byte field, byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ field) * 0x100000001b3L;
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void writeSegment(Path file, long firstId, long endId) throws IOException {
+        List<Term> terms = new ArrayList<>(deltaRecipients.size() + deltaStatuses.size());
+        deltaRecipients.forEach((key, ids) -> terms.add(new Term(FIELD_RECIPIENT, key, ids)));
+        deltaStatuses.forEach((key, ids) -> terms.add(new Term(FIELD_STATUS, key, ids)));
+        terms.sort(Comparator.<Term>comparingInt(term -> term.field).thenComparingLong(term -> term.hash));
+
+        int timeCount = deltaIds.size();
+        Integer[] order = new Integer[timeCount];
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        for (int i = 0; i < timeCount; i++) {
+            order[i] = i;
+            minTime = Math.min(minTime, deltaTimes[i]);
+            maxTime = Math.max(maxTime, deltaTimes[i]);
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> deltaTimes[i]).thenComparingLong(deltaIds::get));
+
+        long postingsOffset = HEADER_SIZE + (long) terms.size() * TERM_ENTRY_SIZE;
+        long timeOffset = postingsOffset;
+        for (Term term : terms) {
+            timeOffset += Integer.BYTES + term.key.length + (long) term.ids.size() * Integer.BYTES;
+        }
+
+        Path temp = Files.createTempFile(directory, "writing-", ".tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(firstId);
+                out.writeLong(endId);
+                out.writeLong(minTime);
+                out.writeLong(maxTime);
+                out.writeInt(terms.size());
+                out.writeInt(timeCount);
+                out.writeLong(timeOffset);
+                long offset = postingsOffset;
+                for (Term term : terms) {
+                    out.writeByte(term.field);
+                    out.writeLong(term.hash);
+                    out.writeLong(offset);
+                    out.writeInt(term.ids.size());
+                    offset += Integer.BYTES + term.key.length + (long) term.ids.size() * Integer.BYTES;
+                }
+                for (Term term : terms) {
+                    out.writeInt(term.key.length);
+                    out.write(term.key);
+                    for (int i = 0; i < term.ids.size(); i++) {
+                        out.writeInt((int) (term.ids.get(i) - firstId));
+                    }
+                }
+                for (Integer i : order) {
+                    out.writeLong(deltaTimes[i]);
+                    out.writeInt((int) (deltaIds.get(i) - firstId));
+                }
+                out.flush();
+                stream.getChannel().force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static final class Term {
+        final byte field;
+        final byte[] key;
+        final long hash;
+        final LongList ids;
+
+        Term(byte field, String key, LongList ids) {
+            this.field = field;
+            this.key = key.getBytes(StandardCharsets.UTF_8);
+            this.hash = HistoryIndex.hash(field, this.key);
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * 不可变的索引分段，通过定位读取访问，可以被多个线程同时查询
+     */
+    private static final class Segment {
+        final Path path;
+        final FileChannel channel;
+        final long firstId;
+        final long endId;
+        final long minTime;
+        final long maxTime;
+        final int termCount;
+        final int timeCount;
+        final long timeOffset;
+
+        private Segment(Path path, FileChannel channel, ByteBuffer header) {
+            this.path = path;
+            this.channel = channel;
+            this.firstId = header.getLong(8);
+            this.endId = header.getLong(16);
+            this.minTime = header.getLong(24);
+            this.maxTime = header.getLong(32);
+            this.termCount = header.getInt(40);
+            this.timeCount = header.getInt(44);
+            this.timeOffset = header.getLong(48);
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("不是有效的索引分段");
+                }
+                if (header.getInt(4) != VERSION) {
+                    throw new IOException("索引分段格式版本 " + header.getInt(4) + " 已不再使用");
+                }
+                Segment segment = new Segment(path, channel, header);
+                long expected = segment.timeOffset + (long) segment.timeCount * TIME_ENTRY_SIZE;
+                if (segment.endId < segment.firstId || segment.endId - segment.firstId > Integer.MAX_VALUE
+                        || channel.size() != expected) {
+                    throw new IOException("索引分段长度不正确");
+                }
+                return segment;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        void postings(byte field, byte[] key, long hash, LongList out) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(TERM_ENTRY_SIZE);
+            int low = 0;
+            int high = termCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                readEntry(entry, mid);
+                int cmp = field != entry.get(0) ? Byte.compare(entry.get(0), field) : Long.compare(entry.getLong(1), hash);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            // 哈希相同的键依次比较
+            for (int i = low; i < termCount; i++) {
+                readEntry(entry, i);
+                if (entry.get(0) != field || entry.getLong(1) != hash) {
+                    return;
+                }
+                long offset = entry.getLong(9);
+                int count = entry.getInt(17);
+                ByteBuffer keyLength = ByteBuffer.allocate(Integer.BYTES);
+                readFully(channel, keyLength, offset);
+                int length = keyLength.getInt(0);
+                if (length != key.length) {
+                    continue;
+                }
+                ByteBuffer data = ByteBuffer.allocate(length + count * Integer.BYTES);
+                readFully(channel, data, offset + Integer.BYTES);
+                if (!Arrays.equals(data.array(), 0, length, key, 0, length)) {
+                    continue;
+                }
+                data.position(length);
+                for (int j = 0; j < count; j++) {
+                    out.add(firstId + data.getInt());
+                }
+                return;
+            }
+        }
+
+        void timeRange(long fromMillis, long toMillis, LongList out) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(TIME_ENTRY_SIZE);
+            int low = 0;
+            int high = timeCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                entry.clear();
+                readFully(channel, entry, timeOffset + (long) mid * TIME_ENTRY_SIZE);
+                if (entry.getLong(0) < fromMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int batch = 4096;
+            ByteBuffer block = ByteBuffer.allocate(batch * TIME_ENTRY_SIZE);
+            for (int start = low; start < timeCount; start += batch) {
+                int n = Math.min(batch, timeCount - start);
+                block.clear().limit(n * TIME_ENTRY_SIZE);
+                readFully(channel, block, timeOffset + (long) start * TIME_ENTRY_SIZE);
+                for (int i = 0; i < n; i++) {
+                    if (block.getLong(i * TIME_ENTRY_SIZE) >= toMillis) {
+                        return;
+                    }
+                    out.add(firstId + block.getInt(i * TIME_ENTRY_SIZE + Long.BYTES));
+                }
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error("关闭索引分段失败: {}", path, e);
+            }
+        }
+
+        private void readEntry(ByteBuffer entry, int index) throws IOException {
+            entry.clear();
+            readFully(channel, entry, HEADER_SIZE + (long) index * TERM_ENTRY_SIZE);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("读取索引分段时遇到文件结尾");
+            }
+            current += read;
+        }
+    }
+
+    /**
+     * 可增长的 long 数组
+     */
+    static final class LongList {
+        private long[] values = new long[8];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(long[] more) {
+            if (size + more.length > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + more.length, size * 2));
+            }
+            System.arraycopy(more, 0, values, size, more.length);
+            size += more.length;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void sort(int from, int to) {
+            Arrays.sort(values, from, to);
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.resend.mailclient.service;
+
+import java.time.LocalDateTime;
+
+/**
+ * 历史记录查询条件，为 null 的条件不参与过滤，其余条件需要同时满足
+ */
+public class HistoryQuery {
+    private String recipient;
+    private String status;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private String text;
+
+    /**
+     * 获取收件人邮箱，不区分大小写
+     *
+     * @return 收件人邮箱
+     */
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    /**
+     * 获取邮件状态，例如 SENT、FAILED、DRAFT
+     *
+     * @return 邮件状态
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * 获取发送时间下限（包含）
+     *
+     * @return 起始时间
+     */
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public void setFrom(LocalDateTime from) {
+        this.from = from;
+    }
+
+    /**
+     * 获取发送时间上限（不包含）
+     *
+     * @return 结束时间
+     */
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    public void setTo(LocalDateTime to) {
+        this.to = to;
+    }
+
+    /**
+     * 获取全文搜索的文本，主题或正文中包含所有词的邮件才会命中
+     *
+     * @return 搜索文本
+     */
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * 判断是否有全文搜索条件
+     *
+     * @return 搜索文本不为空时返回 true
+     */
+    public boolean hasText() {
+        return text != null && !text.isBlank();
+    }
+
+    /**
+     * 判断是否没有任何条件
+     *
+     * @return 是否没有条件
+     */
+    public boolean isEmpty() {
+        return recipient == null && status == null && from == null && to == null && !hasText();
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryQuery{" +
+                "recipient='" + recipient + '\'' +
+                ", status='" + status + '\'' +
+                ", from=" + from +
+                ", to=" + to +
+                ", text='" + text + '\'' +
+                '}';
+    }
+}
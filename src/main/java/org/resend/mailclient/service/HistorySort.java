@@ -0,0 +1,13 @@
+package org.resend.mailclient.service;
+
+/**
+ * 分页查询历史记录时的排序方式。
+ * 历史记录按写入顺序编号，分页按编号排序，不读取发送时间。邮件在发送成功或失败时写入，
+ * 写入顺序通常就是发送时间顺序；从旧版本导入的记录写在导入时已有的记录之后，顺序以写入为准
+ */
+public enum HistorySort {
+    /** 最后写入的在前 */
+    LAST_WRITTEN_FIRST,
+    /** 最先写入的在前 */
+    FIRST_WRITTEN_FIRST
+}
@@ -0,0 +1,293 @@
+package org.resend.mailclient.service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 发送前的 HTML 正文优化。正文的每个字节都要乘以收件人数量，发送前去掉不影响显示的内容：
+ * <ul>
+ *     <li>编辑器留下的 contenteditable 属性、html/body 上的 dir="ltr"、Apple-* 样式类和空的 head</li>
+ *     <li>普通注释（保留 Outlook 使用的条件注释）</li>
+ *     <li>连续空白合并为一个空格，块级标签前后的空白直接删除，标签内多余的空白也一并去掉</li>
+ * </ul>
+ * pre、textarea、script、style 中的内容原样保留。同一段 HTML 重复优化的结果不变。
+ * 最近优化过的正文按内容缓存，数量由 html.optimize.cache.size（默认 64）控制；
+ * html.optimize.enabled=false 时原样返回。
+ */
+public class HtmlOptimizer {
+    private static final Set<String> BLOCK_TAGS = Set.of(
+            "html", "head", "body", "title", "meta", "link", "style", "script", "base",
+            "div", "p", "br", "hr", "center", "blockquote", "pre", "address", "form", "fieldset",
+            "section", "article", "header", "footer", "nav", "aside", "main", "figure", "figcaption",
+            "table", "caption", "colgroup", "col", "thead", "tbody", "tfoot", "tr", "td", "th",
+            "ul", "ol", "li", "dl", "dt", "dd", "h1", "h2", "h3", "h4", "h5", "h6");
+    private static final Set<String> RAW_TAGS = Set.of("pre", "textarea", "script", "style");
+    private static final Pattern CONTENTEDITABLE = Pattern.compile(
+            "\\s+contenteditable(\\s*=\\s*(\"[^\"]*\"|'[^']*'|[^\\s>]+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DIR_LTR = Pattern.compile(
+            "\\s+dir\\s*=\\s*(\"ltr\"|'ltr'|ltr)(?=[\\s/>])", Pattern.CASE_INSENSITIVE);
+    private static final Pattern APPLE_CLASS = Pattern.compile(
+            "\\s+class\\s*=\\s*(\"Apple-[\\w-]+\"|'Apple-[\\w-]+')", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EMPTY_HEAD = Pattern.compile("<head></head>", Pattern.CASE_INSENSITIVE);
+
+    private final boolean enabled;
+    private final int cacheSize;
+    private final LinkedHashMap<String, String> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 构造函数
+     *
+     * @param enabled 是否启用优化
+     * @param cacheSize 缓存的正文数量，0 表示不缓存
+     */
+    public HtmlOptimizer(boolean enabled, int cacheSize) {
+        this.enabled = enabled;
+        this.cacheSize = Math.max(0, cacheSize);
+    }
+
+    /**
+     * 根据配置文件创建
+     *
+     * @return HTML 优化器
+     */
+    public static HtmlOptimizer fromConfig() {
+        return new HtmlOptimizer(Boolean.parseBoolean(ConfigService.get("html.optimize.enabled", "true")),
+                Integer.parseInt(ConfigService.get("html.optimize.cache.size", "64")));
+    }
+
+    /**
+     * 优化 HTML 正文
+     *
+     * @param html 原始 HTML，可以为 null
+     * @return 优化后的 HTML
+     */
+    public String optimize(String html) {
+        if (!enabled || html == null || html.isEmpty()) {
+            return html;
+        }
+        if (cacheSize > 0) {
+            synchronized (cache) {
+                String cached = cache.get(html);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+        String optimized = process(html);
+        if (cacheSize > 0) {
+            synchronized (cache) {
+                cache.put(html, optimized);
+                if (cache.size() > cacheSize) {
+                    cache.remove(cache.keySet().iterator().next());
+                }
+            }
+        }
+        return optimized;
+    }
+
+    /**
+     * 计算字符串按 UTF-8 编码的字节数，不生成字节数组
+     *
+     * @param text 字符串，可以为 null
+     * @return 字节数
+     */
+    public static long utf8Length(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    static String process(String html) {
+        int n = html.length();
+        StringBuilder out = new StringBuilder(n);
+        // 文档开头相当于紧跟在块级标签之后
+        boolean afterBlock = true;
+        int i = 0;
+        while (i < n) {
+            if (html.charAt(i) == '<') {
+                if (html.startsWith("<!--", i)) {
+                    int end = html.indexOf("-->", i + 4);
+                    end = end < 0 ? n : end + 3;
+                    if (html.startsWith("<!--[if", i) || html.startsWith("<!--<![endif]", i)) {
+                        out.append(html, i, end);
+                    }
+                    i = end;
+                    continue;
+                }
+                int end = tagEnd(html, i);
+                if (end > 0) {
+                    String tag = html.substring(i, end);
+                    String name = tagName(tag);
+                    out.append(cleanTag(tag, name));
+                    i = end;
+                    if (!tag.startsWith("</") && !tag.endsWith("/>") && RAW_TAGS.contains(name)) {
+                        int close = indexOfIgnoreCase(html, "</" + name, i);
+                        close = close < 0 ? n : close;
+                        out.append(html, i, close);
+                        i = close;
+                    }
+                    afterBlock = BLOCK_TAGS.contains(name) || name.startsWith("!");
+                    continue;
+                }
+            }
+            // 文本，单独的 '<' 也按文本处理
+            int next = html.indexOf('<', i + 1);
+            next = next < 0 ? n : next;
+            appendText(out, html, i, next, afterBlock, beforeBlock(html, next));
+            afterBlock = false;
+            i = next;
+        }
+        return EMPTY_HEAD.matcher(out).replaceAll("");
+    }
+
+    /**
+     * 追加一段文本：连续空白合并为一个空格，紧靠块级标签的空白删除
+     */
+    private static void appendText(StringBuilder out, String html, int start, int end, boolean trimLeading, boolean trimTrailing) {
+        boolean pendingSpace = false;
+        boolean wroteText = false;
+        for (int i = start; i < end; i++) {
+            char c = html.charAt(i);
+            if (isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace && (wroteText || !trimLeading)) {
+                out.append(' ');
+            }
+            pendingSpace = false;
+            out.append(c);
+            wroteText = true;
+        }
+        if (pendingSpace && !trimTrailing && (wroteText || !trimLeading)) {
+            out.append(' ');
+        }
+    }
+
+    /**
+     * 判断指定位置是否为块级标签、注释或文档结尾
+     */
+    private static boolean beforeBlock(String html, int index) {
+        if (index >= html.length()) {
+            return true;
+        }
+        if (html.startsWith("<!--", index)) {
+            return true;
+        }
+        int end = tagEnd(html, index);
+        return end > 0 && BLOCK_TAGS.contains(tagName(html.substring(index, end)));
+    }
+
+    /**
+     * 查找标签结尾，跳过引号中的 '>'
+     *
+     * @return '>' 之后的位置，不是标签时返回 -1
+     */
+    private static int tagEnd(String html, int start) {
+        if (start + 1 >= html.length()) {
+            return -1;
+        }
+        char first = html.charAt(start + 1);
+        if (!Character.isLetter(first) && first != '/' && first != '!' && first != '?') {
+            return -1;
+        }
+        char quote = 0;
+        for (int i = start + 1; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static String tagName(String tag) {
+        int start = tag.startsWith("</") ? 2 : 1;
+        int end = start;
+        while (end < tag.length()) {
+            char c = tag.charAt(end);
+            if (isWhitespace(c) || c == '/' || c == '>') {
+                break;
+            }
+            end++;
+        }
+        return tag.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 去掉标签中多余的空白和编辑器属性，引号中的内容不变
+     */
+    private static String cleanTag(String tag, String name) {
+        StringBuilder builder = new StringBuilder(tag.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (quote != 0) {
+                builder.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace && c != '>' && !(c == '/' && i + 1 < tag.length() && tag.charAt(i + 1) == '>')) {
+                builder.append(' ');
+            }
+            pendingSpace = false;
+            if (c == '"' || c == '\'') {
+                quote = c;
+            }
+            builder.append(c);
+        }
+        if (builder.indexOf(" ") < 0) {
+            return builder.toString();
+        }
+        String cleaned = CONTENTEDITABLE.matcher(builder).replaceAll("");
+        cleaned = APPLE_CLASS.matcher(cleaned).replaceAll("");
+        if ("html".equals(name) || "body".equals(name)) {
+            cleaned = DIR_LTR.matcher(cleaned).replaceAll("");
+        }
+        return cleaned;
+    }
+
+    private static int indexOfIgnoreCase(String text, String target, int from) {
+        for (int i = from; i + target.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, target, 0, target.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,286 @@
+package org.resend.mailclient.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.resend.core.exception.ResendException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基于 java.net.http.HttpClient 的传输层，直接调用 Resend REST 接口。
+ * <ul>
+ *     <li>所有实例共享同一个 HttpClient 及其连接池，更换API密钥不会重新建立连接</li>
+ *     <li>优先使用 HTTP/2，同一主机的并发请求在少量连接上多路复用；服务端不支持时自动降级为 HTTP/1.1</li>
+ *     <li>连接超时（http.connect.timeout.ms）和读取超时（http.read.timeout.ms）可配置</li>
+ *     <li>请求体超过 http.stream.threshold.bytes 时边序列化边发送，不在内存中生成完整的请求体</li>
+ *     <li>附件内容从 {@link AttachmentStore} 的缓存文件直接写入请求体，不读入内存</li>
+ * </ul>
+ * 也用于连接自定义接口地址，例如 {@link MockResendServer}。
+ * 非 2xx 响应抛出 {@link MailTransportException}，携带 HTTP 状态码和 Retry-After，供 {@link SendErrors} 判断是否重试。
+ * 幂等键通过 Idempotency-Key 请求头发送。
+ */
+public class HttpClientMailTransport implements MailTransport {
+    private static final Logger logger = LogManager.getLogger(HttpClientMailTransport.class);
+
+    /** Resend 官方接口地址 */
+    public static final String DEFAULT_BASE_URL = "https://api.resend.com";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(
+            Long.parseLong(ConfigService.get("http.connect.timeout.ms", "10000")));
+    private static final Duration READ_TIMEOUT = Duration.ofMillis(
+            Long.parseLong(ConfigService.get("http.read.timeout.ms", ConfigService.get("resend.request.timeout.ms", "30000"))));
+    private static final long STREAM_THRESHOLD = Long.parseLong(ConfigService.get("http.stream.threshold.bytes", "262144"));
+    private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 延迟创建的共享客户端
+     */
+    private static final class Shared {
+        private static final HttpClient CLIENT = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+
+        // 流式请求体的序列化线程
+        private static final ExecutorService BODY_WRITER = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "http-body-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final URI baseUri;
+    private final String apiKey;
+    private final ObjectMapper objectMapper;
+    private final AttachmentStore attachments;
+
+    /**
+     * 构造函数，创建的传输层不能发送带附件的邮件
+     *
+     * @param baseUrl 接口地址，例如 https://api.resend.com 或 http://localhost:8025
+     * @param apiKey API密钥
+     * @param objectMapper JSON 序列化使用的 ObjectMapper
+     */
+    public HttpClientMailTransport(String baseUrl, String apiKey, ObjectMapper objectMapper) {
+        this(baseUrl, apiKey, objectMapper, null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param baseUrl 接口地址，例如 https://api.resend.com 或 http://localhost:8025
+     * @param apiKey API密钥
+     * @param objectMapper JSON 序列化使用的 ObjectMapper
+     * @param attachments 附件编码缓存，为 null 时不支持附件
+     */
+    public HttpClientMailTransport(String baseUrl, String apiKey, ObjectMapper objectMapper, AttachmentStore attachments) {
+        this.baseUri = URI.create(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+        this.apiKey = apiKey;
+        this.objectMapper = objectMapper;
+        this.attachments = attachments;
+    }
+
+    @Override
+    public String send(Email email, String from, String idempotencyKey) throws ResendException {
+        Map<String, Object> request = toRequest(email, from);
+        long size = estimateSize(email);
+        if (!email.getAttachments().isEmpty()) {
+            List<AttachmentStore.EncodedAttachment> encoded = resolveAttachments(email);
+            request.put("attachments", encoded);
+            for (AttachmentStore.EncodedAttachment attachment : encoded) {
+                size += attachment.getEncodedSize();
+            }
+        }
+        JsonNode response = post("emails", request, size, idempotencyKey);
+        return response.path("id").asText(null);
+    }
+
+    @Override
+    public List<String> sendBatch(List<Email> emails, List<String> froms, String idempotencyKey) throws ResendException {
+        List<Map<String, Object>> body = new ArrayList<>(emails.size());
+        long size = 0;
+        for (int i = 0; i < emails.size(); i++) {
+            body.add(toRequest(emails.get(i), froms.get(i)));
+            size += estimateSize(emails.get(i));
+        }
+        JsonNode response = post("emails/batch", body, size, idempotencyKey);
+        List<String> ids = new ArrayList<>(emails.size());
+        for (JsonNode item : response.path("data")) {
+            ids.add(item.path("id").asText(null));
+        }
+        return ids;
+    }
+
+    @Override
+    public void verifyApiKey() throws ResendException {
+        execute(newRequest("api-keys").GET().build());
+    }
+
+    @Override
+    public String getName() {
+        return "http";
+    }
+
+    private List<AttachmentStore.EncodedAttachment> resolveAttachments(Email email) throws ResendException {
+        if (attachments == null) {
+            throw new IllegalArgumentException("当前传输层不支持附件");
+        }
+        try {
+            return attachments.resolve(email);
+        } catch (IOException e) {
+            throw new ResendException("读取附件失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static Map<String, Object> toRequest(Email email, String from) {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("from", from);
+        request.put("to", email.getRecipients());
+        request.put("subject", email.getSubject());
+        request.put("html", email.getHtmlContent());
+        return request;
+    }
+
+    /**
+     * 粗略估计请求体大小，用于决定是否流式发送
+     */
+    private static long estimateSize(Email email) {
+        long size = 128;
+        if (email.getSubject() != null) {
+            size += email.getSubject().length();
+        }
+        if (email.getHtmlContent() != null) {
+            size += email.getHtmlContent().length();
+        }
+        return size;
+    }
+
+    private JsonNode post(String path, Object body, long estimatedSize, String idempotencyKey) throws ResendException {
+        HttpRequest.BodyPublisher publisher;
+        if (estimatedSize >= STREAM_THRESHOLD) {
+            publisher = streamingBody(body);
+        } else {
+            try {
+                publisher = HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+            } catch (IOException e) {
+                throw new ResendException("序列化请求失败: " + e.getMessage(), e);
+            }
+        }
+        HttpRequest.Builder builder = newRequest(path)
+                .header("Content-Type", "application/json")
+                .POST(publisher);
+        if (idempotencyKey != null) {
+            builder.header("Idempotency-Key", idempotencyKey);
+        }
+        return execute(builder.build());
+    }
+
+    /**
+     * 流式请求体：在单独的线程中把 JSON 写入管道，HttpClient 从管道另一端读取并发送，
+     * 内存中最多只有一个管道缓冲区大小的数据
+     */
+    private HttpRequest.BodyPublisher streamingBody(Object body) {
+        return HttpRequest.BodyPublishers.ofInputStream(() -> {
+            PipedInputStream input = new PipedInputStream(PIPE_BUFFER_SIZE);
+            PipedOutputStream output;
+            try {
+                output = new PipedOutputStream(input);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Shared.BODY_WRITER.execute(() -> {
+                try (output) {
+                    objectMapper.writeValue(output, body);
+                } catch (IOException e) {
+                    // 请求被取消时读取端已关闭
+                    logger.debug("写入流式请求体失败: {}", e.getMessage());
+                }
+            });
+            return input;
+        });
+    }
+
+    private HttpRequest.Builder newRequest(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+                .timeout(READ_TIMEOUT)
+                .header("Authorization", "Bearer " + apiKey);
+    }
+
+    private JsonNode execute(HttpRequest request) throws ResendException {
+        HttpResponse<byte[]> response;
+        try {
+            response = Shared.CLIENT.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            throw new ResendException("请求 " + request.uri() + " 失败: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResendException("请求 " + request.uri() + " 时被中断", e);
+        }
+        return parseResponse(request.uri(), response.statusCode(),
+                response.headers().firstValue("Retry-After").orElse(null), response.body());
+    }
+
+    /**
+     * 解析响应，非 2xx 状态码转换为包含状态码和 Retry-After 的异常
+     */
+    private JsonNode parseResponse(URI uri, int status, String retryAfter, byte[] body) throws ResendException {
+        if (status < 200 || status >= 300) {
+            String message = "Resend 接口返回 HTTP " + status + ": " + new String(body, StandardCharsets.UTF_8);
+            if (retryAfter != null) {
+                message += " (Retry-After: " + retryAfter + ")";
+            }
+            throw new MailTransportException(message, status, parseRetryAfter(retryAfter));
+        }
+        try {
+            return objectMapper.readTree(body);
+        } catch (IOException e) {
+            throw new ResendException("无法解析 " + uri + " 的响应: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 解析 Retry-After：秒数或 HTTP 日期
+     *
+     * @param value 响应头的值，可以为 null
+     * @return 等待的毫秒数，无法解析时返回 0
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        String trimmed = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(trimmed)) * 1000L;
+        } catch (NumberFormatException e) {
+            // 不是秒数，按 HTTP 日期解析
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.resend.mailclient.service;
+
+import com.resend.core.exception.ResendException;
+import org.resend.mailclient.model.Email;
+
+import java.util.List;
+
+/**
+ * 邮件传输层接口，{@link ResendServiceNew} 通过它把邮件交给 Resend。
+ * 内置两种实现：基于 Resend SDK 的 {@link SdkMailTransport}，
+ * 以及基于 java.net.http.HttpClient 的 {@link HttpClientMailTransport}（HTTP/2 多路复用、共享连接池）。
+ * 实现必须是线程安全的。收到非 2xx 响应时抛出带状态码的 {@link MailTransportException}，
+ * 网络错误以 IOException 作为原因，以便 {@link SendErrors} 判断是否重试。
+ */
+public interface MailTransport extends AutoCloseable {
+
+    /**
+     * 发送单封邮件
+     *
+     * @param email 邮件对象，收件人已规范化，附件已通过大小检查
+     * @param from 格式化后的发件人
+     * @param idempotencyKey 幂等键，可以为 null；不支持自定义请求头的实现会忽略
+     * @return 邮件ID
+     * @throws ResendException 发送失败时抛出
+     */
+    String send(Email email, String from, String idempotencyKey) throws ResendException;
+
+    /**
+     * 通过批量接口发送多封邮件
+     *
+     * @param emails 邮件列表
+     * @param froms 与邮件一一对应的格式化发件人
+     * @param idempotencyKey 幂等键，可以为 null
+     * @return 与邮件顺序一致的邮件ID，无法获得ID的位置为 null
+     * @throws ResendException 请求失败时抛出
+     */
+    List<String> sendBatch(List<Email> emails, List<String> froms, String idempotencyKey) throws ResendException;
+
+    /**
+     * 验证API密钥是否有效
+     *
+     * @throws ResendException 密钥无效或请求失败时抛出
+     */
+    void verifyApiKey() throws ResendException;
+
+    /**
+     * 获取传输层名称，用于日志
+     *
+     * @return 名称
+     */
+    String getName();
+
+    /**
+     * 释放传输层持有的资源，默认不需要释放
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * 根据配置创建传输层。配置了接口地址时只能使用 HTTP 传输层；
+     * 否则按 mail.transport 选择 http（默认）或 sdk。
+     * 只有 HTTP 传输层会发送幂等键，发件箱恢复和重试依赖它避免重复邮件
+     *
+     * @param apiKey API密钥
+     * @param baseUrl 自定义接口地址，为空时使用 Resend 官方地址
+     * @param attachments 附件编码缓存
+     * @return 传输层
+     */
+    static MailTransport create(String apiKey, String baseUrl, AttachmentStore attachments) {
+        String type = ConfigService.get("mail.transport", "http");
+        if (!baseUrl.isEmpty() || !"sdk".equalsIgnoreCase(type)) {
+            return new HttpClientMailTransport(baseUrl.isEmpty() ? HttpClientMailTransport.DEFAULT_BASE_URL : baseUrl,
+                    apiKey, ResendServiceNew.getObjectMapper(), attachments);
+        }
+        return new SdkMailTransport(apiKey, attachments);
+    }
+}
@@ -0,0 +1,35 @@
+package org.resend.mailclient.service;
+
+import com.resend.core.exception.ResendException;
+
+/**
+ * 传输层收到 Resend 接口的非 2xx 响应时抛出的异常，携带 HTTP 状态码和 Retry-After，
+ * {@link SendErrors} 据此判断是否限流、是否重试，不解析异常信息
+ */
+public class MailTransportException extends ResendException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    /**
+     * 构造函数
+     *
+     * @param message 异常信息
+     * @param statusCode HTTP 状态码
+     * @param retryAfterMillis 服务端要求的等待毫秒数，没有时为 0
+     */
+    public MailTransportException(String message, int statusCode, long retryAfterMillis) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
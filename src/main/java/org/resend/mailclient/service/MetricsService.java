@@ -0,0 +1,99 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 指标服务，用于登记和读取发送链路上的计数器与实时数值
+ */
+public class MetricsService {
+    private static final Logger logger = LogManager.getLogger(MetricsService.class);
+    private static final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * 登记实时数值，同名数值会被覆盖
+     *
+     * @param name 指标名称
+     * @param gauge 数值提供者
+     */
+    public static void registerGauge(String name, Supplier<? extends Number> gauge) {
+        gauges.put(name, gauge);
+        logger.debug("已登记指标: {}", name);
+    }
+
+    /**
+     * 获取计数器，不存在时创建
+     *
+     * @param name 指标名称
+     * @return 计数器
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * 计数器加一
+     *
+     * @param name 指标名称
+     */
+    public static void increment(String name) {
+        counter(name).increment();
+    }
+
+    /**
+     * 获取延迟直方图，不存在时创建。快照中以 名称.count、名称.p50、名称.p99、名称.max 输出
+     *
+     * @param name 指标名称
+     * @return 直方图
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * 读取单个指标
+     *
+     * @param name 指标名称
+     * @return 指标值，不存在时返回 null
+     */
+    public static Number get(String name) {
+        Supplier<? extends Number> gauge = gauges.get(name);
+        if (gauge != null) {
+            return gauge.get();
+        }
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : null;
+    }
+
+    /**
+     * 获取所有指标的当前值，按名称排序
+     *
+     * @return 指标快照
+     */
+    public static Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        histograms.forEach((name, histogram) -> {
+            snapshot.put(name + ".count", histogram.getCount());
+            snapshot.put(name + ".p50", histogram.percentile(50));
+            snapshot.put(name + ".p99", histogram.percentile(99));
+            snapshot.put(name + ".max", histogram.getMax());
+        });
+        gauges.forEach((name, gauge) -> {
+            try {
+                snapshot.put(name, gauge.get());
+            } catch (Exception e) {
+                logger.error("读取指标失败: {}", name, e);
+            }
+        });
+        return snapshot;
+    }
+}
@@ -0,0 +1,368 @@
+package org.resend.mailclient.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的 Resend 接口模拟服务，基于 JDK 自带的 HttpServer，用于离线压测和故障测试。
+ * 支持 POST /emails、POST /emails/batch 和 GET /api-keys，
+ * 可以配置响应延迟分布、5xx 错误率、随机 429 以及按每秒请求数限流。
+ * 所有故障参数都可以在运行中修改，相同幂等键的请求返回相同的邮件ID。
+ * 将配置项 resend.base.url 指向 {@link #getBaseUrl()} 即可让 {@link ResendServiceNew} 使用该服务。
+ */
+public class MockResendServer implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(MockResendServer.class);
+
+    /**
+     * 响应延迟分布
+     */
+    @FunctionalInterface
+    public interface LatencyDistribution {
+        /**
+         * 采样一次延迟
+         *
+         * @param random 随机数生成器
+         * @return 延迟毫秒数
+         */
+        long sampleMillis(ThreadLocalRandom random);
+
+        /**
+         * 固定延迟
+         */
+        static LatencyDistribution fixed(long millis) {
+            return random -> millis;
+        }
+
+        /**
+         * 在 [min, max] 中均匀分布
+         */
+        static LatencyDistribution uniform(long minMillis, long maxMillis) {
+            return random -> minMillis + random.nextLong(maxMillis - minMillis + 1);
+        }
+
+        /**
+         * 指数分布，适合模拟大部分请求很快、少量请求较慢的情况
+         */
+        static LatencyDistribution exponential(double meanMillis) {
+            return random -> Math.round(-meanMillis * Math.log(1 - random.nextDouble()));
+        }
+
+        /**
+         * 对数正态分布，接近真实接口的长尾延迟
+         *
+         * @param medianMillis 中位数
+         * @param sigma 对数标准差，越大长尾越明显
+         */
+        static LatencyDistribution logNormal(double medianMillis, double sigma) {
+            return random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, String> responsesByIdempotencyKey = new ConcurrentHashMap<>();
+
+    private volatile LatencyDistribution latency = LatencyDistribution.fixed(0);
+    private volatile double errorRate;
+    private volatile double rateLimitRate;
+    private volatile double maxRequestsPerSecond;
+    private volatile int retryAfterSeconds = 1;
+    private volatile int maxBatchSize = BatchSender.MAX_BATCH_SIZE;
+
+    // 限流窗口：当前秒和这一秒内的请求数
+    private final AtomicLong windowSecond = new AtomicLong();
+    private final AtomicLong windowCount = new AtomicLong();
+
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder emailCount = new LongAdder();
+    private final LongAdder rateLimitedCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+
+    /**
+     * 创建模拟服务，调用 {@link #start()} 后开始监听
+     *
+     * @param port 端口，0 表示随机选择空闲端口
+     * @throws IOException 端口无法绑定时抛出
+     */
+    public MockResendServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "mock-resend");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/emails/batch", exchange -> handle(exchange, "POST", this::handleBatch));
+        server.createContext("/emails", exchange -> handle(exchange, "POST", this::handleEmail));
+        server.createContext("/api-keys", exchange -> handle(exchange, "GET", body -> "{\"data\":[]}"));
+    }
+
+    /**
+     * 开始监听
+     *
+     * @return 自身
+     */
+    public MockResendServer start() {
+        server.start();
+        logger.info("Resend 模拟服务已启动: {}", getBaseUrl());
+        return this;
+    }
+
+    /**
+     * 获取服务地址
+     *
+     * @return 例如 http://127.0.0.1:8025
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setLatency(LatencyDistribution latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * 设置返回 500 错误的请求比例
+     *
+     * @param errorRate 0-1 之间的比例
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * 设置随机返回 429 的请求比例
+     *
+     * @param rateLimitRate 0-1 之间的比例
+     */
+    public void setRateLimitRate(double rateLimitRate) {
+        this.rateLimitRate = rateLimitRate;
+    }
+
+    /**
+     * 设置每秒允许的请求数，超过部分返回 429
+     *
+     * @param maxRequestsPerSecond 每秒请求数，0 表示不限制
+     */
+    public void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    public long getEmailCount() {
+        return emailCount.sum();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimitedCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    /**
+     * 清零统计数据和幂等记录
+     */
+    public void reset() {
+        requestCount.reset();
+        emailCount.reset();
+        rateLimitedCount.reset();
+        errorCount.reset();
+        responsesByIdempotencyKey.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        logger.info("Resend 模拟服务已停止，共处理 {} 个请求，{} 封邮件", getRequestCount(), getEmailCount());
+    }
+
+    /**
+     * 处理请求体并返回响应 JSON
+     */
+    @FunctionalInterface
+    private interface Handler {
+        String handle(byte[] body) throws IOException, MockError;
+    }
+
+    /**
+     * 模拟的接口错误
+     */
+    private static final class MockError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private MockError(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try (exchange) {
+            requestCount.increment();
+            if (!method.equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("method_not_allowed", "不支持的请求方法"));
+                return;
+            }
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Bearer ")) {
+                respond(exchange, 401, error("missing_api_key", "缺少API密钥"));
+                return;
+            }
+            byte[] body;
+            try (InputStream input = exchange.getRequestBody()) {
+                body = input.readAllBytes();
+            }
+
+            sleep(latency.sampleMillis(ThreadLocalRandom.current()));
+
+            if (isRateLimited()) {
+                rateLimitedCount.increment();
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+                respond(exchange, 429, error("rate_limit_exceeded", "Too many requests"));
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errorCount.increment();
+                respond(exchange, 500, error("internal_server_error", "Internal server error"));
+                return;
+            }
+
+            String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+            String cached = idempotencyKey != null ? responsesByIdempotencyKey.get(idempotencyKey) : null;
+            if (cached != null) {
+                respond(exchange, 200, cached);
+                return;
+            }
+            String response = handler.handle(body);
+            if (idempotencyKey != null) {
+                responsesByIdempotencyKey.putIfAbsent(idempotencyKey, response);
+            }
+            respond(exchange, 200, response);
+        } catch (MockError e) {
+            respond(exchange, e.status, error("validation_error", e.getMessage()));
+        } catch (IOException e) {
+            logger.debug("模拟服务处理请求失败", e);
+        }
+    }
+
+    private String handleEmail(byte[] body) throws IOException, MockError {
+        validate(objectMapper.readTree(body));
+        emailCount.increment();
+        return objectMapper.writeValueAsString(Map.of("id", UUID.randomUUID().toString()));
+    }
+
+    private String handleBatch(byte[] body) throws IOException, MockError {
+        JsonNode emails = objectMapper.readTree(body);
+        if (emails == null || !emails.isArray()) {
+            throw new MockError(422, "请求体必须是数组");
+        }
+        if (emails.size() > maxBatchSize) {
+            throw new MockError(422, "单次最多发送 " + maxBatchSize + " 封邮件");
+        }
+        List<Map<String, String>> data = new ArrayList<>(emails.size());
+        for (JsonNode email : emails) {
+            validate(email);
+            data.add(Map.of("id", UUID.randomUUID().toString()));
+        }
+        emailCount.add(data.size());
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("data", data);
+        return objectMapper.writeValueAsString(response);
+    }
+
+    private static void validate(JsonNode email) throws MockError {
+        if (email == null || !email.isObject()) {
+            throw new MockError(422, "邮件必须是JSON对象");
+        }
+        for (String field : new String[]{"from", "to", "subject"}) {
+            if (!email.has(field) || email.path(field).isNull()) {
+                throw new MockError(422, "缺少字段: " + field);
+            }
+        }
+    }
+
+    /**
+     * 判断本次请求是否返回 429：先按比例随机注入，再按每秒请求数限流
+     */
+    private boolean isRateLimited() {
+        if (ThreadLocalRandom.current().nextDouble() < rateLimitRate) {
+            return true;
+        }
+        double limit = maxRequestsPerSecond;
+        if (limit <= 0) {
+            return false;
+        }
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long current = windowSecond.get();
+        if (current != second && windowSecond.compareAndSet(current, second)) {
+            windowCount.set(0);
+        }
+        return windowCount.incrementAndGet() > limit;
+    }
+
+    private void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private String error(String name, String message) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("name", name);
+        body.put("message", message);
+        return objectMapper.writeValueAsString(body);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
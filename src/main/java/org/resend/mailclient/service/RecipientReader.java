@@ -0,0 +1,294 @@
+package org.resend.mailclient.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Recipient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 收件人文件流式读取器，支持 CSV 和 JSONL 两种格式。
+ * 文件按缓冲区逐行读取，任意时刻只在内存中保留当前一行，百万行的文件也只占用固定内存。
+ * <ul>
+ *     <li>CSV：第一行为表头，必须包含 email 列（不区分大小写），其余列作为个性化字段；
+ *     支持双引号包裹的字段、字段内的逗号、换行和 "" 转义</li>
+ *     <li>JSONL：每行一个 JSON 对象，必须包含 email 字段，其余字段作为个性化字段</li>
+ * </ul>
+ * 缺少邮箱的行会被跳过并记录日志。
+ */
+public class RecipientReader implements Iterator<Recipient>, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(RecipientReader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String EMAIL_FIELD = "email";
+    // 表示读到了空行或无效行，需要继续读取
+    private static final Recipient EMPTY_ROW = new Recipient("", new HashMap<>(), 0);
+
+    /**
+     * 文件格式
+     */
+    public enum Format {
+        CSV,
+        JSONL
+    }
+
+    private final BufferedReader reader;
+    private final Format format;
+    private final ObjectMapper objectMapper;
+    private String[] header;
+    private int emailColumn = -1;
+    private long lineNumber;
+    private long skippedCount;
+    private Recipient next;
+
+    /**
+     * 打开收件人文件，根据扩展名判断格式（.csv 为 CSV，.jsonl/.ndjson/.json 为 JSONL）
+     *
+     * @param path 文件路径
+     * @param objectMapper 解析 JSONL 使用的 ObjectMapper
+     * @return 读取器
+     * @throws IOException 打开失败或格式无法识别时抛出
+     */
+    public static RecipientReader open(Path path, ObjectMapper objectMapper) throws IOException {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        Format format;
+        if (name.endsWith(".csv")) {
+            format = Format.CSV;
+        } else if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) {
+            format = Format.JSONL;
+        } else {
+            throw new IOException("无法识别收件人文件格式: " + path);
+        }
+        return new RecipientReader(path, format, objectMapper);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param path 文件路径
+     * @param format 文件格式
+     * @param objectMapper 解析 JSONL 使用的 ObjectMapper
+     * @throws IOException 打开失败或 CSV 表头无效时抛出
+     */
+    public RecipientReader(Path path, Format format, ObjectMapper objectMapper) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.format = format;
+        this.objectMapper = objectMapper;
+        if (format == Format.CSV) {
+            try {
+                readHeader(path);
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Recipient next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Recipient recipient = next;
+        next = null;
+        return recipient;
+    }
+
+    /**
+     * 获取因缺少邮箱或格式错误被跳过的行数
+     *
+     * @return 跳过的行数
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Recipient readNext() throws IOException {
+        while (true) {
+            Recipient recipient = format == Format.CSV ? readCsvRow() : readJsonLine();
+            if (recipient != EMPTY_ROW) {
+                return recipient;
+            }
+        }
+    }
+
+    private void readHeader(Path path) throws IOException {
+        List<String> columns = readCsvRecord();
+        if (columns == null) {
+            throw new IOException("CSV文件为空: " + path);
+        }
+        if (!columns.isEmpty()) {
+            // 去掉 UTF-8 BOM
+            columns.set(0, stripBom(columns.get(0)));
+        }
+        header = new String[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            header[i] = columns.get(i).trim();
+            if (emailColumn < 0 && EMAIL_FIELD.equalsIgnoreCase(header[i])) {
+                emailColumn = i;
+            }
+        }
+        if (emailColumn < 0) {
+            throw new IOException("CSV表头中缺少 email 列: " + path);
+        }
+    }
+
+    private Recipient readCsvRow() throws IOException {
+        long rowLine = lineNumber + 1;
+        List<String> values = readCsvRecord();
+        if (values == null) {
+            return null;
+        }
+        if (values.size() == 1 && values.get(0).isEmpty()) {
+            return EMPTY_ROW;
+        }
+        String email = emailColumn < values.size() ? values.get(emailColumn).trim() : "";
+        if (email.isEmpty()) {
+            skip(rowLine, "缺少邮箱");
+            return EMPTY_ROW;
+        }
+        Map<String, String> fields = new HashMap<>(header.length * 2);
+        for (int i = 0; i < header.length && i < values.size(); i++) {
+            fields.put(header[i], values.get(i));
+        }
+        fields.put(EMAIL_FIELD, email);
+        return new Recipient(email, fields, rowLine);
+    }
+
+    /**
+     * 读取一条 CSV 记录，引号内的换行属于字段内容
+     *
+     * @return 字段列表，文件结束时返回 null
+     */
+    private List<String> readCsvRecord() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        lineNumber++;
+        List<String> values = new ArrayList<>(header != null ? header.length : 8);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i >= line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // 引号内的换行，继续读取下一行
+                line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                lineNumber++;
+                field.append('\n');
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c == '"') {
+                    if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        values.add(field.toString());
+        return values;
+    }
+
+    private Recipient readJsonLine() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        lineNumber++;
+        line = stripBom(line).trim();
+        if (line.isEmpty()) {
+            return EMPTY_ROW;
+        }
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (IOException e) {
+            skip(lineNumber, "JSON格式错误: " + e.getMessage());
+            return EMPTY_ROW;
+        }
+        if (node == null || !node.isObject()) {
+            skip(lineNumber, "不是JSON对象");
+            return EMPTY_ROW;
+        }
+        String email = node.path(EMAIL_FIELD).asText("").trim();
+        if (email.isEmpty()) {
+            skip(lineNumber, "缺少邮箱");
+            return EMPTY_ROW;
+        }
+        Map<String, String> fields = new HashMap<>(node.size() * 2);
+        Iterator<Map.Entry<String, JsonNode>> iterator = node.fields();
+        while (iterator.hasNext()) {
+            Map.Entry<String, JsonNode> entry = iterator.next();
+            JsonNode value = entry.getValue();
+            if (value != null && !value.isNull()) {
+                fields.put(entry.getKey(), value.isTextual() ? value.asText() : value.toString());
+            }
+        }
+        fields.put(EMAIL_FIELD, email);
+        return new Recipient(email, fields, lineNumber);
+    }
+
+    private void skip(long line, String reason) {
+        skippedCount++;
+        logger.warn("跳过收件人文件第 {} 行: {}", line, reason);
+    }
+
+    private static String stripBom(String text) {
+        return !text.isEmpty() && text.charAt(0) == '\uFEFF' ? text.substring(1) : text;
+    }
+}
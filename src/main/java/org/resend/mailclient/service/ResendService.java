@@ -18,6 +18,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -35,6 +36,8 @@ public class ResendService {
     
     private final ObjectMapper objectMapper;
     private Resend resend;
+    private String apiKeyFingerprint;
+    private final ApiKeyVerifier apiKeyVerifier = ApiKeyVerifier.fromConfig(this::probeApiKey);
 
     /**
      * 构造函数
@@ -50,10 +53,14 @@ public class ResendService {
      */
     private void initializeResend() {
         String apiKey = ConfigService.get(CONFIG_API_KEY);
+        // 更换密钥后之前的验证结果全部作废
+        apiKeyVerifier.invalidateAll();
         if (!apiKey.isEmpty()) {
             resend = new Resend(apiKey);
+            apiKeyFingerprint = ApiKeyVerifier.fingerprint(apiKey);
             logger.info("Resend 客户端初始化成功");
         } else {
+            apiKeyFingerprint = null;
             logger.warn("未找到 API 密钥，请在设置中配置");
         }
     }
@@ -89,15 +96,19 @@ public class ResendService {
      * @return 是否有效
      */
     public boolean verifyApiKey(String apiKey) {
-        try {
-            Resend tempResend = new Resend(apiKey);
-            // 尝试获取域名列表，如果成功则 API 密钥有效
-            tempResend.domains.list();
-            return true;
-        } catch (ResendException e) {
-            logger.error("API 密钥验证失败", e);
-            return false;
-        }
+        return apiKeyVerifier.verify(apiKey);
+    }
+
+    /**
+     * 尝试获取域名列表，如果成功则 API 密钥有效。验证当前密钥时复用已有的客户端
+     *
+     * @param apiKey API 密钥
+     * @throws ResendException 密钥无效或请求失败时抛出
+     */
+    private void probeApiKey(String apiKey) throws ResendException {
+        Resend client = resend != null && ApiKeyVerifier.fingerprint(apiKey).equals(apiKeyFingerprint)
+                ? resend : new Resend(apiKey);
+        client.domains().list();
     }
 
     /**
@@ -125,11 +136,11 @@ public class ResendService {
                     .html(email.getHtmlContent())
                     .build();
 
-            CreateEmailResponse response = resend.emails.send(options);
+            CreateEmailResponse response = resend.emails().send(options);
             String emailId = response.getId();
             
             email.setId(emailId);
-            email.setSentAt(new Date());
+            email.setSentAt(LocalDateTime.now());
             email.setStatus("成功");
             
             saveEmail(email);
@@ -196,9 +207,9 @@ public class ResendService {
         try {
             String fileName = TEMPLATES_DIR + File.separator + template.getName() + ".json";
             
-            template.setUpdatedAt(new Date());
+            template.setUpdatedAt(LocalDateTime.now());
             if (template.getCreatedAt() == null) {
-                template.setCreatedAt(new Date());
+                template.setCreatedAt(LocalDateTime.now());
             }
             
             objectMapper.writeValue(new File(fileName), template);
@@ -1,27 +1,40 @@
 package org.resend.mailclient.service;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.resend.Resend;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.resend.core.exception.ResendException;
-import com.resend.services.emails.model.SendEmailRequest;
-import com.resend.services.emails.model.SendEmailResponse;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.greenrobot.eventbus.EventBus;
 import org.resend.mailclient.model.Email;
+import org.resend.mailclient.model.EmailPriority;
 import org.resend.mailclient.model.EmailTemplate;
+import org.resend.mailclient.model.Recipient;
 import org.resend.mailclient.service.events.EmailSentEvent;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -30,19 +43,96 @@ import java.util.stream.Collectors;
 public class ResendServiceNew {
     private static final Logger logger = LogManager.getLogger(ResendServiceNew.class);
     private static final String CONFIG_DIR = "mailclient";
-    private static final String TEMPLATES_DIR = CONFIG_DIR + File.separator + "templates";
-    private static final String HISTORY_DIR = CONFIG_DIR + File.separator + "history";
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
-    private Resend resend;
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(
+            Long.parseLong(ConfigService.get("send.shutdown.timeout.seconds", "30")));
+
+    private static final int BULK_WINDOW = Integer.parseInt(ConfigService.get("send.bulk.window", "100"));
+    private static final int BATCH_SIZE = Integer.parseInt(ConfigService.get("send.batch.size", String.valueOf(BatchSender.MAX_BATCH_SIZE)));
+    // 熔断器打开时的处理方式：PARK 让邮件排队等待恢复，FAIL_FAST 直接失败
+    private static final boolean PARK_WHILE_OPEN = !"FAIL_FAST".equalsIgnoreCase(ConfigService.get("circuit.open.mode", "PARK"));
+
+    private final Path dataDir;
+    private final Path templatesDir;
+    private final Path historyDir;
+    private final Path outboxDir;
+    private final Path scheduleDir;
+    // 自定义接口地址，例如本地的 MockResendServer；为空时使用 Resend SDK 的默认地址
+    private volatile String baseUrl = ConfigService.get("resend.base.url", "");
+    private volatile MailTransport transport;
+    // 当前传输层所用API密钥的摘要，用于判断验证时能否复用传输层
+    private String transportKeyFingerprint;
+    private final ApiKeyVerifier apiKeyVerifier = ApiKeyVerifier.fromConfig(this::probeApiKey);
+    private final SendDispatcher dispatcher;
+    private final DomainDispatcher domainDispatcher;
+    private final BatchSender batchSender;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final RetryExecutor retryExecutor;
+    private final CircuitBreaker circuitBreaker;
+    private final HtmlOptimizer htmlOptimizer = HtmlOptimizer.fromConfig();
+    private final TemplateCompiler templateCompiler = new TemplateCompiler(htmlOptimizer);
+    private final SendProgress sendProgress = new SendProgress();
+    private final AttachmentStore attachmentStore;
+    private final SendOutbox outbox;
+    // 本次启动时由发件箱继续发送的邮件，按幂等键保存，同一封邮件再次提交时复用这次发送的结果
+    private final Map<String, CompletableFuture<SendResult>> resumedSends = new ConcurrentHashMap<>();
+    // 历史记录在后台线程中打开（恢复索引、导入旧记录可能较慢），写入也经过这个线程排队，保持提交顺序
+    private final ExecutorService historyExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CompletableFuture<EmailHistoryStore> history;
+    private final SendScheduler scheduler;
+    private volatile Executor asyncExecutor;
+    private volatile boolean closing;
 
     /**
-     * 构造函数，初始化Resend客户端
+     * 构造函数，数据保存在当前目录下的 mailclient 目录中
      */
     public ResendServiceNew() {
+        this(Paths.get(CONFIG_DIR));
+    }
+
+    /**
+     * 构造函数，初始化发送链路
+     * @param dataDir 模板、历史记录和发件箱所在的数据目录
+     */
+    public ResendServiceNew(Path dataDir) {
+        this.dataDir = dataDir;
+        this.templatesDir = dataDir.resolve("templates");
+        this.historyDir = dataDir.resolve("history");
+        this.outboxDir = dataDir.resolve("outbox");
+        this.scheduleDir = dataDir.resolve("schedule");
+        this.attachmentStore = AttachmentStore.fromConfig(dataDir.resolve("attachments"));
         // 确保目录存在
         ensureDirectoriesExist();
+        this.dispatcher = SendDispatcher.fromConfig();
+        this.asyncExecutor = dispatcher;
+        this.domainDispatcher = DomainDispatcher.fromConfig();
+        // 熔断器拒绝的分块不拆分，交给重试执行器等待或直接失败；只有参数校验错误拆分分块
+        this.batchSender = new BatchSender(this::sendBatchRequest, BATCH_SIZE,
+                error -> error instanceof CircuitOpenException || SendErrors.isRetryable(error),
+                SendErrors::isValidationError);
+        this.rateLimiter = AdaptiveRateLimiter.fromConfig();
+        this.retryExecutor = new RetryExecutor(RetryPolicy.fromConfig());
+        this.circuitBreaker = CircuitBreaker.fromConfig("resend");
+        this.outbox = openOutbox();
+        this.history = CompletableFuture.supplyAsync(this::openHistory, historyExecutor);
+        this.scheduler = openScheduler();
+        registerMetrics();
+    }
+
+    /**
+     * 获取读写邮件、模板 JSON 使用的 ObjectMapper，已注册 Java 8 时间类型支持
+     * @return ObjectMapper
+     */
+    public static ObjectMapper getObjectMapper() {
+        return objectMapper;
     }
 
     /**
@@ -51,31 +141,138 @@ public class ResendServiceNew {
      */
     public void initializeResend(String apiKey) {
         if (apiKey != null && !apiKey.isEmpty()) {
-            this.resend = new Resend(apiKey);
-            logger.info("Resend客户端已初始化");
+            String url = baseUrl;
+            replaceTransport(MailTransport.create(apiKey, url, attachmentStore), apiKey);
+            logger.info("Resend客户端已初始化，传输层: {}{}", transport.getName(), url.isEmpty() ? "" : "，接口地址: " + url);
+            resumePendingSends();
         } else {
-            this.resend = null;
+            replaceTransport(null, null);
             logger.warn("API密钥未设置，Resend客户端未初始化");
         }
     }
 
     /**
-     * 验证API密钥是否有效
+     * 验证API密钥是否有效。结果按密钥摘要缓存，有效期内重复验证不会发出请求
      * @param apiKey API密钥
      * @return 是否有效
      */
     public boolean verifyApiKey(String apiKey) {
+        return apiKeyVerifier.verify(apiKey);
+    }
+
+    /**
+     * 设置Resend接口地址，下次调用 {@link #initializeResend} 时生效。
+     * 默认取配置项 resend.base.url，为空时使用 Resend 官方地址
+     * @param baseUrl 接口地址，例如 {@link MockResendServer#getBaseUrl()}
+     */
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl != null ? baseUrl : "";
+    }
+
+    /**
+     * 在后台验证API密钥，不阻塞调用线程
+     * @param apiKey API密钥
+     * @return 验证结果
+     */
+    public CompletableFuture<Boolean> verifyApiKeyAsync(String apiKey) {
+        // 界面操作走事务通道，不排在群发邮件之后
+        return dispatcher.submit(EmailPriority.TRANSACTIONAL, () -> verifyApiKey(apiKey));
+    }
+
+    /**
+     * 设置异步发送默认使用的执行器，传入 null 时恢复为内置的发送调度器
+     * @param executor 执行器
+     */
+    public void setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor != null ? executor : dispatcher;
+    }
+
+    /**
+     * 获取当前允许的每秒发送请求数
+     * @return 当前速率
+     */
+    public double getCurrentSendRate() {
+        return rateLimiter.getCurrentRate();
+    }
+
+    /**
+     * 获取所有异步发送的累计进度，界面按固定帧率采样，不需要订阅每封邮件的事件
+     * @return 发送进度
+     */
+    public SendProgress getSendProgress() {
+        return sendProgress;
+    }
+
+    /**
+     * 获取Resend调用熔断器的当前状态
+     * @return 熔断器状态
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * 获取发送队列中等待的邮件数量
+     * @return 队列深度
+     */
+    public int getPendingSendCount() {
+        return dispatcher.getQueueDepth();
+    }
+
+    /**
+     * 获取指定优先级通道中等待的邮件数量
+     * @param priority 优先级
+     * @return 队列深度
+     */
+    public int getPendingSendCount(EmailPriority priority) {
+        return dispatcher.getQueueDepth(priority);
+    }
+
+    /**
+     * 释放资源：停止接收新的发送任务，并等待队列中的邮件发送完毕
+     */
+    public void cleanup() {
+        logger.info("正在关闭邮件服务，等待 {} 封排队邮件发送完毕", dispatcher.getQueueDepth());
+        closing = true;
+        dispatcher.shutdown(SHUTDOWN_TIMEOUT);
+        domainDispatcher.shutdown();
+        retryExecutor.shutdown();
+        replaceTransport(null, null);
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        if (outbox != null) {
+            outbox.close();
+        }
+        // 等待排队中的历史记录写入提交到存储后再关闭
+        historyExecutor.shutdown();
         try {
-            Resend tempResend = new Resend(apiKey);
-            // 尝试获取API密钥信息，如果成功则有效
-            tempResend.api().get();
-            return true;
-        } catch (Exception e) {
-            logger.error("API密钥验证失败", e);
-            return false;
+            historyExecutor.awaitTermination(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        EmailHistoryStore store = history.getNow(null);
+        if (store != null) {
+            store.close();
         }
     }
 
+    /**
+     * 获取历史记录打开完成的 Future。历史记录在后台打开，完成前查询历史记录的方法返回空结果
+     * @return 打开完成（包括打开失败）后完成
+     */
+    public CompletableFuture<Void> whenHistoryReady() {
+        return history.thenApply(store -> null);
+    }
+
+    /**
+     * 获取已经打开的历史记录存储
+     * @return 存储，仍在打开或打开失败时返回 null
+     */
+    private EmailHistoryStore historyStore() {
+        return history.getNow(null);
+    }
+
     /**
      * 发送邮件
      * @param fromName 发件人名称
@@ -97,107 +294,666 @@ public class ResendServiceNew {
      * @param to 收件人列表，用分号分隔
      * @param subject 邮件主题
      * @param html 邮件HTML内容
-     * @param attachments 附件列表
+     * @param attachments 附件列表，可以为 null
      * @return 邮件ID
      * @throws ResendException 发送失败时抛出
      */
     public String sendEmail(String fromName, String fromEmail, String to, String subject, String html, List<File> attachments) throws ResendException {
-        if (resend == null) {
-            throw new ResendException("API密钥未设置，无法发送邮件");
+        Email email = new Email(fromName, fromEmail, parseRecipients(to), subject, html);
+        if (attachments != null) {
+            email.setAttachments(attachments.stream()
+                    .map(File::getPath)
+                    .collect(Collectors.toList()));
+        }
+        return sendEmail(email);
+    }
+
+    /**
+     * 发送邮件，成功后回写邮件ID、状态和发送时间。
+     * 此方法只尝试一次，需要自动重试时使用 {@link #sendEmailAsync(Email)}。
+     * 超出发送速率时不等待，抛出 {@link SendThrottledException}，调用方可按其中的等待时间稍后重试
+     * @param email 邮件对象
+     * @return 邮件ID
+     * @throws ResendException 发送失败时抛出
+     */
+    public String sendEmail(Email email) throws ResendException {
+        prepareForSend(email);
+        MailTransport client = requireClient();
+        String from = formatFrom(email.getFromName(), email.getFromEmail());
+        String emailId = callRateLimited(() -> client.send(email, from, email.getIdempotencyKey()), email.getPriority());
+        markSent(email, emailId);
+        return emailId;
+    }
+
+    /**
+     * 异步发送邮件，使用默认执行器
+     * @param fromName 发件人名称
+     * @param fromEmail 发件人邮箱
+     * @param to 收件人列表，用分号分隔
+     * @param subject 邮件主题
+     * @param html 邮件HTML内容
+     * @return 发送结果
+     */
+    public CompletableFuture<SendResult> sendEmailAsync(String fromName, String fromEmail, String to, String subject, String html) {
+        return sendEmailAsync(new Email(fromName, fromEmail, parseRecipients(to), subject, html));
+    }
+
+    /**
+     * 异步发送邮件，使用默认执行器
+     * @param email 邮件对象
+     * @return 发送结果
+     */
+    public CompletableFuture<SendResult> sendEmailAsync(Email email) {
+        return sendEmailAsync(email, asyncExecutor);
+    }
+
+    /**
+     * 异步发送邮件。发送前先把发送意图写入发件箱并落盘，程序中途退出时下次启动会继续发送。
+     * 临时性错误按重试策略退避后重新提交，所有尝试共用同一个幂等键，
+     * 不会产生重复邮件。返回的 Future 总是正常完成，最终失败的原因记录在 {@link SendResult} 中。
+     * 使用内置的发送调度器时，邮件按 {@link Email#getPriority()} 进入对应的通道；
+     * 每次尝试都先经过 {@link DomainDispatcher}，按收件人域名限制并发和发送间隔。
+     * @param email 邮件对象
+     * @param executor 执行发送的执行器
+     * @return 发送结果
+     */
+    public CompletableFuture<SendResult> sendEmailAsync(Email email, Executor executor) {
+        long submittedAt = System.nanoTime();
+        assignIdempotencyKey(email);
+        sendProgress.recordSubmitted();
+        Executor laneExecutor = executor == dispatcher ? dispatcher.executor(email.getPriority()) : executor;
+        return recordIntent(email)
+                .thenCompose(ignored -> retryExecutor.execute(
+                        () -> domainDispatcher.submit(recipientDomain(email), laneExecutor, () -> sendEmail(email)),
+                        "发送邮件[" + email.getSubject() + "]"))
+                .handle((emailId, error) -> {
+                    SendResult result;
+                    if (error != null) {
+                        logger.error("邮件发送失败: {}", email.getSubject(), error);
+                        result = markFailed(email, error, submittedAt);
+                    } else {
+                        result = SendResult.success(email, emailId, elapsedMillis(submittedAt));
+                    }
+                    recordLatency(result);
+                    sendProgress.recordResult(result.isSuccess());
+                    recordOutcome(email);
+                    return result;
+                });
+    }
+
+    /**
+     * 定时发送邮件：在 {@link Email#getSendAt()} 指定的时间交给发送队列。
+     * 定时邮件持久化保存，程序重启后仍会按时发送，重启期间已到期的邮件在客户端初始化后立即发送
+     * @param email 邮件对象，必须设置发送时间
+     * @return 定时邮件落盘后完成，结果为可用于取消的幂等键
+     */
+    public CompletableFuture<String> scheduleEmail(Email email) {
+        if (scheduler == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("定时发送不可用，请检查数据目录"));
+        }
+        if (email.getSendAt() == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("未设置定时发送时间"));
+        }
+        // 发件人在写入调度日志前检查，到期后才发现无效的邮件无法再通知调用方
+        try {
+            validateEmail(email.getFromEmail());
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        assignIdempotencyKey(email);
+        email.setStatus("SCHEDULED");
+        return scheduler.schedule(email).thenApply(ignored -> {
+            logger.info("邮件已定时于 {} 发送: {}", email.getSendAt(), email.getSubject());
+            return email.getIdempotencyKey();
+        });
+    }
 
-        validateEmail(fromEmail);
-        List<String> recipients = parseRecipients(to);
+    /**
+     * 取消尚未到期的定时邮件
+     * @param scheduleKey {@link #scheduleEmail} 返回的幂等键
+     * @return 是否取消成功，已到期或不存在时返回 false
+     */
+    public boolean cancelScheduledEmail(String scheduleKey) {
+        return scheduler != null && scheduler.cancel(scheduleKey);
+    }
 
-        SendEmailRequest.Builder requestBuilder = SendEmailRequest.builder()
-                .from(formatFrom(fromName, fromEmail))
-                .to(recipients)
-                .subject(subject)
-                .html(html);
+    /**
+     * 获取尚未发送完成的定时邮件数量
+     * @return 数量
+     */
+    public int getScheduledCount() {
+        return scheduler != null ? scheduler.getPendingCount() : 0;
+    }
 
-        // 如果有附件，添加到请求中
-        if (attachments != null && !attachments.isEmpty()) {
-            // 注意：Resend Java SDK可能不支持附件，这里只是示例代码
-            // 实际实现可能需要使用其他方式处理附件
-            logger.warn("当前版本不支持附件功能");
+    /**
+     * 异步发送多封邮件，使用默认执行器
+     * @param emails 邮件集合
+     * @return 批量发送句柄
+     */
+    public BulkSendHandle sendAllAsync(Collection<Email> emails) {
+        return sendAllAsync(emails, asyncExecutor);
+    }
+
+    /**
+     * 异步发送多封邮件。同时在途的邮件数量不超过 send.bulk.window，
+     * 前一封完成后再提交下一封，避免大批量发送时撑满有界队列。
+     * @param emails 邮件集合
+     * @param executor 执行发送的执行器
+     * @return 批量发送句柄，包含每封邮件的 Future 和汇总 Future
+     */
+    public BulkSendHandle sendAllAsync(Collection<Email> emails, Executor executor) {
+        List<Email> pending = new ArrayList<>(emails);
+        List<CompletableFuture<SendResult>> futures = new ArrayList<>(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            futures.add(new CompletableFuture<>());
         }
 
-        SendEmailRequest request = requestBuilder.build();
-        SendEmailResponse response = resend.emails().send(request);
+        AtomicInteger next = new AtomicInteger();
+        int window = Math.min(BULK_WINDOW, pending.size());
+        for (int i = 0; i < window; i++) {
+            sendNext(pending, futures, next, executor);
+        }
+        return new BulkSendHandle(futures);
+    }
 
-        // 保存邮件到历史记录
-        saveToHistory(fromName, fromEmail, recipients, subject, html, response.getId(), "SENT");
+    /**
+     * 取出下一封待发送邮件并提交，完成后继续提交后续邮件
+     */
+    private void sendNext(List<Email> pending, List<CompletableFuture<SendResult>> futures,
+                          AtomicInteger next, Executor executor) {
+        while (true) {
+            int index = next.getAndIncrement();
+            if (index >= pending.size()) {
+                return;
+            }
+            CompletableFuture<SendResult> future = sendEmailAsync(pending.get(index), executor);
+            // 立即完成（例如被拒绝）时直接循环，避免递归过深
+            if (future.isDone()) {
+                futures.get(index).complete(future.join());
+                continue;
+            }
+            future.thenAccept(result -> {
+                futures.get(index).complete(result);
+                sendNext(pending, futures, next, executor);
+            });
+            return;
+        }
+    }
+
+    /**
+     * 通过批量接口异步发送多封邮件，使用默认执行器
+     * @param emails 邮件集合
+     * @return 批量发送句柄，包含每封邮件的 Future 和汇总 Future
+     */
+    public BulkSendHandle sendAllBatchedAsync(Collection<Email> emails) {
+        return sendAllBatchedAsync(emails, asyncExecutor);
+    }
 
-        logger.info("邮件发送成功，ID: {}", response.getId());
-        EventBus.getDefault().post(new EmailSentEvent(createEmailModel(fromName, fromEmail, recipients, subject, html, response.getId(), "SENT"), true));
+    /**
+     * 通过批量接口异步发送多封邮件。邮件先按收件人域名分组再按 send.batch.size 分块，
+     * 每个分块只占用一次请求，分块失败时只拆分重试失败的部分。格式无效的邮件不会进入分块，直接以失败结束。
+     * 和 {@link #sendEmailAsync(Email, Executor)} 一样，每次尝试都先经过 {@link DomainDispatcher}，
+     * 按收件人域名限制并发和发送间隔；使用内置的发送调度器时，分块进入其中最高优先级对应的通道。
+     * @param emails 邮件集合
+     * @param executor 执行发送的执行器
+     * @return 批量发送句柄，包含每封邮件的 Future 和汇总 Future
+     */
+    public BulkSendHandle sendAllBatchedAsync(Collection<Email> emails, Executor executor) {
+        long submittedAt = System.nanoTime();
+        List<CompletableFuture<SendResult>> futures = new ArrayList<>(emails.size());
+        Map<Email, CompletableFuture<SendResult>> futureByEmail = new IdentityHashMap<>();
+        List<Email> valid = new ArrayList<>(emails.size());
 
-        return response.getId();
+        for (Email email : emails) {
+            if (!email.getAttachments().isEmpty()) {
+                // 批量接口不支持附件，逐封发送
+                futures.add(sendEmailAsync(email, executor));
+                continue;
+            }
+            CompletableFuture<SendResult> future = new CompletableFuture<>();
+            futures.add(future);
+            futureByEmail.put(email, future);
+            sendProgress.recordSubmitted();
+            future.thenAccept(result -> {
+                recordLatency(result);
+                sendProgress.recordResult(result.isSuccess());
+                recordOutcome(email);
+            });
+            assignIdempotencyKey(email);
+            try {
+                prepareForSend(email);
+                valid.add(email);
+            } catch (ResendException | IllegalArgumentException e) {
+                future.complete(markFailed(email, e, submittedAt));
+            }
+        }
+
+        // 同一分块只包含一个收件人域名，整块按该域名的并发数和发送间隔调度
+        Map<String, List<Email>> emailsByDomain = valid.stream()
+                .collect(Collectors.groupingBy(ResendServiceNew::recipientDomain, LinkedHashMap::new, Collectors.toList()));
+        int chunkCount = 0;
+        for (Map.Entry<String, List<Email>> group : emailsByDomain.entrySet()) {
+            for (List<Email> chunk : batchSender.partition(group.getValue())) {
+                submitChunk(group.getKey(), chunk, futureByEmail, executor, submittedAt);
+                chunkCount++;
+            }
+        }
+        logger.info("已提交批量发送: {} 封邮件，{} 个分块", valid.size(), chunkCount);
+        return new BulkSendHandle(futures);
     }
 
     /**
-     * 保存邮件草稿
+     * 提交一个分块。分块中所有邮件的发送意图落盘后才经过域名调度器交给执行器，
+     * 临时性错误时整块重试，已经拿到ID的邮件不会再次提交
+     * @param domain 分块的收件人域名
+     * @param chunk 分块
+     * @param futureByEmail 每封邮件对应的 Future
+     * @param executor 执行发送的执行器
+     * @param submittedAt 提交时间（纳秒）
+     */
+    private void submitChunk(String domain, List<Email> chunk, Map<Email, CompletableFuture<SendResult>> futureByEmail,
+                             Executor executor, long submittedAt) {
+        Executor laneExecutor = executor == dispatcher ? dispatcher.executor(highestPriority(chunk)) : executor;
+        CompletableFuture<?>[] intents = chunk.stream()
+                .map(this::recordIntent)
+                .toArray(CompletableFuture<?>[]::new);
+        CompletableFuture.allOf(intents).thenCompose(ignored -> retryExecutor.execute(() -> domainDispatcher.submit(domain, laneExecutor, () -> {
+            List<Email> remaining = chunk.stream()
+                    .filter(email -> !futureByEmail.get(email).isDone())
+                    .collect(Collectors.toList());
+            batchSender.sendChunk(remaining,
+                    (email, id) -> {
+                        markSent(email, id);
+                        futureByEmail.get(email).complete(SendResult.success(email, id, elapsedMillis(submittedAt)));
+                    },
+                    (email, error) -> {
+                        logger.error("邮件发送失败: {}", email.getSubject(), error);
+                        futureByEmail.get(email).complete(markFailed(email, error, submittedAt));
+                    });
+            return null;
+        }), "批量发送" + chunk.size() + "封邮件")).whenComplete((ignored, error) -> {
+            // 重试耗尽、分块被队列拒绝或执行中断时，未完成的邮件统一标记为失败
+            if (error != null) {
+                chunk.stream()
+                        .filter(email -> !futureByEmail.get(email).isDone())
+                        .forEach(email -> futureByEmail.get(email).complete(markFailed(email, error, submittedAt)));
+            }
+        });
+    }
+
+    /**
+     * 按收件人文件群发模板邮件。文件边读取边发送，同时在途的邮件数量不超过 send.bulk.window，
+     * 读取速度受发送速度约束，收件人列表不会整体加载到内存。
+     * 每个收件人的字段用于替换模板中的 {变量}，正文中的值按 HTML 转义，{!变量} 原样插入。
+     * @param template 邮件模板
+     * @param fromName 发件人名称
+     * @param fromEmail 发件人邮箱
+     * @param recipientsFile 收件人文件（CSV 或 JSONL）
+     * @return 群发任务句柄
+     * @throws IOException 文件无法打开或格式无效时抛出
+     */
+    public CampaignHandle sendCampaignAsync(EmailTemplate template, String fromName, String fromEmail, Path recipientsFile) throws IOException {
+        CompiledTemplate compiled = templateCompiler.compile(template);
+        RecipientReader reader = RecipientReader.open(recipientsFile, objectMapper);
+        CampaignHandle handle = new CampaignHandle(template.getName() + "@" + recipientsFile.getFileName());
+
+        Thread thread = new Thread(() -> runCampaign(compiled, fromName, fromEmail, reader, handle),
+                "campaign-" + recipientsFile.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        return handle;
+    }
+
+    /**
+     * 群发读取线程：读取一个收件人，获得发送窗口后提交，全部提交后等待在途邮件完成
+     */
+    private void runCampaign(CompiledTemplate compiled, String fromName, String fromEmail,
+                             RecipientReader reader, CampaignHandle handle) {
+        Semaphore window = new Semaphore(BULK_WINDOW);
+        logger.info("开始群发: {}", handle.getName());
+        try (reader) {
+            while (!handle.isCancelled() && reader.hasNext()) {
+                Recipient recipient = reader.next();
+                Email email = compiled.toEmail(fromName, fromEmail, recipient.getEmail(), recipient.getFields());
+                email.setPriority(EmailPriority.BULK);
+                window.acquire();
+                CompletableFuture<SendResult> future;
+                try {
+                    future = sendEmailAsync(email);
+                } catch (RuntimeException e) {
+                    window.release();
+                    throw e;
+                }
+                handle.recordSubmitted();
+                handle.recordHtmlBytesSaved(compiled.getHtmlBytesSaved());
+                MetricsService.counter("html.bytes.saved").add(compiled.getHtmlBytesSaved());
+                // 无论结果统计是否出错都归还许可，否则等待全部许可时会一直挂起
+                future.whenComplete((result, error) -> {
+                    try {
+                        if (result != null) {
+                            handle.recordResult(result);
+                        }
+                    } finally {
+                        window.release();
+                    }
+                });
+            }
+            handle.recordSkipped(reader.getSkippedCount());
+            // 取得全部许可即表示所有在途邮件都已完成
+            window.acquire(BULK_WINDOW);
+            logger.info("群发完成: {}", handle);
+            handle.complete();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handle.fail(e);
+        } catch (Exception e) {
+            logger.error("群发中止: {}", handle, e);
+            handle.fail(e);
+        }
+    }
+
+    /**
+     * 获取已发出的批量请求数量
+     * @return 请求数量
+     */
+    public long getBatchRequestCount() {
+        return batchSender.getRequestCount();
+    }
+
+    /**
+     * 为邮件分配幂等键，已有键时保持不变
      * @param email 邮件对象
      */
-    public void saveDraft(Email email) {
+    private static void assignIdempotencyKey(Email email) {
+        if (email.getIdempotencyKey() == null) {
+            email.setIdempotencyKey(UUID.randomUUID().toString());
+        }
+    }
+
+    /**
+     * 将邮件标记为发送失败
+     */
+    private SendResult markFailed(Email email, Throwable error, long submittedAt) {
+        error = RetryExecutor.unwrap(error);
+        email.setStatus("FAILED");
+        email.setErrorMessage(error.getMessage());
+        email.setSentAt(LocalDateTime.now());
+
+        // 失败的邮件也写入历史记录，可以按状态查询
+        saveToHistory(email);
+        return SendResult.failure(email, error, elapsedMillis(submittedAt));
+    }
+
+    /**
+     * 打开历史记录，失败时只记录日志，发送不受影响但本次运行的邮件不会保存到历史记录
+     * @return 历史记录存储，打开失败时为 null
+     */
+    private EmailHistoryStore openHistory() {
         try {
-            String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
-            String fileName = "draft_" + timestamp + ".json";
-            Path draftPath = Paths.get(HISTORY_DIR, fileName);
+            return EmailHistoryStore.fromConfig(historyDir, objectMapper);
+        } catch (IOException e) {
+            logger.error("打开历史记录失败，本次运行的邮件不会保存到历史记录", e);
+            return null;
+        }
+    }
 
-            objectMapper.writeValue(draftPath.toFile(), email);
-            logger.info("邮件草稿已保存: {}", fileName);
+    /**
+     * 打开发件箱，失败时只记录日志，发送不受影响但不再具备崩溃恢复能力
+     * @return 发件箱，打开失败时为 null
+     */
+    private SendOutbox openOutbox() {
+        long segmentBytes = Long.parseLong(ConfigService.get("outbox.segment.bytes", String.valueOf(8L * 1024 * 1024)));
+        int maxSealedSegments = Integer.parseInt(ConfigService.get("outbox.max.sealed.segments", "4"));
+        try {
+            return new SendOutbox(outboxDir, objectMapper, segmentBytes, maxSealedSegments);
         } catch (IOException e) {
-            logger.error("保存邮件草稿失败", e);
+            logger.error("打开发件箱失败，本次运行的发送不会持久化", e);
+            return null;
         }
     }
 
     /**
-     * 获取邮件历史记录
-     * @return 邮件历史记录列表
+     * 打开定时发送调度器，失败时只记录日志，定时发送不可用
+     * @return 调度器，打开失败时为 null
      */
-    public List<Email> getEmailHistory() {
-        List<Email> history = new ArrayList<>();
+    private SendScheduler openScheduler() {
+        long segmentBytes = Long.parseLong(ConfigService.get("schedule.segment.bytes", String.valueOf(8L * 1024 * 1024)));
+        int maxSealedSegments = Integer.parseInt(ConfigService.get("schedule.max.sealed.segments", "16"));
+        long tickMillis = Long.parseLong(ConfigService.get("schedule.tick.ms", "1000"));
+        int batchSize = Integer.parseInt(ConfigService.get("schedule.batch.size", "500"));
         try {
-            if (!Files.exists(Paths.get(HISTORY_DIR))) {
-                return history;
+            return new SendScheduler(scheduleDir, objectMapper, segmentBytes, maxSealedSegments,
+                    tickMillis, batchSize, this::sendDueEmails);
+        } catch (IOException e) {
+            logger.error("打开定时发送日志失败，定时发送不可用", e);
+            return null;
+        }
+    }
+
+    /**
+     * 把到期的定时邮件交给发送队列，发送结束后写入完成记录。
+     * 关闭过程中未能发出的邮件不写完成记录，下次启动时重新投递
+     * @param emails 到期的邮件
+     */
+    private void sendDueEmails(List<Email> emails) {
+        BulkSendHandle handle = sendAllAsync(emails);
+        for (int i = 0; i < emails.size(); i++) {
+            Email email = emails.get(i);
+            handle.getFutures().get(i).thenRun(() -> {
+                if (!closing || "SENT".equals(email.getStatus())) {
+                    scheduler.complete(email.getIdempotencyKey());
+                }
+            });
+        }
+    }
+
+    /**
+     * 把发送意图写入发件箱
+     * @param email 邮件对象
+     * @return 意图落盘后完成，未启用发件箱时立即完成
+     */
+    private CompletableFuture<Void> recordIntent(Email email) {
+        return outbox != null ? outbox.recordIntent(email) : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 把发送结果写入发件箱。关闭过程中未能发出的邮件不写结果，下次启动时继续发送
+     * @param email 邮件对象
+     */
+    private void recordOutcome(Email email) {
+        if (outbox != null && (!closing || "SENT".equals(email.getStatus()))) {
+            outbox.recordOutcome(email);
+        }
+    }
+
+    /**
+     * 客户端可用后继续发送上次运行中未完成的邮件并开始投递定时邮件，每次启动只执行一次
+     */
+    private void resumePendingSends() {
+        // 客户端可用后才开始投递定时邮件，避免到期的邮件因未设置API密钥而失败；
+        // 已经写入发件箱的定时邮件由发件箱重发，调度器不再投递
+        if (scheduler != null) {
+            scheduler.start(outbox != null ? outbox::isPending : key -> false);
+        }
+        if (outbox == null) {
+            return;
+        }
+        List<Email> recovered = outbox.drainRecovered();
+        if (!recovered.isEmpty()) {
+            logger.info("继续发送上次未完成的 {} 封邮件", recovered.size());
+            List<CompletableFuture<SendResult>> futures = sendAllAsync(recovered).getFutures();
+            for (int i = 0; i < recovered.size(); i++) {
+                resumedSends.put(recovered.get(i).getIdempotencyKey(), futures.get(i));
             }
+        }
+    }
 
-            Files.list(Paths.get(HISTORY_DIR))
-                .filter(path -> path.toString().endsWith(".json"))
-                .forEach(path -> {
-                    try {
-                        Email email = objectMapper.readValue(path.toFile(), Email.class);
-                        history.add(email);
-                    } catch (IOException e) {
-                        logger.error("读取邮件历史记录失败: " + path, e);
-                    }
-                });
+    /**
+     * 查找本次启动时由发件箱继续发送的邮件。重新提交上次运行中断的邮件之前先查询，
+     * 已由发件箱继续发送的邮件等待这次发送的结果即可，再次提交会产生重复邮件
+     * @param idempotencyKey 幂等键
+     * @return 发件箱继续发送的结果，不是由发件箱继续发送的邮件返回 null
+     */
+    public CompletableFuture<SendResult> findResumedSend(String idempotencyKey) {
+        return idempotencyKey != null ? resumedSends.get(idempotencyKey) : null;
+    }
+
+    /**
+     * 记录邮件从提交到完成的耗时，按优先级通道分别统计
+     * @param result 发送结果
+     */
+    private static void recordLatency(SendResult result) {
+        String lane = result.getEmail().getPriority().name().toLowerCase();
+        MetricsService.histogram("send.lane." + lane + ".latency").record(result.getLatencyMillis());
+    }
+
+    /**
+     * 获取一组邮件中最高的优先级
+     * @param emails 邮件列表
+     * @return 优先级
+     */
+    private static EmailPriority highestPriority(List<Email> emails) {
+        EmailPriority highest = EmailPriority.BULK;
+        for (Email email : emails) {
+            if (email.getPriority().compareTo(highest) < 0) {
+                highest = email.getPriority();
+            }
+        }
+        return highest;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 保存邮件草稿
+     * @param email 邮件对象
+     */
+    public void saveDraft(Email email) {
+        appendToHistory(email).whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.error("保存邮件草稿失败: {}", email.getSubject(), RetryExecutor.unwrap(error));
+            } else {
+                logger.info("邮件草稿已保存: {}", email.getSubject());
+            }
+        });
+    }
 
-            // 按时间倒序排列
-            history.sort((e1, e2) -> e2.getSentAt().compareTo(e1.getSentAt()));
+    /**
+     * 获取邮件历史记录
+     * @return 邮件历史记录列表，按发送时间倒序排列
+     */
+    public List<Email> getEmailHistory() {
+        EmailHistoryStore historyStore = historyStore();
+        if (historyStore == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return historyStore.readAll();
         } catch (IOException e) {
             logger.error("获取邮件历史记录失败", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * 分页获取邮件历史记录，只读取当页的记录
+     * @param offset 跳过的记录数
+     * @param limit 最多返回的记录数
+     * @param sort 排序方式
+     * @return 当页的邮件
+     */
+    public List<Email> getEmailHistory(long offset, int limit, HistorySort sort) {
+        EmailHistoryStore historyStore = historyStore();
+        if (historyStore == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return historyStore.readPage(offset, limit, sort);
+        } catch (IOException e) {
+            logger.error("分页获取邮件历史记录失败: offset={}, limit={}", offset, limit, e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * 读取历史记录中邮件的正文，历史记录列表只含元数据
+     * @param email 从历史记录读取的邮件
+     * @return 正文，没有正文时返回 null
+     * @throws UncheckedIOException 读取失败时抛出
+     */
+    public String loadEmailBody(Email email) {
+        EmailHistoryStore historyStore = historyStore();
+        if (historyStore == null) {
+            return email.getHtmlContent();
+        }
+        try {
+            return historyStore.readBody(email);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按收件人、状态和发送时间查询邮件历史记录，通过二级索引求交集，不扫描全部记录
+     * @param query 查询条件
+     * @param offset 跳过的记录数
+     * @param limit 最多返回的记录数
+     * @param sort 排序方式
+     * @return 当页的邮件，不含正文
+     */
+    public List<Email> queryEmailHistory(HistoryQuery query, long offset, int limit, HistorySort sort) {
+        EmailHistoryStore historyStore = historyStore();
+        if (historyStore == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return historyStore.query(query, offset, limit, sort);
+        } catch (IOException e) {
+            logger.error("查询邮件历史记录失败: {}", query, e);
+            return new ArrayList<>();
         }
-        return history;
+    }
+
+    /**
+     * 统计满足条件的邮件历史记录数量
+     * @param query 查询条件
+     * @return 记录数
+     */
+    public long countEmailHistory(HistoryQuery query) {
+        EmailHistoryStore historyStore = historyStore();
+        if (historyStore == null) {
+            return 0;
+        }
+        try {
+            return historyStore.count(query);
+        } catch (IOException e) {
+            logger.error("统计邮件历史记录失败: {}", query, e);
+            return 0;
+        }
+    }
+
+    /**
+     * 获取邮件历史记录总数
+     * @return 记录数
+     */
+    public long getEmailHistoryCount() {
+        EmailHistoryStore historyStore = historyStore();
+        return historyStore != null ? historyStore.size() : 0;
     }
 
     /**
      * 清空邮件历史记录
      */
     public void clearEmailHistory() {
+        EmailHistoryStore historyStore = historyStore();
+        if (historyStore == null) {
+            return;
+        }
         try {
-            if (Files.exists(Paths.get(HISTORY_DIR))) {
-                Files.list(Paths.get(HISTORY_DIR))
-                    .filter(path -> path.toString().endsWith(".json"))
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                        } catch (IOException e) {
-                            logger.error("删除邮件历史记录失败: " + path, e);
-                        }
-                    });
-                logger.info("邮件历史记录已清空");
-            }
+            historyStore.clear();
+            logger.info("邮件历史记录已清空");
         } catch (IOException e) {
             logger.error("清空邮件历史记录失败", e);
         }
@@ -210,7 +966,7 @@ public class ResendServiceNew {
     public void saveTemplate(EmailTemplate template) {
         try {
             String fileName = template.getId() + ".json";
-            Path templatePath = Paths.get(TEMPLATES_DIR, fileName);
+            Path templatePath = templatesDir.resolve(fileName);
 
             objectMapper.writeValue(templatePath.toFile(), template);
             logger.info("邮件模板已保存: {}", template.getName());
@@ -226,11 +982,11 @@ public class ResendServiceNew {
     public List<EmailTemplate> getTemplates() {
         List<EmailTemplate> templates = new ArrayList<>();
         try {
-            if (!Files.exists(Paths.get(TEMPLATES_DIR))) {
+            if (!Files.exists(templatesDir)) {
                 return templates;
             }
 
-            Files.list(Paths.get(TEMPLATES_DIR))
+            Files.list(templatesDir)
                 .filter(path -> path.toString().endsWith(".json"))
                 .forEach(path -> {
                     try {
@@ -246,13 +1002,23 @@ public class ResendServiceNew {
         return templates;
     }
 
+    /**
+     * 获取模板的编译结果，用于按收件人渲染个性化邮件。结果按模板ID和版本缓存
+     * @param template 邮件模板
+     * @return 编译后的模板
+     */
+    public CompiledTemplate compileTemplate(EmailTemplate template) {
+        return templateCompiler.compile(template);
+    }
+
     /**
      * 删除邮件模板
      * @param templateId 模板ID
      */
     public void deleteTemplate(String templateId) {
+        templateCompiler.invalidate(templateId);
         try {
-            Path templatePath = Paths.get(TEMPLATES_DIR, templateId + ".json");
+            Path templatePath = templatesDir.resolve(templateId + ".json");
             if (Files.exists(templatePath)) {
                 Files.delete(templatePath);
                 logger.info("邮件模板已删除: {}", templateId);
@@ -264,14 +1030,37 @@ public class ResendServiceNew {
 
     // ========== 私有方法 ==========
 
+    /**
+     * 登记发送链路的指标
+     */
+    private void registerMetrics() {
+        MetricsService.registerGauge("send.rate.current", rateLimiter::getCurrentRate);
+        MetricsService.registerGauge("send.rate.max", rateLimiter::getMaxRate);
+        MetricsService.registerGauge("send.queue.depth", dispatcher::getQueueDepth);
+        MetricsService.registerGauge("send.active", dispatcher::getActiveCount);
+        MetricsService.registerGauge("send.inflight", () -> sendProgress.snapshot().getInFlight());
+        MetricsService.registerGauge("attachment.cache.bytes", attachmentStore::getCachedBytes);
+        MetricsService.registerGauge("send.batch.requests", batchSender::getRequestCount);
+        MetricsService.registerGauge("send.domain.queued", domainDispatcher::getQueuedCount);
+        MetricsService.registerGauge("send.domain.active", domainDispatcher::getActiveDomainCount);
+        MetricsService.registerGauge("send.circuit.state", () -> circuitBreaker.getState().ordinal());
+        if (outbox != null) {
+            MetricsService.registerGauge("send.outbox.pending", outbox::getPendingCount);
+        }
+        if (scheduler != null) {
+            MetricsService.registerGauge("send.scheduled.pending", scheduler::getPendingCount);
+            MetricsService.registerGauge("send.scheduled.waiting", scheduler::getWaitingCount);
+        }
+    }
+
     /**
      * 确保必要的目录存在
      */
     private void ensureDirectoriesExist() {
         try {
-            Files.createDirectories(Paths.get(CONFIG_DIR));
-            Files.createDirectories(Paths.get(TEMPLATES_DIR));
-            Files.createDirectories(Paths.get(HISTORY_DIR));
+            Files.createDirectories(dataDir);
+            Files.createDirectories(templatesDir);
+            Files.createDirectories(historyDir);
         } catch (IOException e) {
             logger.error("创建目录失败", e);
         }
@@ -282,75 +1071,264 @@ public class ResendServiceNew {
      * @param to 收件人字符串，多个收件人用分号分隔
      * @return 收件人列表
      */
-    private List<String> parseRecipients(String to) {
+    static List<String> parseRecipients(String to) {
         return Arrays.stream(to.split(";"))
             .map(String::trim)
             .filter(s -> !s.isEmpty())
             .collect(Collectors.toList());
     }
 
+    /**
+     * 获取邮件第一个收件人的域名（小写），用于按域名限流。
+     * 收件人跨多个域名时以第一个为准
+     * @param email 邮件对象
+     * @return 域名，没有有效收件人时返回空字符串
+     */
+    static String recipientDomain(Email email) {
+        List<String> recipients = parseRecipients(String.join(";", email.getRecipients()));
+        if (recipients.isEmpty()) {
+            return "";
+        }
+        String address = recipients.get(0);
+        int at = address.lastIndexOf('@');
+        if (at < 0) {
+            return "";
+        }
+        String domain = address.substring(at + 1);
+        // 兼容 "名称 <user@example.com>" 形式
+        if (domain.endsWith(">")) {
+            domain = domain.substring(0, domain.length() - 1);
+        }
+        return domain.trim().toLowerCase(Locale.ROOT);
+    }
+
     /**
      * 构建发件人字符串
      * @param name 发件人名称
      * @param email 发件人邮箱
      * @return 格式化后的发件人字符串
      */
-    private String formatFrom(String name, String email) {
+    static String formatFrom(String name, String email) {
         return String.format("%s <%s>", name.trim(), email.trim());
     }
 
     /**
      * 验证邮箱格式
      * @param email 邮箱地址
-     * @throws IllegalArgumentException 如果邮箱格式无效
+     * @throws IllegalArgumentException 如果邮箱为空或格式无效
      */
-    private void validateEmail(String email) {
-        if (!email.matches("^[\w-.]+@([\w-]+\.)+[\w-]{2,4}$")) {
+    static void validateEmail(String email) {
+        if (email == null || email.trim().isEmpty()) {
+            throw new IllegalArgumentException("发件人邮箱不能为空");
+        }
+        if (!email.matches("^[\\w-.]+@([\\w-]+\\.)+[\\w-]{2,4}$")) {
             throw new IllegalArgumentException("邮箱格式无效: " + email);
         }
     }
 
     /**
-     * 创建邮件模型对象
-     * @param fromName 发件人名称
-     * @param fromEmail 发件人邮箱
-     * @param to 收件人列表
-     * @param subject 邮件主题
-     * @param html 邮件内容
-     * @param id 邮件ID
-     * @param status 邮件状态
-     * @return 邮件模型对象
-     */
-    private Email createEmailModel(String fromName, String fromEmail, List<String> to, String subject, String html, String id, String status) {
-        Email email = new Email(fromName, fromEmail, to, subject, html);
-        email.setId(id);
-        email.setStatus(status);
+     * 更换传输层并关闭旧的传输层
+     * @param newTransport 新的传输层，可以为 null
+     * @param apiKey 新传输层使用的API密钥，可以为 null
+     */
+    private synchronized void replaceTransport(MailTransport newTransport, String apiKey) {
+        String fingerprint = apiKey != null ? ApiKeyVerifier.fingerprint(apiKey) : null;
+        if (!Objects.equals(fingerprint, transportKeyFingerprint)) {
+            // 密钥轮换后旧密钥可能已被吊销，新密钥也可能刚刚生效
+            apiKeyVerifier.invalidateAll();
+        }
+        MailTransport old = transport;
+        transport = newTransport;
+        transportKeyFingerprint = fingerprint;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * 向Resend发出验证请求。验证当前使用的密钥时复用已初始化的传输层，
+     * 其他密钥按 mail.transport 和接口地址创建同类的临时传输层验证，验证结束后关闭。
+     * HTTP 传输层共享同一个 HttpClient，不会为验证建立新的连接池
+     * @param apiKey API密钥
+     * @throws ResendException 密钥无效或请求失败时抛出
+     */
+    private void probeApiKey(String apiKey) throws ResendException {
+        MailTransport current;
+        synchronized (this) {
+            current = ApiKeyVerifier.fingerprint(apiKey).equals(transportKeyFingerprint) ? transport : null;
+        }
+        if (current != null) {
+            current.verifyApiKey();
+            return;
+        }
+        try (MailTransport probe = MailTransport.create(apiKey, baseUrl, null)) {
+            probe.verifyApiKey();
+        }
+    }
+
+    /**
+     * 获取已初始化的传输层
+     * @return 传输层
+     * @throws ResendException 未设置API密钥时抛出
+     */
+    private MailTransport requireClient() throws ResendException {
+        MailTransport client = transport;
+        if (client == null) {
+            throw new ResendException("API密钥未设置，无法发送邮件");
+        }
+        return client;
+    }
+
+    /**
+     * 经过熔断器和限流器调用Resend接口，并根据结果调整发送速率和熔断器统计。
+     * 熔断器打开时不发出请求，直接抛出 {@link CircuitOpenException}；
+     * 限流器暂时没有令牌时同样不发出请求，抛出 {@link SendThrottledException}
+     * @param call 接口调用
+     * @param priority 调用所属的优先级，事务邮件优先获得令牌
+     * @param <T> 返回值类型
+     * @return 接口返回值
+     * @throws ResendException 调用失败、熔断器打开或暂时没有令牌
+     */
+    private <T> T callRateLimited(ResendCall<T> call, EmailPriority priority) throws ResendException {
+        if (!circuitBreaker.tryAcquire()) {
+            MetricsService.increment("send.circuit.rejected");
+            throw new CircuitOpenException(circuitBreaker.getRemainingOpenMillis(), PARK_WHILE_OPEN);
+        }
+        long waitMillis = rateLimiter.tryAcquire(priority == EmailPriority.TRANSACTIONAL);
+        if (waitMillis > 0) {
+            // 不在发送线程上等待令牌，由重试执行器在有令牌时重新提交
+            circuitBreaker.onIgnored();
+            MetricsService.increment("send.rate.deferred");
+            throw new SendThrottledException(waitMillis);
+        }
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            circuitBreaker.onSuccess(System.nanoTime() - start);
+            rateLimiter.onSuccess();
+            return result;
+        } catch (ResendException | RuntimeException e) {
+            long duration = System.nanoTime() - start;
+            if (SendErrors.isRateLimited(e)) {
+                // 限流由限流器处理，不计入熔断统计
+                circuitBreaker.onIgnored();
+                MetricsService.increment("send.rate.throttled");
+                rateLimiter.onThrottled(SendErrors.retryAfterMillis(e));
+            } else if (SendErrors.isRetryable(e)) {
+                circuitBreaker.onFailure(duration);
+            } else {
+                // 参数错误等说明服务端正常处理了请求
+                circuitBreaker.onSuccess(duration);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 发送前检查发件人、规范化收件人、优化 HTML 正文，并检查附件大小。
+     * 正文只优化一次，重试时不再处理；模板生成的邮件在编译模板时已经优化。
+     * 附件在这里完成编码并进入缓存，超出单封邮件大小限制时以 IllegalArgumentException 失败，不会重试
+     * @param email 邮件对象
+     * @throws ResendException 未设置API密钥或读取附件失败时抛出
+     */
+    private void prepareForSend(Email email) throws ResendException {
+        requireClient();
+        validateEmail(email.getFromEmail());
+        // 界面传入的收件人可能带有空格或空项
+        email.setRecipients(parseRecipients(String.join(";", email.getRecipients())));
+        if (!email.isHtmlOptimized()) {
+            String html = email.getHtmlContent();
+            String optimized = htmlOptimizer.optimize(html);
+            if (optimized != html) {
+                MetricsService.counter("html.bytes.saved").add(
+                        Math.max(0, HtmlOptimizer.utf8Length(html) - HtmlOptimizer.utf8Length(optimized)));
+                email.setHtmlContent(optimized);
+            }
+            email.setHtmlOptimized(true);
+        }
+        if (!email.getAttachments().isEmpty()) {
+            try {
+                attachmentStore.resolve(email);
+            } catch (IOException e) {
+                throw new ResendException("读取附件失败: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 通过批量接口发送一个分块
+     * @param chunk 邮件分块
+     * @return 与分块顺序一致的邮件ID
+     * @throws ResendException 请求失败时抛出
+     */
+    private List<String> sendBatchRequest(List<Email> chunk) throws ResendException {
+        // 批量请求的幂等键由成员的幂等键派生，同一组邮件重试时保持不变
+        String batchKey = UUID.nameUUIDFromBytes(chunk.stream()
+                .map(Email::getIdempotencyKey)
+                .collect(Collectors.joining(","))
+                .getBytes(StandardCharsets.UTF_8)).toString();
+        List<String> froms = chunk.stream()
+                .map(email -> formatFrom(email.getFromName(), email.getFromEmail()))
+                .collect(Collectors.toList());
+        MailTransport client = requireClient();
+        return callRateLimited(() -> client.sendBatch(chunk, froms, batchKey), highestPriority(chunk));
+    }
+
+    /**
+     * 记录发送成功：回写邮件ID、状态和发送时间，保存历史并发布事件
+     * @param email 邮件对象
+     * @param emailId 邮件ID
+     */
+    private void markSent(Email email, String emailId) {
+        email.setId(emailId);
+        email.setStatus("SENT");
         email.setSentAt(LocalDateTime.now());
-        return email;
+
+        // 保存邮件到历史记录
+        saveToHistory(email);
+
+        logger.info("邮件发送成功，ID: {}", emailId);
+        EventBus.getDefault().post(new EmailSentEvent(email, true));
     }
 
     /**
      * 保存邮件到历史记录
-     * @param fromName 发件人名称
-     * @param fromEmail 发件人邮箱
-     * @param to 收件人列表
-     * @param subject 邮件主题
-     * @param html 邮件内容
-     * @param emailId 邮件ID
-     * @param status 邮件状态
+     * @param email 邮件对象
      */
-    private void saveToHistory(String fromName, String fromEmail, List<String> to, String subject, String html, String emailId, String status) {
-        Email email = createEmailModel(fromName, fromEmail, to, subject, html, emailId, status);
+    private void saveToHistory(Email email) {
+        // 不等待落盘，写入线程按批次 fsync，关闭服务时等待已提交的记录写完
+        appendToHistory(email).whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.error("保存邮件到历史记录失败: {}", email.getId(), RetryExecutor.unwrap(error));
+            }
+        });
+    }
 
+    /**
+     * 通过历史记录线程追加一封邮件。历史记录打开之前提交的邮件在打开后按提交顺序写入
+     * @param email 邮件对象
+     * @return 记录落盘后完成，历史记录不可用时以 IOException 失败
+     */
+    private CompletableFuture<Void> appendToHistory(Email email) {
         try {
-            String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
-            String fileName = "email_" + timestamp + ".json";
-            Path emailPath = Paths.get(HISTORY_DIR, fileName);
-
-            objectMapper.writeValue(emailPath.toFile(), email);
-            logger.info("邮件已保存到历史记录: {}", fileName);
-        } catch (IOException e) {
-            logger.error("保存邮件到历史记录失败", e);
+            return CompletableFuture.supplyAsync(() -> {
+                EmailHistoryStore store = history.join();
+                if (store == null) {
+                    throw new CompletionException(new IOException("历史记录不可用"));
+                }
+                return store.append(email);
+            }, historyExecutor).thenCompose(written -> written);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IOException("邮件服务已关闭，历史记录未保存", e));
         }
     }
+
+    /**
+     * 可能抛出 ResendException 的接口调用
+     * @param <T> 返回值类型
+     */
+    @FunctionalInterface
+    private interface ResendCall<T> {
+        T call() throws ResendException;
+    }
 }
@@ -0,0 +1,164 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 重试执行器。失败后的退避等待由单独的调度线程计时，
+ * 到期后再重新提交任务，等待期间不占用发送工作线程。
+ * 关闭时尚未到期的重试以 {@link CancellationException} 结束，调用方等待的 Future 不会悬空。
+ */
+public class RetryExecutor {
+    private static final Logger logger = LogManager.getLogger(RetryExecutor.class);
+
+    private final RetryPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    // 等待重新提交的尝试的结果，关闭时统一结束
+    private final Set<CompletableFuture<?>> waiting = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
+
+    /**
+     * 构造函数
+     *
+     * @param policy 重试策略
+     */
+    public RetryExecutor(RetryPolicy policy) {
+        this.policy = policy;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "send-retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 执行异步操作，失败且可重试时按策略退避后再次执行
+     *
+     * @param attempt 每次调用发起一次尝试的操作
+     * @param description 用于日志的操作描述
+     * @param <T> 结果类型
+     * @return 最后一次尝试的结果
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt, String description) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        runAttempt(attempt, description, 1, result);
+        return result;
+    }
+
+    /**
+     * 在调度线程上延迟执行任务
+     *
+     * @param task 任务
+     * @param delayMillis 延迟毫秒数
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止调度线程，尚未到期的重试不再执行，它们的结果以 {@link CancellationException} 结束
+     */
+    public void shutdown() {
+        shutdown = true;
+        scheduler.shutdownNow();
+        int cancelled = 0;
+        for (CompletableFuture<?> result : waiting) {
+            if (result.completeExceptionally(new CancellationException("邮件服务已关闭，重试已取消"))) {
+                cancelled++;
+            }
+        }
+        waiting.clear();
+        if (cancelled > 0) {
+            logger.info("已取消 {} 个等待中的重试", cancelled);
+        }
+    }
+
+    private <T> void runAttempt(Supplier<CompletableFuture<T>> attempt, String description,
+                                int attemptNumber, CompletableFuture<T> result) {
+        CompletableFuture<T> future;
+        try {
+            future = attempt.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(error);
+            // 熔断器打开时请求没有真正发出，等待恢复期间不消耗尝试次数
+            if (cause instanceof CircuitOpenException && ((CircuitOpenException) cause).isParked()) {
+                long delay = ((CircuitOpenException) cause).getRetryAfterMillis() + ThreadLocalRandom.current().nextLong(1000);
+                MetricsService.increment("send.retry.parked");
+                logger.debug("{} 等待熔断器恢复，{} 毫秒后重新提交", description, delay);
+                reschedule(attempt, description, attemptNumber, result, cause, delay);
+                return;
+            }
+            // 本地限流器没有令牌时请求同样没有发出，到有令牌时重新提交，不消耗尝试次数
+            if (cause instanceof SendThrottledException) {
+                long wait = ((SendThrottledException) cause).getRetryAfterMillis();
+                // 同时等待的请求错开重新提交，避免同一时刻争抢令牌
+                long delay = wait + ThreadLocalRandom.current().nextLong(Math.max(1, wait / 2) + 1);
+                reschedule(attempt, description, attemptNumber, result, cause, delay);
+                return;
+            }
+            if (!policy.shouldRetry(cause, attemptNumber)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            long delay = policy.backoffMillis(cause, attemptNumber);
+            MetricsService.increment("send.retry.scheduled");
+            logger.warn("{} 第 {} 次尝试失败，{} 毫秒后重试: {}", description, attemptNumber, delay, cause.getMessage());
+            reschedule(attempt, description, attemptNumber + 1, result, cause, delay);
+        });
+    }
+
+    private <T> void reschedule(Supplier<CompletableFuture<T>> attempt, String description, int attemptNumber,
+                                CompletableFuture<T> result, Throwable cause, long delay) {
+        waiting.add(result);
+        try {
+            schedule(() -> {
+                waiting.remove(result);
+                runAttempt(attempt, description, attemptNumber, result);
+            }, delay);
+        } catch (RejectedExecutionException e) {
+            waiting.remove(result);
+            result.completeExceptionally(cause);
+            return;
+        }
+        // 与 shutdown 并发时，登记可能晚于 shutdown 的清理
+        if (shutdown && waiting.remove(result)) {
+            result.completeExceptionally(new CancellationException("邮件服务已关闭，重试已取消"));
+        }
+    }
+
+    /**
+     * 去掉 CompletableFuture 包装的异常，得到真正的失败原因
+     *
+     * @param error 异常
+     * @return 原始异常
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
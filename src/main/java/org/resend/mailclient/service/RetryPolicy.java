@@ -0,0 +1,77 @@
+package org.resend.mailclient.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * 重试策略：最大尝试次数、带全抖动的指数退避以及可重试错误的判定
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Predicate<Throwable> retryable;
+
+    /**
+     * 构造函数
+     *
+     * @param maxAttempts 最大尝试次数（包含第一次）
+     * @param baseDelayMillis 第一次重试的退避上限（毫秒）
+     * @param maxDelayMillis 单次退避的最大值（毫秒）
+     * @param retryable 判断错误是否值得重试
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Predicate<Throwable> retryable) {
+        if (maxAttempts < 1 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("重试策略配置无效");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryable = retryable;
+    }
+
+    /**
+     * 根据配置文件创建重试策略，使用 {@link SendErrors#isRetryable} 判定错误
+     *
+     * @return 重试策略
+     */
+    public static RetryPolicy fromConfig() {
+        int maxAttempts = Integer.parseInt(ConfigService.get("send.retry.max.attempts", "5"));
+        long baseDelay = Long.parseLong(ConfigService.get("send.retry.base.delay.ms", "500"));
+        long maxDelay = Long.parseLong(ConfigService.get("send.retry.max.delay.ms", "30000"));
+        return new RetryPolicy(maxAttempts, baseDelay, maxDelay, SendErrors::isRetryable);
+    }
+
+    /**
+     * 判断失败后是否应该继续重试
+     *
+     * @param error 本次失败的原因
+     * @param attempt 已经尝试的次数
+     * @return 是否重试
+     */
+    public boolean shouldRetry(Throwable error, int attempt) {
+        return attempt < maxAttempts && retryable.test(error);
+    }
+
+    /**
+     * 计算下一次重试前的等待时间。
+     * 采用全抖动：在 [0, min(最大值, 基础值 * 2^(attempt-1))] 中均匀取值，
+     * 服务端给出 Retry-After 时不会早于该时间。
+     *
+     * @param error 本次失败的原因
+     * @param attempt 已经尝试的次数
+     * @return 等待的毫秒数
+     */
+    public long backoffMillis(Throwable error, int attempt) {
+        long ceiling = baseDelayMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(delay, SendErrors.retryAfterMillis(error));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,169 @@
+package org.resend.mailclient.service;
+
+import com.resend.Resend;
+import com.resend.core.exception.ResendException;
+import com.resend.services.batch.model.BatchEmail;
+import com.resend.services.batch.model.CreateBatchEmailsResponse;
+import com.resend.services.emails.model.Attachment;
+import com.resend.services.emails.model.CreateEmailOptions;
+import com.resend.services.emails.model.CreateEmailResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 基于 Resend SDK 的传输层，连接方式和超时由 SDK 决定。
+ * SDK 的附件内容只接受字符串，编码结果由 {@link AttachmentStore} 按内容哈希缓存在内存中。
+ * <p>
+ * resend-java 3.1.0 不支持自定义请求头，幂等键不会发送给 Resend，
+ * 重试和崩溃恢复可能产生重复邮件；需要幂等保证时使用 HTTP 传输层（mail.transport=http，默认）。
+ */
+public class SdkMailTransport implements MailTransport {
+    private static final Logger logger = LogManager.getLogger(SdkMailTransport.class);
+    private static final AtomicBoolean IDEMPOTENCY_WARNED = new AtomicBoolean();
+
+    private final Resend resend;
+    private final AttachmentStore attachments;
+
+    /**
+     * 构造函数，创建的传输层不能发送带附件的邮件
+     *
+     * @param apiKey API密钥
+     */
+    public SdkMailTransport(String apiKey) {
+        this(apiKey, null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param apiKey API密钥
+     * @param attachments 附件编码缓存，为 null 时不支持附件
+     */
+    public SdkMailTransport(String apiKey, AttachmentStore attachments) {
+        this.resend = new Resend(apiKey);
+        this.attachments = attachments;
+        if (IDEMPOTENCY_WARNED.compareAndSet(false, true)) {
+            logger.warn("SDK 传输层不发送幂等键，重试和崩溃恢复可能产生重复邮件，建议使用 mail.transport=http");
+        }
+    }
+
+    @Override
+    public String send(Email email, String from, String idempotencyKey) throws ResendException {
+        CreateEmailOptions.Builder builder = newRequest(email, from);
+        if (!email.getAttachments().isEmpty()) {
+            builder.attachments(toSdkAttachments(email));
+        }
+        CreateEmailOptions request = builder.build();
+        try {
+            CreateEmailResponse response = resend.emails().send(request);
+            return response.getId();
+        } catch (ResendException | RuntimeException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public List<String> sendBatch(List<Email> emails, List<String> froms, String idempotencyKey) throws ResendException {
+        List<CreateEmailOptions> requests = new ArrayList<>(emails.size());
+        for (int i = 0; i < emails.size(); i++) {
+            requests.add(buildRequest(emails.get(i), froms.get(i)));
+        }
+        try {
+            CreateBatchEmailsResponse response = resend.batch().send(requests);
+            return response.getData().stream()
+                    .map(BatchEmail::getId)
+                    .collect(Collectors.toList());
+        } catch (ResendException | RuntimeException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public void verifyApiKey() throws ResendException {
+        // 能列出API密钥说明密钥有效，与 HTTP 传输层使用同一个接口
+        try {
+            resend.apiKeys().list();
+        } catch (ResendException | RuntimeException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "sdk";
+    }
+
+    private List<Attachment> toSdkAttachments(Email email) throws ResendException {
+        if (attachments == null) {
+            throw new IllegalArgumentException("当前传输层不支持附件");
+        }
+        try {
+            List<Attachment> result = new ArrayList<>();
+            for (AttachmentStore.EncodedAttachment encoded : attachments.resolve(email)) {
+                result.add(Attachment.builder()
+                        .fileName(encoded.getFilename())
+                        .content(attachments.readContent(encoded))
+                        .build());
+            }
+            return result;
+        } catch (IOException e) {
+            throw new ResendException("读取附件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把 SDK 的异常转换为传输层异常：网络错误保留 IOException 作为原因，
+     * 非 2xx 响应转换为带状态码的 {@link MailTransportException}
+     */
+    private static ResendException translate(Exception e) {
+        if (e.getCause() instanceof IOException) {
+            return new ResendException("请求 Resend 接口失败: " + e.getCause().getMessage(), e.getCause());
+        }
+        int status = sdkStatusCode(e.getMessage());
+        if (status != 0) {
+            return new MailTransportException(e.getMessage(), status, 0);
+        }
+        return e instanceof ResendException ? (ResendException) e : new ResendException(e.getMessage(), e);
+    }
+
+    /**
+     * SDK 不公开响应状态码，只在固定格式的异常信息 "Failed to &lt;操作&gt;: &lt;状态码&gt; &lt;响应体&gt;" 中给出
+     *
+     * @param message SDK 的异常信息
+     * @return 状态码，不是这种格式时返回 0
+     */
+    static int sdkStatusCode(String message) {
+        if (message == null || !message.startsWith("Failed to ")) {
+            return 0;
+        }
+        int start = message.indexOf(": ");
+        if (start < 0) {
+            return 0;
+        }
+        start += 2;
+        int end = start;
+        while (end < message.length() && Character.isDigit(message.charAt(end))) {
+            end++;
+        }
+        return end - start == 3 ? Integer.parseInt(message.substring(start, end)) : 0;
+    }
+
+    private static CreateEmailOptions buildRequest(Email email, String from) {
+        return newRequest(email, from).build();
+    }
+
+    private static CreateEmailOptions.Builder newRequest(Email email, String from) {
+        return CreateEmailOptions.builder()
+                .from(from)
+                .to(email.getRecipients())
+                .subject(email.getSubject())
+                .html(email.getHtmlContent());
+    }
+}
@@ -0,0 +1,568 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 分段追加日志。
+ * 每条记录的格式为 [长度 int][CRC32 int][内容]，写满一个分段后滚动到新文件。
+ * 写入由单独的线程完成，同一批次的记录只调用一次 fsync（组提交），
+ * 返回的 Future 在记录落盘后才完成。需要按写入顺序维护派生数据（例如索引）时使用 {@link WriteListener}。
+ */
+public class SegmentedLog implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(SegmentedLog.class);
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * 记录在日志中的位置
+     */
+    public static final class Position {
+        private final long segmentId;
+        private final long offset;
+
+        public Position(long segmentId, long offset) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+        }
+
+        public long getSegmentId() {
+            return segmentId;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return segmentId + ":" + offset;
+        }
+    }
+
+    /**
+     * 回放日志时的记录处理器
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(Position position, byte[] payload) throws IOException;
+    }
+
+    /**
+     * 写入监听器，在写入线程上持有日志的锁调用，调用顺序与记录在日志中的顺序一致
+     */
+    public interface WriteListener {
+        /**
+         * 一批记录落盘后、对应的 Future 完成前调用
+         *
+         * @param positions 记录位置
+         * @param payloads 与位置一一对应的记录内容
+         * @throws IOException 处理失败时抛出，只记录日志，不影响记录本身
+         */
+        void written(List<Position> positions, List<byte[]> payloads) throws IOException;
+
+        /**
+         * 所有分段被 {@link #truncateAll()} 删除后调用
+         *
+         * @throws IOException 处理失败时抛出
+         */
+        default void truncated() throws IOException {
+        }
+    }
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxSegmentBytes;
+    private final BlockingQueue<PendingWrite> writeQueue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+
+    private volatile WriteListener writeListener;
+    private final Map<Long, FileChannel> readChannels = new ConcurrentHashMap<>();
+    private FileChannel activeChannel;
+    private long activeSegmentId;
+    private long activeSize;
+    private volatile boolean closed;
+
+    /**
+     * 打开日志，目录中最后一个分段作为活动分段继续追加。
+     * 活动分段末尾不完整的记录（写入过程中崩溃）会被截断。
+     *
+     * @param directory 日志目录
+     * @param prefix 分段文件名前缀
+     * @param maxSegmentBytes 单个分段的最大字节数
+     * @throws IOException 打开失败时抛出
+     */
+    public SegmentedLog(Path directory, String prefix, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxSegmentBytes = maxSegmentBytes;
+        Files.createDirectories(directory);
+
+        List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            openSegment(1);
+        } else {
+            long last = segments.get(segments.size() - 1);
+            long validLength = scanSegment(last, null);
+            openSegment(last);
+            if (activeChannel.size() > validLength) {
+                logger.warn("日志分段 {} 末尾存在不完整的记录，截断到 {} 字节", segmentPath(last), validLength);
+                activeChannel.truncate(validLength);
+                activeChannel.force(true);
+            }
+            activeSize = validLength;
+        }
+
+        writerThread = new Thread(this::runWriter, "log-writer-" + prefix);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 追加一条记录。超过 64 MB 的记录直接失败：回放时无法读取，打开时会从它开始截断分段
+     *
+     * @param payload 记录内容
+     * @return 记录落盘后完成，结果为记录位置
+     */
+    public CompletableFuture<Position> append(byte[] payload) {
+        PendingWrite write = new PendingWrite(payload);
+        if (payload.length > MAX_RECORD_SIZE) {
+            write.future.completeExceptionally(new IOException(
+                    "记录大小 " + payload.length + " 字节超过上限 " + MAX_RECORD_SIZE + " 字节: " + directory));
+            return write.future;
+        }
+        if (closed) {
+            write.future.completeExceptionally(new IOException("日志已关闭: " + directory));
+            return write.future;
+        }
+        writeQueue.add(write);
+        // 与 close 并发时写入线程可能已经退出，仍在队列中的记录不会再被写入
+        if (closed && writeQueue.remove(write)) {
+            write.future.completeExceptionally(new IOException("日志已关闭: " + directory));
+        }
+        return write.future;
+    }
+
+    /**
+     * 设置写入监听器
+     *
+     * @param listener 监听器，为 null 时移除
+     */
+    public synchronized void setWriteListener(WriteListener listener) {
+        this.writeListener = listener;
+    }
+
+    /**
+     * 按顺序回放所有分段中的记录
+     *
+     * @param visitor 记录处理器
+     * @throws IOException 读取失败时抛出
+     */
+    public void replay(RecordVisitor visitor) throws IOException {
+        for (long segmentId : listSegments()) {
+            scanSegment(segmentId, visitor);
+        }
+    }
+
+    /**
+     * 回放单个分段中的记录
+     *
+     * @param segmentId 分段编号
+     * @param visitor 记录处理器
+     * @throws IOException 读取失败时抛出
+     */
+    public void replaySegment(long segmentId, RecordVisitor visitor) throws IOException {
+        scanSegment(segmentId, visitor);
+    }
+
+    /**
+     * 从指定位置开始按顺序回放记录，包括该位置上的记录
+     *
+     * @param start 起始位置
+     * @param visitor 记录处理器
+     * @throws IOException 读取失败时抛出
+     */
+    public void replayFrom(Position start, RecordVisitor visitor) throws IOException {
+        for (long segmentId : listSegments()) {
+            if (segmentId >= start.getSegmentId()) {
+                scanSegment(segmentId, segmentId == start.getSegmentId() ? start.getOffset() : 0, visitor);
+            }
+        }
+    }
+
+    /**
+     * 读取指定位置的记录
+     *
+     * @param position 记录位置
+     * @return 记录内容
+     * @throws IOException 读取失败或记录损坏时抛出
+     */
+    public byte[] read(Position position) throws IOException {
+        FileChannel channel = readChannel(position.getSegmentId());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, position.getOffset());
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length < 0 || length > MAX_RECORD_SIZE) {
+            throw new IOException("记录长度无效: " + position);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, position.getOffset() + HEADER_SIZE);
+        if (crc(payload.array()) != checksum) {
+            throw new IOException("记录校验失败: " + position);
+        }
+        return payload.array();
+    }
+
+    /**
+     * 获取分段的读取通道，每个分段只打开一次，多个线程通过定位读取共用
+     *
+     * @param segmentId 分段编号
+     * @return 读取通道
+     * @throws IOException 打开失败时抛出
+     */
+    private FileChannel readChannel(long segmentId) throws IOException {
+        FileChannel channel = readChannels.get(segmentId);
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        synchronized (readChannels) {
+            channel = readChannels.get(segmentId);
+            // 读取线程被中断时通道会被关闭，重新打开
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.READ);
+                readChannels.put(segmentId, channel);
+            }
+            return channel;
+        }
+    }
+
+    private void closeReadChannel(long segmentId) {
+        FileChannel channel = readChannels.remove(segmentId);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("关闭日志分段读取通道失败", e);
+            }
+        }
+    }
+
+    /**
+     * 获取所有分段编号，按从旧到新排序
+     *
+     * @return 分段编号列表
+     * @throws IOException 列目录失败时抛出
+     */
+    public List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length()))
+                    .filter(id -> id.chars().allMatch(Character::isDigit) && !id.isEmpty())
+                    .map(Long::parseLong)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * 获取当前正在写入的分段编号
+     *
+     * @return 活动分段编号
+     */
+    public synchronized long getActiveSegmentId() {
+        return activeSegmentId;
+    }
+
+    /**
+     * 删除已封存的分段，活动分段不能删除
+     *
+     * @param segmentId 分段编号
+     * @throws IOException 删除失败时抛出
+     */
+    public synchronized void deleteSegment(long segmentId) throws IOException {
+        if (segmentId == activeSegmentId) {
+            throw new IllegalArgumentException("不能删除正在写入的分段: " + segmentId);
+        }
+        closeReadChannel(segmentId);
+        Files.deleteIfExists(segmentPath(segmentId));
+        logger.debug("已删除日志分段: {}", segmentPath(segmentId));
+    }
+
+    /**
+     * 删除所有分段并从新的空分段重新开始
+     *
+     * @throws IOException 删除失败时抛出
+     */
+    public synchronized void truncateAll() throws IOException {
+        long nextId = activeSegmentId + 1;
+        activeChannel.close();
+        for (long segmentId : listSegments()) {
+            closeReadChannel(segmentId);
+            Files.deleteIfExists(segmentPath(segmentId));
+        }
+        openSegment(nextId);
+        if (writeListener != null) {
+            writeListener.truncated();
+        }
+    }
+
+    /**
+     * 关闭日志，等待已提交的记录写完
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingWrite> leftover = new ArrayList<>();
+        writeQueue.drainTo(leftover);
+        leftover.forEach(write -> write.future.completeExceptionally(new IOException("日志已关闭: " + directory)));
+        synchronized (this) {
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                logger.error("关闭日志分段失败", e);
+            }
+            new ArrayList<>(readChannels.keySet()).forEach(this::closeReadChannel);
+        }
+    }
+
+    /**
+     * 写入线程：取出当前所有待写记录，批量写入后统一 fsync
+     */
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (true) {
+            PendingWrite first;
+            try {
+                first = writeQueue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            writeQueue.drainTo(batch);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 写入一批记录。滚动到新分段前先 fsync 旧分段，之前的记录随即完成；
+     * 写入失败时截断活动分段中尚未完成的记录，之后的写入不会接在残缺的记录后面
+     */
+    private synchronized void writeBatch(List<PendingWrite> batch) {
+        List<Position> positions = new ArrayList<>(batch.size());
+        int committed = 0;
+        long committedSize = activeSize;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                PendingWrite write = batch.get(i);
+                int recordSize = HEADER_SIZE + write.payload.length;
+                if (activeSize > 0 && activeSize + recordSize > maxSegmentBytes) {
+                    activeChannel.force(false);
+                    complete(batch.subList(committed, i), positions.subList(committed, i));
+                    committed = i;
+                    activeChannel.close();
+                    openSegment(activeSegmentId + 1);
+                    committedSize = activeSize;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(recordSize);
+                buffer.putInt(write.payload.length);
+                buffer.putInt(crc(write.payload));
+                buffer.put(write.payload);
+                buffer.flip();
+                positions.add(new Position(activeSegmentId, activeSize));
+                while (buffer.hasRemaining()) {
+                    activeChannel.write(buffer);
+                }
+                activeSize += recordSize;
+            }
+            activeChannel.force(false);
+            complete(batch.subList(committed, batch.size()), positions.subList(committed, positions.size()));
+        } catch (IOException e) {
+            logger.error("写入日志失败: {}", directory, e);
+            batch.subList(committed, batch.size()).forEach(write -> write.future.completeExceptionally(e));
+            discardUncommitted(committedSize);
+        }
+    }
+
+    private void complete(List<PendingWrite> writes, List<Position> positions) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        notifyListener(writes, positions);
+        for (int i = 0; i < writes.size(); i++) {
+            writes.get(i).future.complete(positions.get(i));
+        }
+    }
+
+    /**
+     * 丢弃活动分段中写入失败的记录。无法截断时改为写入新分段，
+     * 残缺的记录留在旧分段末尾，回放时会在那里停止扫描该分段
+     *
+     * @param committedSize 活动分段中已完成记录的长度
+     */
+    private void discardUncommitted(long committedSize) {
+        try {
+            activeChannel.truncate(committedSize);
+            activeSize = committedSize;
+        } catch (IOException e) {
+            logger.error("截断日志分段失败，改为写入新分段: {}", segmentPath(activeSegmentId), e);
+            try {
+                activeChannel.close();
+            } catch (IOException closeError) {
+                logger.debug("关闭日志分段失败", closeError);
+            }
+            try {
+                openSegment(activeSegmentId + 1);
+            } catch (IOException openError) {
+                logger.error("创建日志分段失败: {}", directory, openError);
+            }
+        }
+    }
+
+    private void notifyListener(List<PendingWrite> batch, List<Position> positions) {
+        WriteListener listener = writeListener;
+        if (listener == null) {
+            return;
+        }
+        List<byte[]> payloads = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            payloads.add(write.payload);
+        }
+        try {
+            listener.written(positions, payloads);
+        } catch (IOException | RuntimeException e) {
+            logger.error("日志写入监听器处理失败: {}", directory, e);
+        }
+    }
+
+    private void openSegment(long segmentId) throws IOException {
+        Path path = segmentPath(segmentId);
+        boolean created = !Files.exists(path);
+        activeSegmentId = segmentId;
+        activeChannel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeSize = activeChannel.size();
+        if (created) {
+            // 新分段的目录项也要落盘，否则崩溃后分段文件可能连同已 fsync 的记录一起消失
+            syncDirectory();
+        }
+    }
+
+    /**
+     * fsync 日志目录。部分平台（例如 Windows）不能打开目录，此时跳过
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("无法同步日志目录: {}", directory, e);
+        }
+    }
+
+    /**
+     * 顺序扫描分段中的记录
+     *
+     * @return 最后一条完整记录之后的偏移量
+     */
+    private long scanSegment(long segmentId, RecordVisitor visitor) throws IOException {
+        return scanSegment(segmentId, 0, visitor);
+    }
+
+    private long scanSegment(long segmentId, long startOffset, RecordVisitor visitor) throws IOException {
+        Path path = segmentPath(segmentId);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset = startOffset;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (offset + HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, offset);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length < 0 || length > MAX_RECORD_SIZE || offset + HEADER_SIZE + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, offset + HEADER_SIZE);
+                if (crc(payload.array()) != checksum) {
+                    break;
+                }
+                if (visitor != null) {
+                    visitor.visit(new Position(segmentId, offset), payload.array());
+                }
+                offset += HEADER_SIZE + length;
+            }
+            return offset;
+        }
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve(String.format("%s%016d%s", prefix, segmentId, SEGMENT_SUFFIX));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("读取日志时遇到文件结尾");
+            }
+            current += read;
+        }
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * 等待写入的记录
+     */
+    private static final class PendingWrite {
+        private final byte[] payload;
+        private final CompletableFuture<Position> future = new CompletableFuture<>();
+
+        private PendingWrite(byte[] payload) {
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,583 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.EmailPriority;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 邮件发送调度器，使用有界队列和固定数量的工作线程执行发送任务。
+ * 任务按 {@link EmailPriority} 分为事务、普通、批量三条通道，每条通道有独立的有界队列：
+ * <ul>
+ *     <li>通用工作线程按通道权重做平滑加权轮询，批量通道积压时其他通道仍按权重获得执行机会</li>
+ *     <li>一部分工作线程只处理事务通道，事务邮件不会因为所有线程都在发送群发邮件而排队</li>
+ *     <li>每条通道登记队列深度和排队耗时指标：send.lane.&lt;通道&gt;.depth、send.lane.&lt;通道&gt;.wait</li>
+ * </ul>
+ * 运行在 Java 21 及以上版本时工作线程默认使用虚拟线程。
+ */
+public class SendDispatcher implements Executor {
+    private static final Logger logger = LogManager.getLogger(SendDispatcher.class);
+    private static final long POLL_INTERVAL_MILLIS = 200;
+    // 按线程名识别 JavaFX 线程，服务层不依赖 JavaFX，命令行模式下也不会初始化工具包
+    private static final String FX_THREAD_NAME = "JavaFX Application Thread";
+
+    /**
+     * 队列已满时的拒绝策略
+     */
+    public enum RejectionPolicy {
+        /** 直接拒绝，返回的 Future 以 RejectedExecutionException 失败 */
+        ABORT,
+        /** 在提交线程中直接执行；提交线程是 JavaFX 线程时改为直接拒绝，不在界面线程上发送邮件 */
+        CALLER_RUNS,
+        /** 阻塞提交线程，直到队列有空位或等待超时 */
+        BLOCK
+    }
+
+    /**
+     * 通过 {@link #execute} 或 {@link #executor} 提交、自己维护结果的任务。
+     * 关闭超时时尚未执行的任务会收到 {@link #reject} 回调，调用方据此结束自己的 Future
+     */
+    public interface RejectableTask extends Runnable {
+        /**
+         * 任务不会再被执行
+         *
+         * @param reason 原因
+         */
+        void reject(Exception reason);
+    }
+
+    private final Lane[] lanes;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 任意通道有任务时唤醒通用工作线程
+    private final Condition taskAvailable = lock.newCondition();
+    // 事务通道有任务时唤醒预留的工作线程
+    private final Condition transactionalAvailable = lock.newCondition();
+    private final List<Thread> workers = new ArrayList<>();
+    private final RejectionPolicy rejectionPolicy;
+    private final long blockTimeoutMillis;
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    /**
+     * 构造函数，所有通道权重相同且没有预留线程
+     *
+     * @param workerCount 工作线程数量
+     * @param queueCapacity 每条通道的等待队列容量
+     * @param rejectionPolicy 队列已满时的拒绝策略
+     * @param blockTimeoutMillis BLOCK 策略下的最长等待时间（毫秒）
+     * @param useVirtualThreads 是否尽量使用虚拟线程
+     */
+    public SendDispatcher(int workerCount, int queueCapacity, RejectionPolicy rejectionPolicy,
+                          long blockTimeoutMillis, boolean useVirtualThreads) {
+        this(workerCount, 0, queueCapacity, new int[]{1, 1, 1}, rejectionPolicy, blockTimeoutMillis, useVirtualThreads);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param workerCount 工作线程总数
+     * @param reservedWorkers 其中只处理事务通道的线程数量，必须小于总数
+     * @param queueCapacity 每条通道的等待队列容量
+     * @param weights 各通道的调度权重，按 {@link EmailPriority} 的顺序排列
+     * @param rejectionPolicy 队列已满时的拒绝策略
+     * @param blockTimeoutMillis BLOCK 策略下的最长等待时间（毫秒）
+     * @param useVirtualThreads 是否尽量使用虚拟线程
+     */
+    public SendDispatcher(int workerCount, int reservedWorkers, int queueCapacity, int[] weights,
+                          RejectionPolicy rejectionPolicy, long blockTimeoutMillis, boolean useVirtualThreads) {
+        EmailPriority[] priorities = EmailPriority.values();
+        if (workerCount <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("工作线程数量和队列容量必须大于0");
+        }
+        if (reservedWorkers < 0 || reservedWorkers >= workerCount) {
+            throw new IllegalArgumentException("预留线程数量必须小于工作线程总数");
+        }
+        if (weights.length != priorities.length || Arrays.stream(weights).anyMatch(weight -> weight <= 0)) {
+            throw new IllegalArgumentException("每条通道的权重必须大于0");
+        }
+        this.lanes = new Lane[priorities.length];
+        for (EmailPriority priority : priorities) {
+            lanes[priority.ordinal()] = new Lane(priority, queueCapacity, weights[priority.ordinal()], lock.newCondition());
+        }
+        this.rejectionPolicy = rejectionPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+
+        ThreadFactory threadFactory = useVirtualThreads ? virtualThreadFactory() : null;
+        for (int i = 0; i < workerCount; i++) {
+            boolean reserved = i < reservedWorkers;
+            Runnable loop = () -> runWorker(reserved);
+            Thread worker;
+            if (threadFactory != null) {
+                worker = threadFactory.newThread(loop);
+            } else {
+                worker = new Thread(loop, (reserved ? "send-worker-tx-" : "send-worker-") + i);
+                worker.setDaemon(true);
+            }
+            workers.add(worker);
+            worker.start();
+        }
+        for (Lane lane : lanes) {
+            MetricsService.registerGauge("send.lane." + lane.metricName + ".depth", lane::size);
+        }
+        logger.info("发送调度器已启动，工作线程: {} ({}，事务预留 {}), 每条通道队列容量: {}, 通道权重: {}, 拒绝策略: {}",
+                workerCount, threadFactory != null ? "虚拟线程" : "平台线程", reservedWorkers, queueCapacity,
+                Arrays.toString(weights), rejectionPolicy);
+    }
+
+    /**
+     * 根据配置文件创建调度器
+     *
+     * @return 发送调度器
+     */
+    public static SendDispatcher fromConfig() {
+        boolean useVirtualThreads = Boolean.parseBoolean(ConfigService.get("send.virtual.threads", "true"))
+                && isVirtualThreadSupported();
+        int defaultWorkers = useVirtualThreads ? 64 : Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        int workerCount = Integer.parseInt(ConfigService.get("send.workers", String.valueOf(defaultWorkers)));
+        int reservedWorkers = Integer.parseInt(ConfigService.get("send.lane.transactional.reserved.workers",
+                String.valueOf(Math.max(1, workerCount / 8))));
+        int queueCapacity = Integer.parseInt(ConfigService.get("send.queue.capacity", "1000"));
+        int[] weights = {
+                Integer.parseInt(ConfigService.get("send.lane.transactional.weight", "8")),
+                Integer.parseInt(ConfigService.get("send.lane.normal.weight", "3")),
+                Integer.parseInt(ConfigService.get("send.lane.bulk.weight", "1"))
+        };
+        RejectionPolicy policy = RejectionPolicy.valueOf(ConfigService.get("send.queue.rejection", "ABORT").toUpperCase());
+        long blockTimeout = Long.parseLong(ConfigService.get("send.queue.block.timeout.ms", "5000"));
+        return new SendDispatcher(workerCount, Math.min(reservedWorkers, workerCount - 1), queueCapacity, weights,
+                policy, blockTimeout, useVirtualThreads);
+    }
+
+    /**
+     * 提交任务到普通通道
+     *
+     * @param task 要执行的任务
+     * @param <T> 任务结果类型
+     * @return 任务结果，队列已满且策略为拒绝时以 RejectedExecutionException 失败
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return submit(EmailPriority.NORMAL, task);
+    }
+
+    /**
+     * 提交任务到指定通道
+     *
+     * @param priority 通道
+     * @param task 要执行的任务
+     * @param <T> 任务结果类型
+     * @return 任务结果，队列已满且策略为拒绝时以 RejectedExecutionException 失败
+     */
+    public <T> CompletableFuture<T> submit(EmailPriority priority, Callable<T> task) {
+        Task<T> wrapped = new Task<>(task);
+        try {
+            enqueue(lane(priority), wrapped);
+        } catch (RejectedExecutionException e) {
+            wrapped.future.completeExceptionally(e);
+        }
+        return wrapped.future;
+    }
+
+    /**
+     * 以 Executor 方式提交任务到普通通道，便于与 CompletableFuture 组合使用。
+     * 关闭超时时未执行的任务被丢弃，实现 {@link RejectableTask} 的任务会收到拒绝回调
+     *
+     * @param command 要执行的任务
+     * @throws RejectedExecutionException 队列已满或调度器已关闭时抛出
+     */
+    @Override
+    public void execute(Runnable command) {
+        enqueue(lane(EmailPriority.NORMAL), Task.of(command));
+    }
+
+    /**
+     * 获取把任务提交到指定通道的 Executor
+     *
+     * @param priority 通道
+     * @return 执行器
+     */
+    public Executor executor(EmailPriority priority) {
+        Lane lane = lane(priority);
+        return command -> enqueue(lane, Task.of(command));
+    }
+
+    /**
+     * 按拒绝策略将任务放入通道队列
+     *
+     * @param lane 通道
+     * @param task 任务
+     * @throws RejectedExecutionException 任务未被接收时抛出
+     */
+    private void enqueue(Lane lane, Task<?> task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("发送调度器已关闭");
+        }
+
+        boolean accepted;
+        lock.lock();
+        try {
+            accepted = lane.offer(task);
+            if (!accepted && rejectionPolicy == RejectionPolicy.BLOCK) {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                try {
+                    while (!accepted && remaining > 0 && !shutdown) {
+                        remaining = lane.notFull.awaitNanos(remaining);
+                        accepted = lane.offer(task);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (accepted) {
+                task.enqueuedAt = System.nanoTime();
+                if (lane.priority == EmailPriority.TRANSACTIONAL) {
+                    transactionalAvailable.signal();
+                }
+                taskAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!accepted && rejectionPolicy == RejectionPolicy.CALLER_RUNS && !shutdown && !isFxThread()) {
+            logger.debug("{}通道队列已满，在提交线程中执行任务", lane.metricName);
+            task.run();
+            return;
+        }
+        if (!accepted) {
+            logger.warn("{}通道队列已满（{}），任务被拒绝", lane.metricName, lane.size());
+            throw new RejectedExecutionException("发送队列已满，请稍后重试");
+        }
+    }
+
+    /**
+     * 判断当前线程是否为 JavaFX 界面线程
+     *
+     * @return 是否为界面线程
+     */
+    private static boolean isFxThread() {
+        return FX_THREAD_NAME.equals(Thread.currentThread().getName());
+    }
+
+    /**
+     * 获取所有通道中等待的任务数量
+     *
+     * @return 队列深度
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.size();
+        }
+        return depth;
+    }
+
+    /**
+     * 获取指定通道中等待的任务数量
+     *
+     * @param priority 通道
+     * @return 队列深度
+     */
+    public int getQueueDepth(EmailPriority priority) {
+        return lane(priority).size();
+    }
+
+    /**
+     * 获取正在执行的任务数量
+     *
+     * @return 活动任务数
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * 关闭调度器：不再接收新任务，等待队列中的任务执行完毕。
+     * 超时后中断工作线程，剩余任务以 CancellationException 结束，{@link RejectableTask} 同时收到拒绝回调。
+     *
+     * @param timeout 最长等待时间
+     * @return 是否在超时前处理完所有任务
+     */
+    public boolean shutdown(Duration timeout) {
+        shutdown = true;
+        // 唤醒 BLOCK 策略下等待空位的提交线程，它们会看到调度器已关闭并拒绝任务
+        lock.lock();
+        try {
+            for (Lane lane : lanes) {
+                lane.notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean drained = true;
+        for (Thread worker : workers) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try {
+                if (remaining > 0) {
+                    worker.join(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (worker.isAlive()) {
+                drained = false;
+            }
+        }
+
+        if (!drained) {
+            workers.forEach(Thread::interrupt);
+            List<Task<?>> pending = new ArrayList<>();
+            lock.lock();
+            try {
+                for (Lane lane : lanes) {
+                    lane.drainTo(pending);
+                }
+            } finally {
+                lock.unlock();
+            }
+            pending.forEach(task -> task.cancel(new CancellationException("发送调度器已关闭")));
+            logger.warn("发送调度器关闭超时，已取消 {} 个未执行的任务", pending.size());
+        } else {
+            logger.info("发送调度器已关闭，所有任务已处理完毕");
+        }
+        return drained;
+    }
+
+    /**
+     * 工作线程主循环
+     *
+     * @param reserved 是否为事务通道预留的线程
+     */
+    private void runWorker(boolean reserved) {
+        while (true) {
+            Task<?> task;
+            try {
+                task = reserved ? takeTransactional() : takeNext();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                if (shutdown && getQueueDepth() == 0) {
+                    return;
+                }
+                continue;
+            }
+            activeCount.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                activeCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 预留线程取任务：只取事务通道
+     *
+     * @return 任务，等待超时时返回 null
+     */
+    private Task<?> takeTransactional() throws InterruptedException {
+        Lane lane = lanes[EmailPriority.TRANSACTIONAL.ordinal()];
+        lock.lock();
+        try {
+            if (lane.isEmpty()) {
+                transactionalAvailable.await(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return lane.isEmpty() ? null : lane.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 通用线程取任务：平滑加权轮询。每次为所有非空通道加上各自的权重，
+     * 选出累计值最大的通道，再从它的累计值中减去本轮参与通道的权重之和
+     *
+     * @return 任务，等待超时时返回 null
+     */
+    private Task<?> takeNext() throws InterruptedException {
+        lock.lock();
+        try {
+            if (getQueueDepth() == 0) {
+                taskAvailable.await(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            Lane selected = null;
+            int totalWeight = 0;
+            for (Lane lane : lanes) {
+                if (lane.isEmpty()) {
+                    continue;
+                }
+                lane.currentWeight += lane.weight;
+                totalWeight += lane.weight;
+                if (selected == null || lane.currentWeight > selected.currentWeight) {
+                    selected = lane;
+                }
+            }
+            if (selected == null) {
+                return null;
+            }
+            selected.currentWeight -= totalWeight;
+            return selected.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Lane lane(EmailPriority priority) {
+        return lanes[(priority != null ? priority : EmailPriority.NORMAL).ordinal()];
+    }
+
+    /**
+     * 判断当前运行时是否支持虚拟线程
+     *
+     * @return 是否支持
+     */
+    static boolean isVirtualThreadSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * 通过反射创建虚拟线程工厂，编译目标仍为 Java 17
+     *
+     * @return 虚拟线程工厂，不支持时返回 null
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        if (!isVirtualThreadSupported()) {
+            return null;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "send-worker-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("无法创建虚拟线程，改用平台线程", e);
+            return null;
+        }
+    }
+
+    /**
+     * 队列中的任务，执行结果写入对应的 Future
+     */
+    private static final class Task<T> implements Runnable {
+        private final Callable<T> callable;
+        // 通过 Executor 方式提交的原始任务，关闭时需要通知
+        private final Runnable command;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private long enqueuedAt;
+
+        private Task(Callable<T> callable) {
+            this(callable, null);
+        }
+
+        private Task(Callable<T> callable, Runnable command) {
+            this.callable = callable;
+            this.command = command;
+        }
+
+        static Task<Object> of(Runnable command) {
+            return new Task<>(Executors.callable(command), command);
+        }
+
+        /**
+         * 不再执行任务，结束 Future 并通知可拒绝的原始任务
+         */
+        void cancel(CancellationException reason) {
+            if (!future.completeExceptionally(reason) || !(command instanceof RejectableTask)) {
+                return;
+            }
+            try {
+                ((RejectableTask) command).reject(reason);
+            } catch (RuntimeException e) {
+                logger.error("通知任务被拒绝时出错", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(callable.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 一条优先级通道：有界队列、调度权重和排队耗时统计，除 size 外只能在持有锁时访问
+     */
+    private static final class Lane {
+        private final EmailPriority priority;
+        private final String metricName;
+        private final ArrayDeque<Task<?>> queue;
+        private final int capacity;
+        private final int weight;
+        private final Condition notFull;
+        private final LatencyHistogram waitTime;
+        private volatile int size;
+        private int currentWeight;
+
+        private Lane(EmailPriority priority, int capacity, int weight, Condition notFull) {
+            this.priority = priority;
+            this.metricName = priority.name().toLowerCase();
+            this.queue = new ArrayDeque<>(Math.min(capacity, 1024));
+            this.capacity = capacity;
+            this.weight = weight;
+            this.notFull = notFull;
+            this.waitTime = MetricsService.histogram("send.lane." + metricName + ".wait");
+        }
+
+        private boolean offer(Task<?> task) {
+            if (queue.size() >= capacity) {
+                return false;
+            }
+            queue.addLast(task);
+            size = queue.size();
+            return true;
+        }
+
+        private Task<?> poll() {
+            Task<?> task = queue.pollFirst();
+            size = queue.size();
+            notFull.signal();
+            waitTime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.enqueuedAt));
+            return task;
+        }
+
+        private void drainTo(List<Task<?>> target) {
+            target.addAll(queue);
+            queue.clear();
+            size = 0;
+            notFull.signalAll();
+        }
+
+        private boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
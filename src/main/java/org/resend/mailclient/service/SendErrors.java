@@ -0,0 +1,118 @@
+package org.resend.mailclient.service;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 发送错误分析工具，根据传输层给出的 HTTP 状态码和异常类型识别限流、服务端错误等信号
+ */
+public final class SendErrors {
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_UNPROCESSABLE_ENTITY = 422;
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+    private SendErrors() {
+    }
+
+    /**
+     * 获取异常链中传输层记录的 HTTP 状态码
+     *
+     * @param error 异常
+     * @return 状态码，请求没有得到响应时返回 0
+     */
+    public static int statusCode(Throwable error) {
+        MailTransportException transportError = findTransportError(error);
+        return transportError != null ? transportError.getStatusCode() : 0;
+    }
+
+    /**
+     * 判断异常是否表示触发了服务端限流（HTTP 429）
+     *
+     * @param error 异常
+     * @return 是否被限流
+     */
+    public static boolean isRateLimited(Throwable error) {
+        return statusCode(error) == STATUS_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * 获取服务端通过 Retry-After 要求的等待时间
+     *
+     * @param error 异常
+     * @return 建议等待的毫秒数，没有时返回 0
+     */
+    public static long retryAfterMillis(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof CircuitOpenException) {
+                return ((CircuitOpenException) e).getRetryAfterMillis();
+            }
+            if (e instanceof MailTransportException) {
+                return ((MailTransportException) e).getRetryAfterMillis();
+            }
+            if (e instanceof SendThrottledException) {
+                return ((SendThrottledException) e).getRetryAfterMillis();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 判断错误是否为临时性错误，重试有可能成功。
+     * 限流（429）、5xx、网络异常、超时和队列已满视为可重试；参数错误和其他 4xx 视为不可重试。
+     * 熔断器打开时，只有设置为排队等待的调用可重试；本地限流器暂时没有令牌时总是可重试。
+     *
+     * @param error 异常
+     * @return 是否可重试
+     */
+    public static boolean isRetryable(Throwable error) {
+        if (error instanceof IllegalArgumentException) {
+            return false;
+        }
+        if (error instanceof CircuitOpenException) {
+            return ((CircuitOpenException) error).isParked();
+        }
+        if (error instanceof SendThrottledException) {
+            return true;
+        }
+        int status = statusCode(error);
+        if (status != 0) {
+            return status == STATUS_TOO_MANY_REQUESTS || status >= 500;
+        }
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof IOException || e instanceof TimeoutException || e instanceof RejectedExecutionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断错误是否为参数校验错误（400、422 或本地校验失败），这类错误通常只与请求中的个别邮件有关。
+     * 认证失败、发件域名未验证、账户额度用尽等错误与邮件内容无关，不属于此类
+     *
+     * @param error 异常
+     * @return 是否为参数校验错误
+     */
+    public static boolean isValidationError(Throwable error) {
+        int status = statusCode(error);
+        if (status != 0) {
+            return status == STATUS_BAD_REQUEST || status == STATUS_UNPROCESSABLE_ENTITY;
+        }
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof IllegalArgumentException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MailTransportException findTransportError(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof MailTransportException) {
+                return (MailTransportException) e;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,279 @@
+package org.resend.mailclient.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 持久化发件箱（预写日志）。
+ * 邮件发送前先写入发送意图并落盘，发送结束后写入结果；
+ * 程序崩溃重启后，没有结果记录的意图会被重新发送（幂等键保证不重复）。
+ * 分段中的意图全部有结果后分段会被删除，封存分段过多时把最旧分段中
+ * 仍未完成的意图复制到新分段，保证日志大小有界。
+ */
+public class SendOutbox implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(SendOutbox.class);
+    private static final byte TYPE_INTENT = 'I';
+    private static final byte TYPE_OUTCOME = 'O';
+    /** 意图已提交但尚未落盘时占位的分段编号 */
+    private static final long UNASSIGNED = -1L;
+
+    private final SegmentedLog log;
+    private final ObjectMapper objectMapper;
+    private final int maxSealedSegments;
+    private final Map<String, Long> pendingSegmentByKey = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> pendingCountBySegment = new ConcurrentHashMap<>();
+    private final List<Email> recovered = new ArrayList<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "outbox-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 已有一次压缩等待执行时，新的结果不再排队，由那一次压缩一并处理
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+
+    /**
+     * 打开发件箱并回放日志，找出上次运行时未完成的发送
+     *
+     * @param directory 发件箱目录
+     * @param objectMapper 序列化邮件使用的 ObjectMapper
+     * @param segmentBytes 单个分段的最大字节数
+     * @param maxSealedSegments 允许保留的封存分段数量
+     * @throws IOException 打开或回放失败时抛出
+     */
+    public SendOutbox(Path directory, ObjectMapper objectMapper, long segmentBytes, int maxSealedSegments) throws IOException {
+        this.log = new SegmentedLog(directory, "outbox-", segmentBytes);
+        this.objectMapper = objectMapper;
+        this.maxSealedSegments = maxSealedSegments;
+        recover();
+    }
+
+    /**
+     * 获取上次运行时已记录意图但没有结果的邮件
+     *
+     * @return 待重新发送的邮件，按原提交顺序排列
+     */
+    public synchronized List<Email> drainRecovered() {
+        List<Email> emails = new ArrayList<>(recovered);
+        recovered.clear();
+        return emails;
+    }
+
+    /**
+     * 写入发送意图，落盘后 Future 才完成。同一幂等键已有未完成的意图时直接返回。
+     *
+     * @param email 邮件对象，必须已分配幂等键
+     * @return 意图落盘后完成
+     */
+    public CompletableFuture<Void> recordIntent(Email email) {
+        String key = email.getIdempotencyKey();
+        if (pendingSegmentByKey.putIfAbsent(key, UNASSIGNED) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        byte[] payload;
+        try {
+            payload = encode(TYPE_INTENT, objectMapper.writeValueAsBytes(email));
+        } catch (IOException e) {
+            pendingSegmentByKey.remove(key);
+            return CompletableFuture.failedFuture(e);
+        }
+        return log.append(payload)
+                .whenComplete((position, error) -> {
+                    if (error != null) {
+                        pendingSegmentByKey.remove(key);
+                    }
+                })
+                .thenAccept(position -> track(key, position.getSegmentId()));
+    }
+
+    /**
+     * 写入发送结果，对应的意图不再需要在重启后重发
+     *
+     * @param email 邮件对象
+     */
+    public void recordOutcome(Email email) {
+        String key = email.getIdempotencyKey();
+        Long segmentId = key != null ? pendingSegmentByKey.get(key) : null;
+        if (segmentId == null) {
+            return;
+        }
+        String outcome = key + "\n" + email.getStatus();
+        log.append(encode(TYPE_OUTCOME, outcome.getBytes(StandardCharsets.UTF_8)))
+                .thenRun(() -> {
+                    untrack(key);
+                    scheduleCompaction();
+                })
+                .exceptionally(e -> {
+                    logger.error("写入发送结果失败: {}", key, e);
+                    return null;
+                });
+    }
+
+    /**
+     * 判断幂等键是否有尚未完成的发送意图，包括上次运行时留下、将由 {@link #drainRecovered()} 重发的意图
+     *
+     * @param key 幂等键
+     * @return 是否未完成
+     */
+    public boolean isPending(String key) {
+        return key != null && pendingSegmentByKey.containsKey(key);
+    }
+
+    /**
+     * 获取尚未完成的发送意图数量
+     *
+     * @return 未完成数量
+     */
+    public int getPendingCount() {
+        return pendingSegmentByKey.size();
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        log.close();
+    }
+
+    /**
+     * 回放日志，重建未完成意图的索引
+     */
+    private void recover() throws IOException {
+        Map<String, Email> intents = new LinkedHashMap<>();
+        Map<String, Long> segments = new LinkedHashMap<>();
+        log.replay((position, payload) -> {
+            byte[] body = Arrays.copyOfRange(payload, 1, payload.length);
+            if (payload[0] == TYPE_INTENT) {
+                Email email = objectMapper.readValue(body, Email.class);
+                intents.put(email.getIdempotencyKey(), email);
+                segments.put(email.getIdempotencyKey(), position.getSegmentId());
+            } else if (payload[0] == TYPE_OUTCOME) {
+                String key = new String(body, StandardCharsets.UTF_8).split("\n", 2)[0];
+                intents.remove(key);
+                segments.remove(key);
+            }
+        });
+
+        segments.forEach(this::track);
+        recovered.addAll(intents.values());
+        if (!recovered.isEmpty()) {
+            logger.warn("发件箱中有 {} 封邮件在上次运行时未完成发送", recovered.size());
+        }
+        compact();
+    }
+
+    /**
+     * 压缩日志：从最旧的封存分段开始，删除没有未完成意图的分段；
+     * 封存分段超过上限时，把最旧分段中的未完成意图复制到活动分段后删除。
+     * 只删除最旧的连续分段，保证结果记录不会早于对应的意图被删除。
+     */
+    private synchronized void compact() {
+        try {
+            List<Long> segments = log.listSegments();
+            long active = log.getActiveSegmentId();
+            int sealed = (int) segments.stream().filter(id -> id != active).count();
+            for (long segmentId : segments) {
+                if (segmentId == active) {
+                    break;
+                }
+                AtomicInteger pending = pendingCountBySegment.get(segmentId);
+                if (pending != null && pending.get() > 0) {
+                    if (sealed <= maxSealedSegments) {
+                        break;
+                    }
+                    rewritePending(segmentId);
+                }
+                log.deleteSegment(segmentId);
+                pendingCountBySegment.remove(segmentId);
+                sealed--;
+            }
+        } catch (IOException e) {
+            logger.error("压缩发件箱失败", e);
+        }
+    }
+
+    /**
+     * 在后台压缩日志，合并尚未开始的压缩请求
+     */
+    private void scheduleCompaction() {
+        if (!compactionQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactor.execute(() -> {
+                // 先清除标记，压缩期间写入的结果会再排一次压缩
+                compactionQueued.set(false);
+                compact();
+            });
+        } catch (RejectedExecutionException e) {
+            // 发件箱已关闭，下次打开时压缩
+            compactionQueued.set(false);
+        }
+    }
+
+    /**
+     * 把分段中仍未完成的意图重新追加到活动分段
+     */
+    private void rewritePending(long segmentId) throws IOException {
+        List<CompletableFuture<Void>> copies = new ArrayList<>();
+        log.replaySegment(segmentId, (position, payload) -> {
+            if (payload[0] != TYPE_INTENT) {
+                return;
+            }
+            Email email = objectMapper.readValue(Arrays.copyOfRange(payload, 1, payload.length), Email.class);
+            String key = email.getIdempotencyKey();
+            Long current = pendingSegmentByKey.get(key);
+            if (current != null && current == segmentId) {
+                copies.add(log.append(payload).thenAccept(newPosition -> {
+                    if (pendingSegmentByKey.replace(key, segmentId, newPosition.getSegmentId())) {
+                        pendingCountBySegment.computeIfAbsent(newPosition.getSegmentId(), id -> new AtomicInteger())
+                                .incrementAndGet();
+                    } else {
+                        // 复制期间已经写入了结果，在副本之后再补一条结果记录
+                        log.append(encode(TYPE_OUTCOME, (key + "\n" + email.getStatus()).getBytes(StandardCharsets.UTF_8)));
+                    }
+                }));
+            }
+        });
+        CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[0])).join();
+        logger.info("已将分段 {} 中 {} 个未完成的发送意图复制到新分段", segmentId, copies.size());
+    }
+
+    private void track(String key, long segmentId) {
+        pendingSegmentByKey.put(key, segmentId);
+        pendingCountBySegment.computeIfAbsent(segmentId, id -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void untrack(String key) {
+        Long segmentId = pendingSegmentByKey.remove(key);
+        if (segmentId != null) {
+            AtomicInteger pending = pendingCountBySegment.get(segmentId);
+            if (pending != null) {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    private static byte[] encode(byte type, byte[] body) {
+        byte[] payload = new byte[body.length + 1];
+        payload[0] = type;
+        System.arraycopy(body, 0, payload, 1, body.length);
+        return payload;
+    }
+}
@@ -0,0 +1,116 @@
+package org.resend.mailclient.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 发送进度计数器。发送线程只做无锁累加，界面按固定帧率调用 {@link #snapshot()} 读取，
+ * 大批量发送时单封邮件的结果不会触发任何界面更新。
+ */
+public class SendProgress {
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * 进度快照
+     */
+    public static final class Snapshot {
+        private final long submitted;
+        private final long sent;
+        private final long failed;
+        private final long takenAtNanos;
+
+        private Snapshot(long submitted, long sent, long failed, long takenAtNanos) {
+            this.submitted = submitted;
+            this.sent = sent;
+            this.failed = failed;
+            this.takenAtNanos = takenAtNanos;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 获取已有结果的邮件数量
+         *
+         * @return 成功与失败之和
+         */
+        public long getCompleted() {
+            return sent + failed;
+        }
+
+        /**
+         * 获取已提交但还没有结果的邮件数量
+         *
+         * @return 在途数量
+         */
+        public long getInFlight() {
+            return Math.max(0, submitted - sent - failed);
+        }
+
+        /**
+         * 计算与更早的快照之间每秒完成的邮件数量
+         *
+         * @param earlier 更早的快照
+         * @return 每秒完成数量
+         */
+        public double ratePerSecond(Snapshot earlier) {
+            long elapsed = takenAtNanos - earlier.takenAtNanos;
+            if (elapsed <= 0) {
+                return 0;
+            }
+            return (getCompleted() - earlier.getCompleted()) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+
+        /**
+         * 判断计数是否与另一个快照相同
+         *
+         * @param other 另一个快照
+         * @return 是否相同
+         */
+        public boolean sameCounts(Snapshot other) {
+            return other != null && submitted == other.submitted && sent == other.sent && failed == other.failed;
+        }
+    }
+
+    /**
+     * 记录一封邮件已提交
+     */
+    public void recordSubmitted() {
+        submitted.increment();
+    }
+
+    /**
+     * 记录一封邮件的发送结果
+     *
+     * @param success 是否成功
+     */
+    public void recordResult(boolean success) {
+        if (success) {
+            sent.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    /**
+     * 读取当前进度。先读结果计数再读提交计数，并发更新时在途数量不会为负
+     *
+     * @return 快照
+     */
+    public Snapshot snapshot() {
+        long sentCount = sent.sum();
+        long failedCount = failed.sum();
+        return new Snapshot(submitted.sum(), sentCount, failedCount, System.nanoTime());
+    }
+}
@@ -0,0 +1,83 @@
+package org.resend.mailclient.service;
+
+import org.resend.mailclient.model.Email;
+
+/**
+ * 单封邮件的发送结果
+ */
+public class SendResult {
+    private final Email email;
+    private final String emailId;
+    private final Throwable error;
+    private final long latencyMillis;
+
+    private SendResult(Email email, String emailId, Throwable error, long latencyMillis) {
+        this.email = email;
+        this.emailId = emailId;
+        this.error = error;
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * 创建发送成功的结果
+     *
+     * @param email 邮件对象
+     * @param emailId Resend返回的邮件ID
+     * @param latencyMillis 从提交到完成的耗时（毫秒）
+     * @return 发送结果
+     */
+    public static SendResult success(Email email, String emailId, long latencyMillis) {
+        return new SendResult(email, emailId, null, latencyMillis);
+    }
+
+    /**
+     * 创建发送失败的结果
+     *
+     * @param email 邮件对象
+     * @param error 失败原因
+     * @param latencyMillis 从提交到完成的耗时（毫秒）
+     * @return 发送结果
+     */
+    public static SendResult failure(Email email, Throwable error, long latencyMillis) {
+        return new SendResult(email, null, error, latencyMillis);
+    }
+
+    public Email getEmail() {
+        return email;
+    }
+
+    public String getEmailId() {
+        return emailId;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * 获取失败原因的描述
+     *
+     * @return 错误信息，成功时返回 null
+     */
+    public String getErrorMessage() {
+        return error == null ? null : error.getMessage();
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "SendResult{" +
+                "emailId='" + emailId + '\'' +
+                ", success=" + isSuccess() +
+                ", latencyMillis=" + latencyMillis +
+                (error != null ? ", error='" + error.getMessage() + '\'' : "") +
+                '}';
+    }
+}
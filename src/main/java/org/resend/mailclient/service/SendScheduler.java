@@ -0,0 +1,363 @@
+package org.resend.mailclient.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.Email;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 定时发送调度器。
+ * 定时邮件先写入分段日志并落盘，再加入内存中的 {@link HashedTimerWheel}；
+ * 时间轮中只保存幂等键、到期时间和日志位置，到期时才从日志读取邮件内容，大量定时邮件不会占满内存。
+ * 到期的邮件按批次交给发送队列，发送结束后写入完成记录；程序重启时回放日志，未完成的定时邮件重新加入时间轮，
+ * 重启期间已经到期的邮件在启动后立即发送。日志压缩方式与 {@link SendOutbox} 相同。
+ */
+public class SendScheduler implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(SendScheduler.class);
+    private static final byte TYPE_SCHEDULE = 'S';
+    private static final byte TYPE_DONE = 'D';
+    // 记录头：类型 + 到期时间 + 幂等键长度
+    private static final int SCHEDULE_HEADER_SIZE = 1 + Long.BYTES + Short.BYTES;
+
+    /**
+     * 一封定时邮件在内存中的索引
+     */
+    private static final class Entry {
+        private final String key;
+        private final long sendAtMillis;
+        private volatile SegmentedLog.Position position;
+        private volatile HashedTimerWheel.Timeout<Entry> timeout;
+        // 已写入完成记录，和 position 一起在 Entry 上加锁修改
+        private boolean done;
+
+        private Entry(String key, long sendAtMillis, SegmentedLog.Position position) {
+            this.key = key;
+            this.sendAtMillis = sendAtMillis;
+            this.position = position;
+        }
+    }
+
+    private final SegmentedLog log;
+    private final ObjectMapper objectMapper;
+    private final int maxSealedSegments;
+    private final Consumer<List<Email>> dueHandler;
+    private final HashedTimerWheel<Entry> wheel;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private boolean started;
+    private final Map<Long, AtomicInteger> pendingCountBySegment = new ConcurrentHashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "schedule-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 打开调度器并回放日志，恢复上次运行时未完成的定时邮件。调用 {@link #start()} 后才开始投递
+     *
+     * @param directory 日志目录
+     * @param objectMapper 序列化邮件使用的 ObjectMapper
+     * @param segmentBytes 单个分段的最大字节数
+     * @param maxSealedSegments 允许保留的封存分段数量
+     * @param tickMillis 时间轮刻度（毫秒）
+     * @param batchSize 每批交给发送队列的最大邮件数量
+     * @param dueHandler 到期邮件的处理器，在时间轮线程上调用，不应阻塞
+     * @throws IOException 打开或回放失败时抛出
+     */
+    public SendScheduler(Path directory, ObjectMapper objectMapper, long segmentBytes, int maxSealedSegments,
+                         long tickMillis, int batchSize, Consumer<List<Email>> dueHandler) throws IOException {
+        this.log = new SegmentedLog(directory, "schedule-", segmentBytes);
+        this.objectMapper = objectMapper;
+        this.maxSealedSegments = maxSealedSegments;
+        this.dueHandler = dueHandler;
+        this.wheel = new HashedTimerWheel<>("send-scheduler", tickMillis, batchSize, this::fire);
+        recover();
+    }
+
+    /**
+     * 开始投递到期的定时邮件
+     */
+    public void start() {
+        start(key -> false);
+    }
+
+    /**
+     * 开始投递到期的定时邮件，只有第一次调用生效。上次运行中已经交给发送链路、由其他组件负责重发的邮件
+     * 直接写入完成记录，不再投递，避免同一封邮件被两处同时重发
+     *
+     * @param replayedElsewhere 判断幂等键对应的邮件是否已由其他组件（例如发件箱）负责重发
+     */
+    public synchronized void start(Predicate<String> replayedElsewhere) {
+        if (started) {
+            return;
+        }
+        started = true;
+        int handedOver = 0;
+        for (Entry entry : entries.values()) {
+            HashedTimerWheel.Timeout<Entry> timeout = entry.timeout;
+            if (replayedElsewhere.test(entry.key) && timeout != null && timeout.cancel()) {
+                complete(entry.key);
+                handedOver++;
+            }
+        }
+        if (handedOver > 0) {
+            logger.info("{} 封定时邮件上次运行时已进入发件箱，由发件箱继续发送", handedOver);
+        }
+        wheel.start();
+    }
+
+    /**
+     * 添加定时邮件，日志落盘后 Future 才完成。同一幂等键已有未完成的定时邮件时以异常结束
+     *
+     * @param email 邮件对象，必须已分配幂等键并设置发送时间
+     * @return 定时邮件落盘后完成
+     */
+    public CompletableFuture<Void> schedule(Email email) {
+        String key = email.getIdempotencyKey();
+        long sendAtMillis = email.getSendAt().toEpochMilli();
+        Entry entry = new Entry(key, sendAtMillis, null);
+        if (entries.putIfAbsent(key, entry) != null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("该邮件已在定时发送队列中: " + key));
+        }
+        byte[] payload;
+        try {
+            payload = encodeSchedule(key, sendAtMillis, objectMapper.writeValueAsBytes(email));
+        } catch (IOException e) {
+            entries.remove(key);
+            return CompletableFuture.failedFuture(e);
+        }
+        return log.append(payload)
+                .whenComplete((position, error) -> {
+                    if (error != null) {
+                        entries.remove(key, entry);
+                    }
+                })
+                .thenAccept(position -> {
+                    entry.position = position;
+                    countPending(position.getSegmentId(), 1);
+                    entry.timeout = wheel.schedule(entry, sendAtMillis);
+                });
+    }
+
+    /**
+     * 取消尚未到期的定时邮件
+     *
+     * @param key 幂等键
+     * @return 是否取消成功，已经到期交给发送队列或不存在时返回 false
+     */
+    public boolean cancel(String key) {
+        Entry entry = entries.get(key);
+        HashedTimerWheel.Timeout<Entry> timeout = entry != null ? entry.timeout : null;
+        if (timeout == null || !timeout.cancel()) {
+            return false;
+        }
+        complete(key);
+        logger.info("已取消定时邮件: {}", key);
+        return true;
+    }
+
+    /**
+     * 写入完成记录，定时邮件不会在重启后再次投递
+     *
+     * @param key 幂等键
+     */
+    public void complete(String key) {
+        Entry entry = key != null ? entries.get(key) : null;
+        if (entry == null || entry.position == null) {
+            return;
+        }
+        log.append(encodeDone(key))
+                .thenRun(() -> {
+                    synchronized (entry) {
+                        if (entries.remove(key, entry)) {
+                            entry.done = true;
+                            countPending(entry.position.getSegmentId(), -1);
+                        }
+                    }
+                    compactor.execute(this::compact);
+                })
+                .exceptionally(e -> {
+                    logger.error("写入定时邮件完成记录失败: {}", key, e);
+                    return null;
+                });
+    }
+
+    /**
+     * 获取尚未完成的定时邮件数量，包含已到期但还在发送的邮件
+     *
+     * @return 数量
+     */
+    public int getPendingCount() {
+        return entries.size();
+    }
+
+    /**
+     * 获取尚未到期的定时邮件数量
+     *
+     * @return 数量
+     */
+    public int getWaitingCount() {
+        return wheel.size();
+    }
+
+    @Override
+    public void close() {
+        wheel.close();
+        compactor.shutdown();
+        log.close();
+    }
+
+    /**
+     * 时间轮回调：从日志读取到期邮件，交给发送队列
+     */
+    private synchronized void fire(List<Entry> due) {
+        List<Email> emails = new ArrayList<>(due.size());
+        for (Entry entry : due) {
+            try {
+                byte[] payload = log.read(entry.position);
+                emails.add(decodeEmail(payload));
+            } catch (IOException e) {
+                logger.error("读取定时邮件失败: {}", entry.key, e);
+            }
+        }
+        if (!emails.isEmpty()) {
+            logger.info("{} 封定时邮件已到期，提交发送", emails.size());
+            dueHandler.accept(emails);
+        }
+    }
+
+    /**
+     * 回放日志，重建未完成的定时邮件
+     */
+    private void recover() throws IOException {
+        Map<String, Entry> pending = new LinkedHashMap<>();
+        log.replay((position, payload) -> {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            byte type = buffer.get();
+            if (type == TYPE_SCHEDULE) {
+                long sendAtMillis = buffer.getLong();
+                byte[] key = new byte[buffer.getShort()];
+                buffer.get(key);
+                String keyText = new String(key, StandardCharsets.UTF_8);
+                pending.put(keyText, new Entry(keyText, sendAtMillis, position));
+            } else if (type == TYPE_DONE) {
+                pending.remove(new String(payload, 1, payload.length - 1, StandardCharsets.UTF_8));
+            }
+        });
+
+        for (Entry entry : pending.values()) {
+            entries.put(entry.key, entry);
+            countPending(entry.position.getSegmentId(), 1);
+            entry.timeout = wheel.schedule(entry, entry.sendAtMillis);
+        }
+        if (!pending.isEmpty()) {
+            logger.info("已恢复 {} 封定时邮件", pending.size());
+        }
+        compact();
+    }
+
+    /**
+     * 压缩日志：从最旧的封存分段开始，删除没有未完成定时邮件的分段；
+     * 封存分段超过上限时，把最旧分段中未完成的定时邮件复制到活动分段后删除
+     */
+    private synchronized void compact() {
+        try {
+            List<Long> segments = log.listSegments();
+            long active = log.getActiveSegmentId();
+            int sealed = (int) segments.stream().filter(id -> id != active).count();
+            for (long segmentId : segments) {
+                if (segmentId == active) {
+                    break;
+                }
+                AtomicInteger pending = pendingCountBySegment.get(segmentId);
+                if (pending != null && pending.get() > 0) {
+                    if (sealed <= maxSealedSegments) {
+                        break;
+                    }
+                    rewritePending(segmentId);
+                }
+                log.deleteSegment(segmentId);
+                pendingCountBySegment.remove(segmentId);
+                sealed--;
+            }
+        } catch (IOException e) {
+            logger.error("压缩定时发送日志失败", e);
+        }
+    }
+
+    /**
+     * 把分段中仍未完成的定时邮件重新追加到活动分段，并更新内存中的日志位置
+     */
+    private void rewritePending(long segmentId) throws IOException {
+        List<CompletableFuture<Void>> copies = new ArrayList<>();
+        log.replaySegment(segmentId, (position, payload) -> {
+            if (payload[0] != TYPE_SCHEDULE) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(payload, 1 + Long.BYTES, payload.length - 1 - Long.BYTES);
+            byte[] key = new byte[buffer.getShort()];
+            buffer.get(key);
+            Entry entry = entries.get(new String(key, StandardCharsets.UTF_8));
+            if (entry == null || entry.position == null || entry.position.getSegmentId() != segmentId) {
+                return;
+            }
+            copies.add(log.append(payload).thenAccept(newPosition -> {
+                synchronized (entry) {
+                    if (entry.done) {
+                        // 复制期间已经写入了完成记录，在副本之后再补一条，避免回放时副本复活
+                        log.append(encodeDone(entry.key));
+                        return;
+                    }
+                    entry.position = newPosition;
+                    countPending(newPosition.getSegmentId(), 1);
+                }
+            }));
+        });
+        CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[0])).join();
+        logger.info("已将分段 {} 中 {} 封未完成的定时邮件复制到新分段", segmentId, copies.size());
+    }
+
+    private void countPending(long segmentId, int delta) {
+        pendingCountBySegment.computeIfAbsent(segmentId, id -> new AtomicInteger()).addAndGet(delta);
+    }
+
+    private Email decodeEmail(byte[] payload) throws IOException {
+        int keyLength = ByteBuffer.wrap(payload, 1 + Long.BYTES, Short.BYTES).getShort();
+        int offset = SCHEDULE_HEADER_SIZE + keyLength;
+        return objectMapper.readValue(payload, offset, payload.length - offset, Email.class);
+    }
+
+    private static byte[] encodeSchedule(String key, long sendAtMillis, byte[] body) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(SCHEDULE_HEADER_SIZE + keyBytes.length + body.length);
+        buffer.put(TYPE_SCHEDULE);
+        buffer.putLong(sendAtMillis);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.put(body);
+        return buffer.array();
+    }
+
+    private static byte[] encodeDone(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[keyBytes.length + 1];
+        payload[0] = TYPE_DONE;
+        System.arraycopy(keyBytes, 0, payload, 1, keyBytes.length);
+        return payload;
+    }
+}
@@ -0,0 +1,27 @@
+package org.resend.mailclient.service;
+
+import com.resend.core.exception.ResendException;
+
+/**
+ * 本地限流器暂时没有令牌时抛出的异常，请求没有发出。
+ * 重试执行器按等待时间重新提交，不消耗重试次数
+ */
+public class SendThrottledException extends ResendException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    /**
+     * 构造函数
+     *
+     * @param retryAfterMillis 距离有可用令牌的毫秒数
+     */
+    public SendThrottledException(long retryAfterMillis) {
+        super("发送速率已达上限，" + retryAfterMillis + " 毫秒后重新提交");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,81 @@
+package org.resend.mailclient.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.resend.mailclient.model.EmailTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 模板编译器，先用 {@link HtmlOptimizer} 优化模板正文，再把模板中的 {变量} 占位符解析为 {@link CompiledTemplate}。
+ * 编译结果按模板ID和版本缓存，模板修改后版本变化，下次使用时重新编译，
+ * 群发时 HTML 优化和解析都只做一次。
+ */
+public class TemplateCompiler {
+    private static final Logger logger = LogManager.getLogger(TemplateCompiler.class);
+
+    private final Map<String, CompiledTemplate> cache = new ConcurrentHashMap<>();
+    private final HtmlOptimizer htmlOptimizer;
+
+    /**
+     * 构造函数，使用配置文件中的 HTML 优化设置
+     */
+    public TemplateCompiler() {
+        this(HtmlOptimizer.fromConfig());
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param htmlOptimizer 模板正文使用的 HTML 优化器
+     */
+    public TemplateCompiler(HtmlOptimizer htmlOptimizer) {
+        this.htmlOptimizer = htmlOptimizer;
+    }
+
+    /**
+     * 获取模板的编译结果，缓存未命中或版本过期时重新编译
+     *
+     * @param template 邮件模板
+     * @return 编译后的模板
+     */
+    public CompiledTemplate compile(EmailTemplate template) {
+        String subject = template.getSubject();
+        String html = template.getHtmlContent();
+        if (template.getId() == null) {
+            return new CompiledTemplate(null, template.getVersion(), subject, html, htmlOptimizer.optimize(html));
+        }
+        CompiledTemplate cached = cache.get(template.getId());
+        if (cached != null && cached.getVersion() == template.getVersion() && cached.matches(subject, html)) {
+            return cached;
+        }
+        CompiledTemplate compiled = new CompiledTemplate(template.getId(), template.getVersion(), subject, html,
+                htmlOptimizer.optimize(html));
+        cache.put(template.getId(), compiled);
+        MetricsService.increment("template.compiled");
+        logger.debug("已编译模板 {}（版本 {}），变量: {}，每封邮件正文减少 {} 字节", template.getName(), template.getVersion(),
+                compiled.getVariableNames(), compiled.getHtmlBytesSaved());
+        return compiled;
+    }
+
+    /**
+     * 移除模板的编译缓存
+     *
+     * @param templateId 模板ID
+     */
+    public void invalidate(String templateId) {
+        if (templateId != null) {
+            cache.remove(templateId);
+        }
+    }
+
+    /**
+     * 获取缓存中的模板数量
+     *
+     * @return 模板数量
+     */
+    public int size() {
+        return cache.size();
+    }
+}
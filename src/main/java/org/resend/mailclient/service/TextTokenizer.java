@@ -0,0 +1,192 @@
+package org.resend.mailclient.service;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 全文索引的分词器。
+ * <ul>
+ *     <li>中日韩文字按相邻两个字切分（二元分词），例如“邮件发送”切分为“邮件”“件发”“发送”，
+ *     前后都不是中日韩文字的单个字单独作为一个词</li>
+ *     <li>其他文字和数字按连续的字母数字切分为单词并转为小写，忽略单个字母和超过 32 个字符的单词</li>
+ * </ul>
+ * 查询使用同样的切分方式，所有词都出现的邮件才算命中，多字查询相当于近似的短语匹配。
+ */
+final class TextTokenizer {
+    private static final int MAX_WORD_LENGTH = 32;
+
+    private TextTokenizer() {
+    }
+
+    /**
+     * 切分文本
+     *
+     * @param text 文本，可以为 null
+     * @param maxChars 最多处理的字符数
+     * @return 去重后的词，保持出现顺序
+     */
+    static Set<String> terms(String text, int maxChars) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int end = Math.min(text.length(), Math.max(0, maxChars));
+        StringBuilder word = new StringBuilder();
+        int cjkStart = -1;
+        int i = 0;
+        while (i < end) {
+            int codePoint = text.codePointAt(i);
+            int next = i + Character.charCount(codePoint);
+            if (isCjk(codePoint)) {
+                emitWord(word, terms);
+                if (cjkStart < 0) {
+                    cjkStart = i;
+                }
+            } else {
+                emitCjk(text, cjkStart, i, terms);
+                cjkStart = -1;
+                if (Character.isLetterOrDigit(codePoint)) {
+                    word.appendCodePoint(codePoint);
+                } else {
+                    emitWord(word, terms);
+                }
+            }
+            i = next;
+        }
+        emitCjk(text, cjkStart, end, terms);
+        emitWord(word, terms);
+        return terms;
+    }
+
+    /**
+     * 提取 HTML 中的文本：去掉标签、注释、script 和 style 的内容，解码常用的字符实体
+     *
+     * @param html HTML，可以为 null
+     * @param maxChars 最多提取的字符数
+     * @return 文本
+     */
+    static String htmlToText(String html, int maxChars) {
+        if (html == null) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder(Math.min(html.length(), maxChars));
+        int n = html.length();
+        int i = 0;
+        while (i < n && text.length() < maxChars) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                if (html.startsWith("<!--", i)) {
+                    int close = html.indexOf("-->", i + 4);
+                    i = close < 0 ? n : close + 3;
+                    continue;
+                }
+                int close = html.indexOf('>', i + 1);
+                if (close < 0) {
+                    break;
+                }
+                String tag = html.substring(i + 1, close).trim().toLowerCase(Locale.ROOT);
+                i = close + 1;
+                if (tag.startsWith("script") || tag.startsWith("style")) {
+                    String end = tag.startsWith("script") ? "</script" : "</style";
+                    int endTag = indexOfIgnoreCase(html, end, i);
+                    i = endTag < 0 ? n : endTag;
+                }
+                text.append(' ');
+            } else if (c == '&') {
+                int semicolon = html.indexOf(';', i + 1);
+                if (semicolon > i && semicolon - i <= 10) {
+                    int decoded = decodeEntity(html.substring(i + 1, semicolon));
+                    if (decoded >= 0) {
+                        text.appendCodePoint(decoded);
+                        i = semicolon + 1;
+                        continue;
+                    }
+                }
+                text.append(c);
+                i++;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        return text.toString();
+    }
+
+    private static int decodeEntity(String entity) {
+        switch (entity) {
+            case "nbsp":
+                return ' ';
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            default:
+                break;
+        }
+        try {
+            if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                return Integer.parseInt(entity.substring(2), 16);
+            }
+            if (entity.startsWith("#")) {
+                return Integer.parseInt(entity.substring(1));
+            }
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private static void emitWord(StringBuilder word, Set<String> terms) {
+        int length = word.length();
+        if (length > 0 && length <= MAX_WORD_LENGTH && (length > 1 || Character.isDigit(word.charAt(0)))) {
+            terms.add(word.toString().toLowerCase(Locale.ROOT));
+        }
+        word.setLength(0);
+    }
+
+    private static void emitCjk(String text, int start, int end, Set<String> terms) {
+        if (start < 0) {
+            return;
+        }
+        int first = text.codePointAt(start);
+        int second = start + Character.charCount(first);
+        if (second >= end) {
+            terms.add(text.substring(start, end));
+            return;
+        }
+        int i = start;
+        while (i < end) {
+            int next = i + Character.charCount(text.codePointAt(i));
+            if (next >= end) {
+                break;
+            }
+            int afterNext = next + Character.charCount(text.codePointAt(next));
+            terms.add(text.substring(i, afterNext));
+            i = next;
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static int indexOfIgnoreCase(String text, String target, int from) {
+        for (int i = from; i + target.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, target, 0, target.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
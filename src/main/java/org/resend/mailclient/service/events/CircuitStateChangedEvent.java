@@ -0,0 +1,53 @@
+package org.resend.mailclient.service.events;
+
+import org.resend.mailclient.service.CircuitBreaker;
+
+/**
+ * 熔断器状态变化事件，用于通知UI更新状态栏
+ */
+public class CircuitStateChangedEvent {
+    private final String name;
+    private final CircuitBreaker.State previousState;
+    private final CircuitBreaker.State state;
+    private final long remainingOpenMillis;
+
+    public CircuitStateChangedEvent(String name, CircuitBreaker.State previousState, CircuitBreaker.State state,
+                                    long remainingOpenMillis) {
+        this.name = name;
+        this.previousState = previousState;
+        this.state = state;
+        this.remainingOpenMillis = remainingOpenMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker.State getPreviousState() {
+        return previousState;
+    }
+
+    public CircuitBreaker.State getState() {
+        return state;
+    }
+
+    public long getRemainingOpenMillis() {
+        return remainingOpenMillis;
+    }
+
+    /**
+     * 生成用于状态栏显示的描述
+     *
+     * @return 状态描述
+     */
+    public String getDescription() {
+        switch (state) {
+            case OPEN:
+                return "邮件服务响应异常，已暂停发送，" + (remainingOpenMillis / 1000) + " 秒后重试";
+            case HALF_OPEN:
+                return "正在检测邮件服务是否恢复";
+            default:
+                return "邮件服务已恢复正常";
+        }
+    }
+}